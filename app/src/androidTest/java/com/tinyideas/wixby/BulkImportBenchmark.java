@@ -0,0 +1,147 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.tinyideas.wixby.core.PasswordHasher;
+import com.tinyideas.wixby.core.UserRecord;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long `DatabaseHelper.registerUsers()` takes to import a large number of users, for a
+ * few different batch sizes. The numbers are written to logcat under the tag `BulkImportBenchmark`.
+ * Runs against a database of its own, thus the users of the app are left untouched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkImportBenchmark {
+
+    private static final String TAG = "BulkImportBenchmark";
+    private static final String DATABASE_NAME = "bulk-import-benchmark.db";
+
+    private static final int USER_COUNT = 100_000;
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHelper = new DatabaseHelper(context, DATABASE_NAME);
+
+        // Hashing the passwords at the calibrated cost would take up most of the time measured here,
+        // it's measured by `PasswordHasherBenchmark` instead.
+        databaseHelper.setPasswordHasher(new PasswordHasher(1));
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void importWithSmallBatches() {
+        runImport(100);
+    }
+
+    @Test
+    public void importWithDefaultBatches() {
+        runImport(DatabaseHelper.DEFAULT_IMPORT_BATCH_SIZE);
+    }
+
+    @Test
+    public void importWithLargeBatches() {
+        runImport(5_000);
+    }
+
+    @Test
+    public void resumeAfterFailure() {
+        // Failing the import halfway through, then resuming it from the count that was reported.
+        long committed;
+        try {
+            databaseHelper.registerUsers(new SyntheticUsers(USER_COUNT / 10, USER_COUNT / 20), 1_000, 0, null);
+            throw new AssertionError("The import was expected to fail");
+        } catch (DatabaseHelper.BulkImportException e) {
+            committed = e.getCommittedCount();
+        }
+
+        long total = databaseHelper.registerUsers(new SyntheticUsers(USER_COUNT / 10, -1), 1_000, committed, null);
+
+        assertEquals(USER_COUNT / 10, total);
+        assertEquals(USER_COUNT / 10, databaseHelper.getLastRegisteredUser().getUserIndex());
+    }
+
+    private void runImport(int batchSize) {
+        long start = SystemClock.elapsedRealtime();
+        long imported = databaseHelper.registerUsers(new SyntheticUsers(USER_COUNT, -1), batchSize, 0, null);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format("batchSize=%d users=%d time=%dms rate=%d users/s", batchSize, imported,
+                elapsed, imported * 1000 / Math.max(elapsed, 1)));
+
+        assertEquals(USER_COUNT, imported);
+    }
+
+    /**
+     * A lazy source of made up users. The users are generated as they are read, thus even a large
+     * import never holds more than a single user in memory.
+     */
+    private static class SyntheticUsers implements Iterable<UserRecord> {
+        private final int count;
+        private final int failAt;
+
+        /**
+         * @param count  The number of users to be generated.
+         * @param failAt The position at which the iterator throws, -1 to never fail.
+         */
+        SyntheticUsers(int count, int failAt) {
+            this.count = count;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public Iterator<UserRecord> iterator() {
+            return new Iterator<UserRecord>() {
+                private int position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return position < count;
+                }
+
+                @Override
+                public UserRecord next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+
+                    if (position == failAt)
+                        throw new IllegalStateException("Simulated failure at record #" + position);
+
+                    int i = position++;
+                    return new UserRecord("First" + i, "Last" + i, "password" + i, (1 + i % 28) + " March, 1999",
+                            (i % 2 == 0) ? "Male" : "Female", "Location " + i, String.valueOf(100000 + i % 900000),
+                            "State " + (i % 36), "India");
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
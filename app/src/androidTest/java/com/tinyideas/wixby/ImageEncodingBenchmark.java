@@ -0,0 +1,116 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long `ImageHandler.getBytes()` takes to encode a camera sized photo, and how large
+ * the result is, for a few different encodings. The numbers are written to logcat under the tag
+ * `ImageEncodingBenchmark`.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageEncodingBenchmark {
+
+    private static final String TAG = "ImageEncodingBenchmark";
+
+    // A 12 MP photo, in the 4:3 shape most phone cameras use.
+    private static final int PHOTO_WIDTH = 4000;
+    private static final int PHOTO_HEIGHT = 3000;
+
+    private static final int RUNS = 3;
+
+    private Bitmap photo;
+
+    @Before
+    public void setUp() {
+        photo = syntheticPhoto(PHOTO_WIDTH, PHOTO_HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        photo.recycle();
+    }
+
+    @Test
+    public void fullSizePng() {
+        // What every registration used to store, kept here as the baseline.
+        runEncoding(new ImageEncoding(Bitmap.CompressFormat.PNG, PHOTO_WIDTH, PHOTO_HEIGHT, Integer.MAX_VALUE,
+                100, 100, 1), false);
+    }
+
+    @Test
+    public void profileEncoding() {
+        runEncoding(ImageEncoding.PROFILE, true);
+    }
+
+    @Test
+    public void jpegProfile() {
+        runEncoding(new ImageEncoding(Bitmap.CompressFormat.JPEG, 512, 512, 48 * 1024, 85, 40, 10), true);
+    }
+
+    @Test
+    public void pngProfile() {
+        runEncoding(new ImageEncoding(Bitmap.CompressFormat.PNG, 512, 512, 48 * 1024, 100, 100, 1), true);
+    }
+
+    @Test
+    public void largeWebp() {
+        runEncoding(new ImageEncoding(Bitmap.CompressFormat.WEBP, 1024, 1024, 128 * 1024, 85, 40, 10), true);
+    }
+
+    @Test
+    public void tightWebpBudget() {
+        runEncoding(new ImageEncoding(Bitmap.CompressFormat.WEBP, 512, 512, 8 * 1024, 85, 20, 10), true);
+    }
+
+    private void runEncoding(ImageEncoding encoding, boolean checkBudget) {
+        // The first run warms up the codec, only the rest are counted.
+        byte[] imageBytes = ImageHandler.getBytes(photo, encoding);
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < RUNS; i++)
+            imageBytes = ImageHandler.getBytes(photo, encoding);
+        long elapsed = (SystemClock.elapsedRealtime() - start) / RUNS;
+
+        Log.i(TAG, String.format("%s time=%dms size=%dB", encoding, elapsed, imageBytes.length));
+
+        if (checkBudget)
+            assertTrue("Encoded image of " + imageBytes.length + " bytes is over the budget of " + encoding,
+                    imageBytes.length <= encoding.getByteBudget());
+    }
+
+    /**
+     * Draws something that compresses roughly the way a photo does: smooth gradients with a bit of
+     * noise on top. A flat colour would compress to almost nothing and tell us very little.
+     */
+    private static Bitmap syntheticPhoto(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(42);
+        int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + random.nextInt(24)) & 0xff;
+                int green = (y * 255 / height + random.nextInt(24)) & 0xff;
+                int blue = ((x + y) * 255 / (width + height) + random.nextInt(24)) & 0xff;
+                row[x] = 0xff000000 | (red << 16) | (green << 8) | blue;
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        return bitmap;
+    }
+}
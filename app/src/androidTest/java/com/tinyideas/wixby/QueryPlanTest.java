@@ -0,0 +1,138 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes sure that every lookup made by `DatabaseHelper` is served by an index. Uses
+ * `EXPLAIN QUERY PLAN` to ask SQLite how it would run each query, and fails if the answer is a
+ * scan through the entire table. Thus a change to the schema or to a query that silently drops
+ * an index shows up here, long before the table grows large enough for anyone to notice.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String DATABASE_NAME = "query-plan-test.db";
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+    private SQLiteDatabase database;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHelper = new DatabaseHelper(context, DATABASE_NAME);
+        database = databaseHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void lastUserReadsSingleRowByKey() {
+        // Walking the table backwards in key order and stopping at the first row. SQLite reports
+        // this as a scan, but since the order matches the key it never needs to sort anything.
+        String plan = explain(DatabaseHelper.QUERY_LAST_USER_INDEX);
+        assertTrue("Unexpected sort in the plan\n" + plan, !plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void usersPageUsesPrimaryKey() {
+        assertPlanUses(DatabaseHelper.QUERY_USERS_PAGE, "INTEGER PRIMARY KEY", "100", "50");
+    }
+
+    @Test
+    public void nameLookupsUseNameIndexes() {
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_NAME, DatabaseHelper.INDEX_NAME, "Doe", "John", "50");
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_LAST_NAME, DatabaseHelper.INDEX_NAME, "Doe", "50");
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_FIRST_NAME, DatabaseHelper.INDEX_FIRST_NAME, "John", "50");
+    }
+
+    @Test
+    public void pinLookupUsesPinIndex() {
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_PIN, DatabaseHelper.INDEX_PIN, "110001", "50");
+    }
+
+    @Test
+    public void regionLookupsUseRegionIndex() {
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_COUNTRY, DatabaseHelper.INDEX_REGION, "India", "50");
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_STATE, DatabaseHelper.INDEX_REGION, "India", "Delhi", "50");
+    }
+
+    @Test
+    public void birthLookupUsesDateOfBirthIndex() {
+        // Sorted by the same column, thus the index also saves the sort.
+        String plan = explain(DatabaseHelper.QUERY_USERS_BY_BIRTH, "10000", "12000", "50");
+        assertTrue("Unexpected sort in the plan\n" + plan, !plan.contains("TEMP B-TREE"));
+        assertPlanUses(DatabaseHelper.QUERY_USERS_BY_BIRTH, DatabaseHelper.INDEX_DOB, "10000", "12000", "50");
+    }
+
+    @Test
+    public void searchUsesFullTextIndex() {
+        assertPlanUses(DatabaseHelper.QUERY_SEARCH_USERS_BY_NAME, "VIRTUAL TABLE INDEX", "jo*", "jo%", "jo%", "10");
+        assertPlanUses(DatabaseHelper.QUERY_SEARCH_OTHER_USERS, "VIRTUAL TABLE INDEX", "jo*", "jo%", "jo%", "10");
+    }
+
+    @Test
+    public void searchNeverSortsTheMatches() {
+        // The full text index hands the matches back newest first, thus a prefix matching most of
+        // the users still stops after the first few of them.
+        String plan = explain(DatabaseHelper.QUERY_SEARCH_USERS_BY_NAME, "jo*", "jo%", "jo%", "10");
+        assertTrue("Unexpected sort in the plan\n" + plan, !plan.contains("TEMP B-TREE"));
+
+        plan = explain(DatabaseHelper.QUERY_SEARCH_OTHER_USERS, "jo*", "jo%", "jo%", "10");
+        assertTrue("Unexpected sort in the plan\n" + plan, !plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void renditionLookupUsesPrimaryKey() {
+        assertPlanUses(DatabaseHelper.QUERY_RENDITION, "PRIMARY KEY", "1", "128");
+    }
+
+    /**
+     * Asserts that the plan for a query mentions the expected index and never scans `IndexTable`.
+     */
+    private void assertPlanUses(String query, String expected, String... args) {
+        String plan = explain(query, args);
+        assertTrue("Expected " + expected + " in the plan for " + query + "\n" + plan, plan.contains(expected));
+
+        for (String step : plan.split("\n")) {
+            boolean fullScan = step.startsWith("SCAN") && step.contains(DatabaseHelper.TABLE_NAME)
+                    && !step.contains("USING");
+            assertTrue("Full table scan in the plan for " + query + "\n" + plan, !fullScan);
+        }
+    }
+
+    /**
+     * Returns the plan SQLite would use for a query, one step per line.
+     */
+    private String explain(String query, String... args) {
+        StringBuilder plan = new StringBuilder();
+
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(detail)).append('\n');
+        } finally {
+            cursor.close();
+        }
+
+        return plan.toString();
+    }
+}
@@ -0,0 +1,191 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A pool of bitmaps that are no longer in use, kept around so that their memory can be handed to the
+ * decoder (using `BitmapFactory.Options.inBitmap`) instead of allocating a fresh buffer for every
+ * image. Decoding a couple of images a second while a list scrolls would otherwise leave a trail of
+ * large buffers behind for the garbage collector to clean up.
+ * <p>
+ * Only bitmaps that are definitely no longer drawn anywhere may be put in the pool, as the pixels of
+ * a pooled bitmap are overwritten the moment it's reused. In practice these are the intermediate
+ * bitmaps created while scaling an image down, which are thrown away as soon as the scaling is done.
+ * <p>
+ * How well the pool is doing is printed along with the metrics of the database, by
+ * `adb shell dumpsys activity top` while `DisplayData` is showing, and to logcat once a user has
+ * been shown if logging is enabled for `TAG`. The pool is emptied when the system runs low on
+ * memory, see `WixbyApplication.onTrimMemory()`.
+ */
+public class BitmapPool {
+
+    // The tag that logcat output is written under, after `adb shell setprop log.tag.WixbyBitmapPool DEBUG`.
+    static final String TAG = "WixbyBitmapPool";
+
+    // The pool may hold on to this fraction of the memory available to the application.
+    private static final int MEMORY_FRACTION = 16;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    // The pooled bitmaps, the least recently added first. Guarded by `this`.
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+
+    // Counters for how well the pool is doing. Guarded by `this`.
+    private long hits = 0;
+    private long misses = 0;
+    private long puts = 0;
+    private long evictions = 0;
+
+    /**
+     * The class constructor.
+     *
+     * @param maxBytes The largest number of bytes the pooled bitmaps may take up.
+     */
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the pool shared by the entire application.
+     *
+     * @return The process-wide instance of the pool.
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null)
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+
+        return instance;
+    }
+
+    /**
+     * Takes a bitmap out of the pool that is large enough to hold an image of the given size. The
+     * smallest such bitmap is picked, thus a small image never ties up a large buffer. The bitmap
+     * is meant to be used as `BitmapFactory.Options.inBitmap`, which takes care of changing its
+     * size and configuration to match the image.
+     *
+     * @param width  The width of the image that is to be decoded.
+     * @param height The height of the image that is to be decoded.
+     * @param config The configuration the image is to be decoded with.
+     * @return A bitmap from the pool, or null if none of them is large enough.
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long required = (long) width * height * bytesPerPixel(config);
+
+        Bitmap bestFit = null;
+        for (Bitmap bitmap : bitmaps) {
+            int size = bitmap.getAllocationByteCount();
+            if (size >= required && (bestFit == null || size < bestFit.getAllocationByteCount()))
+                bestFit = bitmap;
+        }
+
+        if (bestFit == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        bitmaps.remove(bestFit);
+        currentBytes -= bestFit.getAllocationByteCount();
+        return bestFit;
+    }
+
+    /**
+     * Hands a bitmap that is no longer in use to the pool. Bitmaps that can't be reused by the
+     * decoder (immutable bitmaps, which includes hardware bitmaps), or that don't fit in the pool,
+     * are recycled instead. Either way, the caller must not touch the bitmap after this.
+     *
+     * @param bitmap The bitmap that is no longer in use.
+     */
+    public synchronized void put(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+
+        // Hardware bitmaps are always immutable, thus the check for mutability takes care of them too.
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        puts++;
+        bitmaps.addLast(bitmap);
+        currentBytes += size;
+
+        // Making room by dropping the bitmaps that have been in the pool the longest.
+        Iterator<Bitmap> iterator = bitmaps.iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Bitmap eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getAllocationByteCount();
+            eldest.recycle();
+            evictions++;
+        }
+    }
+
+    /**
+     * Empties the pool. Executed by `WixbyApplication` when the system is running low on memory.
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : bitmaps)
+            bitmap.recycle();
+
+        bitmaps.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getPutCount() {
+        return puts;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Prints the counters of the pool to logcat, if logging has been enabled for `TAG`.
+     */
+    public void dumpToLog() {
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, toString());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BitmapPool[hits=%d misses=%d puts=%d evictions=%d bytes=%d/%d]", hits, misses,
+                puts, evictions, currentBytes, maxBytes);
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            return 2;
+        if (config == Bitmap.Config.ALPHA_8)
+            return 1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16)
+            return 8;
+
+        return 4;
+    }
+}
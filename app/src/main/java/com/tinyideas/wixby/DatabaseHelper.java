@@ -2,19 +2,45 @@ package com.tinyideas.wixby;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.tinyideas.wixby.DbMetrics.Operation;
+import com.tinyideas.wixby.core.Date;
+import com.tinyideas.wixby.core.DateCodec;
+import com.tinyideas.wixby.core.PasswordHasher;
+import com.tinyideas.wixby.core.UserRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "DatabaseHelper";
+
     public static final String DATABASE_NAME = "Users.db";
 
     public static final String TABLE_NAME = "IndexTable";
     public static final String IMAGE_TABLE = "ImageTable";
+    public static final String RENDITION_TABLE = "ImageRenditions";
 
     public static final String COLUMN_INDEX = "AutoIndex";
     public static final String COLUMN_FIRST_NAME = "FirstName";
@@ -26,22 +52,227 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_PIN = "PinCode";
     public static final String COLUMN_DOB = "DateOfBirth";
     public static final String COLUMN_GENDER = "Gender";
+
+    // The date of birth as the number of days since 1 January 1970. `COLUMN_DOB` keeps the text shown
+    // to the user, this is what the users are sorted and looked up by. Null if the text isn't a date.
+    public static final String COLUMN_DOB_EPOCH_DAY = "DateOfBirthEpochDay";
     public static final String COLUMN_IMAGE = "Image";
 
+    // The details of the image kept in `ImageTable` for every user. The image itself lives in the
+    // `ImageStore`, in a file named after its hash. `Image` is only ever filled in for the rows
+    // written before version 5, till the background migration moves them into the store.
+    public static final String COLUMN_IMAGE_HASH = "Hash";
+    public static final String COLUMN_IMAGE_SIZE = "ByteCount";
+    public static final String COLUMN_IMAGE_WIDTH = "Width";
+    public static final String COLUMN_IMAGE_HEIGHT = "Height";
+    public static final String COLUMN_IMAGE_TYPE = "MimeType";
+
+    // The perceptual hash of the image (see `PerceptualHash`), used for finding near duplicates.
+    public static final String COLUMN_IMAGE_PERCEPTUAL_HASH = "PerceptualHash";
+
+    // Every rendition is keyed by its user and the side of the square it was made to fit in.
+    public static final String COLUMN_RENDITION_SIZE = "MaxSize";
+
+    // The version of the database schema. Needs to be incremented (along with a matching step in
+    // `Migrations.STEPS`) whenever the structure of the tables changes.
+    //  1 -> The initial release.
+    //  2 -> Rows of `ImageTable` are keyed by the `AutoIndex` of the user they belong to.
+    //  3 -> Secondary indexes on the name, PIN code and country/state columns.
+    //  4 -> Full-text search table over the names and places of the users.
+    //  5 -> Images are kept in the `ImageStore`, `ImageTable` only holds their hash and details.
+    //  6 -> Smaller renditions of every image, kept in `ImageRenditions`.
+    //  7 -> The perceptual hash of every image, kept in `ImageTable`.
+    //  8 -> The date of birth as an indexed epoch day, kept next to the text in `IndexTable`.
+    //  9 -> Passwords are stored as salted PBKDF2 hashes (see `PasswordHasher`) instead of as typed.
+    static final int DATABASE_VERSION = 9;
+
+    // A full-text index over the columns of `IndexTable` that people search by. The table stores no
+    // text of its own (it points back to `IndexTable`), and triggers keep it in sync with every
+    // insert, update and delete made on `IndexTable`.
+    static final String SEARCH_TABLE = "UserSearch";
+
+    // The secondary indexes on `IndexTable`, one for every kind of lookup the application makes.
+    // Names are compared without case, thus the name indexes are built without case as well.
+    static final String INDEX_NAME = "IndexTableName";
+    static final String INDEX_FIRST_NAME = "IndexTableFirstName";
+    static final String INDEX_PIN = "IndexTablePin";
+    static final String INDEX_REGION = "IndexTableRegion";
+    static final String INDEX_IMAGE_HASH = "ImageTableHash";
+    static final String INDEX_DOB = "IndexTableDateOfBirth";
+
+    // Inserts a single rendition. The details of the image are bound by `bindImage()`, starting at 3.
+    static final String INSERT_RENDITION = String.format("INSERT OR REPLACE INTO %s (%s, %s, %s, %s, %s, %s, %s) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?)", RENDITION_TABLE, COLUMN_INDEX, COLUMN_RENDITION_SIZE,
+            COLUMN_IMAGE_HASH, COLUMN_IMAGE_SIZE, COLUMN_IMAGE_WIDTH, COLUMN_IMAGE_HEIGHT, COLUMN_IMAGE_TYPE);
+
+    // The smallest rendition of an image that is at least as large as the given size.
+    static final String QUERY_RENDITION = String.format("SELECT %s FROM %s WHERE %s = ? AND %s >= ? " +
+            "ORDER BY %s LIMIT 1", COLUMN_IMAGE_HASH, RENDITION_TABLE, COLUMN_INDEX, COLUMN_RENDITION_SIZE,
+            COLUMN_RENDITION_SIZE);
+
+    // Whether any user still refers to an image in the store, either as their image or as one of its
+    // renditions.
+    static final String QUERY_IMAGE_REFERENCED = String.format("SELECT 1 FROM %s WHERE %s = ?1 UNION ALL " +
+            "SELECT 1 FROM %s WHERE %s = ?1 LIMIT 1", IMAGE_TABLE, COLUMN_IMAGE_HASH, RENDITION_TABLE,
+            COLUMN_IMAGE_HASH);
+
+    // Images that are still held by `ImageTable` (see `COLUMN_IMAGE`) are read in pieces of this
+    // size, thus no single row ever comes close to the 2 MB limit of a `CursorWindow`.
+    private static final int IMAGE_CHUNK_SIZE = 512 * 1024;
+
+    // The columns read into a `UserSummary`, shared by every query that returns a list of users.
+    private static final String SUMMARY_COLUMNS = String.format("%s, %s, %s, %s, %s, %s", COLUMN_INDEX,
+            COLUMN_FIRST_NAME, COLUMN_LAST_NAME, COLUMN_PLACE, COLUMN_STATE, COLUMN_COUNTRY);
+
+    // The queries used for looking up users. Kept here (instead of inside the methods) so that the
+    // tests can check that each of them is served by an index and not by scanning the entire table.
+    static final String QUERY_LAST_USER_INDEX = String.format("SELECT IFNULL((SELECT %s FROM %s " +
+            "ORDER BY %s DESC LIMIT 1), 0)", COLUMN_INDEX, TABLE_NAME, COLUMN_INDEX);
+
+    static final String QUERY_USERS_PAGE = String.format("SELECT %s FROM %s WHERE %s < ? " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_INDEX, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_NAME = String.format("SELECT %s FROM %s WHERE %s = ? COLLATE NOCASE " +
+                    "AND %s = ? COLLATE NOCASE ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME,
+            COLUMN_LAST_NAME, COLUMN_FIRST_NAME, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_LAST_NAME = String.format("SELECT %s FROM %s WHERE %s = ? COLLATE NOCASE " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_LAST_NAME, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_FIRST_NAME = String.format("SELECT %s FROM %s WHERE %s = ? COLLATE NOCASE " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_FIRST_NAME, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_PIN = String.format("SELECT %s FROM %s WHERE %s = ? " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_PIN, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_COUNTRY = String.format("SELECT %s FROM %s WHERE %s = ? " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_COUNTRY, COLUMN_INDEX);
+
+    static final String QUERY_USERS_BY_STATE = String.format("SELECT %s FROM %s WHERE %s = ? AND %s = ? " +
+            "ORDER BY %s DESC LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_COUNTRY, COLUMN_STATE, COLUMN_INDEX);
+
+    // Ordered by the date of birth, which is the order the index hands the rows back in.
+    static final String QUERY_USERS_BY_BIRTH = String.format("SELECT %s FROM %s WHERE %s BETWEEN ? AND ? " +
+            "ORDER BY %s LIMIT ?", SUMMARY_COLUMNS, TABLE_NAME, COLUMN_DOB_EPOCH_DAY, COLUMN_DOB_EPOCH_DAY);
+
+    // Users matching everything typed, newest first. The full text index is forced to be the outer
+    // loop, thus the matches come back from it in the order of their `docid` (the `AutoIndex`) and
+    // the query stops as soon as it has enough of them, instead of sorting every match.
+    private static final String SEARCH_USERS = String.format("SELECT u.%s, u.%s, u.%s, u.%s, u.%s, u.%s " +
+                    "FROM %s s CROSS JOIN %s u ON u.%s = s.docid WHERE %s MATCH ? AND (u.%s LIKE ? OR u.%s LIKE ?) " +
+                    "%%s ORDER BY s.docid DESC LIMIT ?",
+            COLUMN_INDEX, COLUMN_FIRST_NAME, COLUMN_LAST_NAME, COLUMN_PLACE, COLUMN_STATE, COLUMN_COUNTRY,
+            SEARCH_TABLE, TABLE_NAME, COLUMN_INDEX, SEARCH_TABLE, COLUMN_FIRST_NAME, COLUMN_LAST_NAME);
+
+    // The users whose first or last name starts with the first word typed, who are ranked first.
+    static final String QUERY_SEARCH_USERS_BY_NAME = String.format(SEARCH_USERS, "IS 1");
+
+    // The rest of the users, who only matched on their location or state (or have no name at all).
+    static final String QUERY_SEARCH_OTHER_USERS = String.format(SEARCH_USERS, "IS NOT 1");
+
+    // The columns of `IndexTable` in the order in which they are read into a `Data` object. The
+    // image isn't part of it, it's read from `ImageTable` only when it's actually needed.
+    private static final String[] USER_COLUMNS = {COLUMN_INDEX, COLUMN_FIRST_NAME, COLUMN_LAST_NAME,
+            COLUMN_PASSWORD, COLUMN_DOB, COLUMN_GENDER, COLUMN_PLACE, COLUMN_PIN, COLUMN_STATE, COLUMN_COUNTRY};
+
+    // The number of users written per transaction by a bulk import, unless specified otherwise.
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 500;
+
+    // The time hashing a single password should take, whatever the device. The number of iterations
+    // that takes this long is measured once per process, and the largest measurement for the device
+    // (and build of the system) is kept in the preferences. See `getPasswordHasher()`.
+    static final long PASSWORD_HASH_TARGET_MILLIS = 250;
+    private static final String PASSWORD_PREFERENCES = "PasswordHashing";
+    private static final String PREFERENCE_ITERATIONS = "Iterations";
+    private static final String PREFERENCE_FINGERPRINT = "Fingerprint";
+
+    private static DatabaseHelper instance;
+
+    // Statements that are executed over and over again are compiled once and then reused, with
+    // only the arguments being bound again on every use. Compiled lazily on their first use, and
+    // guarded by the statement object itself as the bound arguments are not thread safe.
+    private SQLiteStatement insertUserStatement;
+    private SQLiteStatement insertImageStatement;
+    private SQLiteStatement insertRenditionStatement;
+    private SQLiteStatement lastUserIndexStatement;
+
+    private final ImageStore imageStore;
+    private final UserImageCache imageCache;
+
+    // The latencies and counters of every operation made through this helper.
+    private final DbMetrics metrics = new DbMetrics();
+
+    // Set once the database has been opened, thus only the call that actually opens it is traced.
+    private volatile boolean opened = false;
+
+    // Whether the background migrations are started whenever the database is opened. Only turned off
+    // by tests, which run the migrations themselves one batch at a time.
+    private volatile boolean startsBackgroundMigrations = true;
+
+    // The index over the perceptual hashes of the images, loaded from `ImageTable` the first time
+    // it's needed. Guarded by `perceptualHashLock`.
+    private final Object perceptualHashLock = new Object();
+    private PerceptualHashIndex perceptualHashIndex;
+
+    // The hasher every password goes through, calibrated the first time it's needed. Guarded by
+    // `passwordHasherLock`, thus a second thread waits for the calibration instead of repeating it.
+    private final Object passwordHasherLock = new Object();
+    private final SharedPreferences passwordPreferences;
+    private PasswordHasher passwordHasher;
+
+    // The thumbnails on the disk may take up to this many bytes, the decoded bitmaps in memory up to
+    // this fraction of the memory available to the application.
+    private static final long THUMBNAIL_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final int IMAGE_MEMORY_FRACTION = 8;
+
     /**
-     * The constructor of the class. Will be used to fetch the context from the calling activity into
-     * the object of this class. Will then internally initialize the database table using the parent
-     * constructor and supplying the relevant information required to the parent constructor. Inside
-     * the constructor, the name of the database that will be used by the application is passed to parent.
-     * If a database with the same name doesn't already exist, then the `onCreate()` method will be
-     * executed which will then create the database. If a database of the same name does exist, then
-     * the `onCreate()` method will be skipped.
+     * The constructor of the class. Will initialize the database using the parent constructor and
+     * supplying the relevant information required to the parent constructor. If a database with the
+     * same name doesn't already exist, then the `onCreate()` method will be executed which will then
+     * create the database. If a database of the same name does exist, then the `onCreate()` method
+     * will be skipped.
+     * <p>
+     * The rest of the application should use `getInstance()` instead, this constructor is only
+     * exposed to allow tests to work with a database of their own.
+     *
+     * @param context      The context of the application. Will be required to locate the database.
+     * @param databaseName The name of the database file that is to be used.
+     */
+    @VisibleForTesting
+    DatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+
+        // With write-ahead logging, readers no longer have to wait for a writer to commit (and vice
+        // versa). Reads from other threads are served from their own connections, while the writes
+        // go through the primary connection.
+        setWriteAheadLoggingEnabled(true);
+
+        // Every database gets a store of its own, thus a test database never shares images with
+        // the one used by the application.
+        imageStore = new ImageStore(new File(context.getFilesDir(), databaseName + "-images"));
+
+        // Same goes for the thumbnails, which are kept in the cache directory as the system is free
+        // to remove them whenever it runs short of space.
+        imageCache = new UserImageCache(this, new File(context.getCacheDir(), databaseName + "-thumbnails"),
+                (int) Math.min(Runtime.getRuntime().maxMemory() / IMAGE_MEMORY_FRACTION, Integer.MAX_VALUE),
+                THUMBNAIL_CACHE_BYTES, UserImageCache.THUMBNAIL_SIZE);
+
+        passwordPreferences = context.getSharedPreferences(PASSWORD_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the helper shared by the entire application. The helper (and the connection that it
+     * opens) is kept alive for as long as the process is, thus the cost of opening the database and
+     * compiling the statements is paid only once.
      *
-     * @param context The context from the calling activity. Will be required to load attributes using
-     *                the database.
+     * @param context Any context from the application. Only the application context is retained.
+     * @return The process-wide instance of the helper.
      */
-    public DatabaseHelper(@Nullable Context context) {
-        super(context, DATABASE_NAME, null, 1);
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null)
+            instance = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME);
+
+        return instance;
     }
 
     /**
@@ -55,6 +286,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        long start = DbMetrics.start();
+        Tracer.beginSection("DatabaseHelper.onCreate");
+
         // The only scenario when the flow-of-control reaches here will be when the database hasn't
         // been created before. So, creating the database in here using SQL
 
@@ -67,13 +301,143 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 COLUMN_DOB, COLUMN_GENDER, COLUMN_PLACE, COLUMN_PIN, COLUMN_STATE, COLUMN_COUNTRY
         );
 
-        // Creating another table that will be used specifically to store images in the database
-        String imageQuery = String.format("CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "%s BLOB);", IMAGE_TABLE, COLUMN_INDEX, COLUMN_IMAGE);
-
-        // Running the SQL Query(s) created above.
+        // Running the SQL Query(s) created above, and creating another table that will be used
+        // specifically to store images in the database.
         sqLiteDatabase.execSQL(sqlQuery);
-        sqLiteDatabase.execSQL(imageQuery);
+        createImageTable(sqLiteDatabase, IMAGE_TABLE);
+        addImageStoreColumns(sqLiteDatabase);
+        addPerceptualHashColumn(sqLiteDatabase);
+        createRenditionTable(sqLiteDatabase);
+        createIndexes(sqLiteDatabase);
+        addDateOfBirthEpochDayColumn(sqLiteDatabase);
+        createSearchTable(sqLiteDatabase);
+        Migrations.createJobsTable(sqLiteDatabase);
+
+        // Keys are never reused within a database, but a database that was removed and created
+        // again starts counting from the beginning. Dropping whatever the cache kept for the old
+        // database here means that a newly inserted user never has to be dropped from the cache.
+        imageCache.clear();
+
+        Tracer.endSection();
+        metrics.record(Operation.CREATE, start, 0, 0);
+    }
+
+    /**
+     * Creates the secondary indexes on `IndexTable`. Without these, every lookup by name, PIN or
+     * location would have to scan through the entire table.
+     *
+     * @param sqLiteDatabase The database in which the indexes are to be created.
+     */
+    static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s COLLATE NOCASE, " +
+                "%s COLLATE NOCASE)", INDEX_NAME, TABLE_NAME, COLUMN_LAST_NAME, COLUMN_FIRST_NAME));
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s COLLATE NOCASE)",
+                INDEX_FIRST_NAME, TABLE_NAME, COLUMN_FIRST_NAME));
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)",
+                INDEX_PIN, TABLE_NAME, COLUMN_PIN));
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s, %s)",
+                INDEX_REGION, TABLE_NAME, COLUMN_COUNTRY, COLUMN_STATE));
+    }
+
+    /**
+     * Creates the table used to store the images. The table has no key of its own, every row is
+     * keyed by the `AutoIndex` of the user the image belongs to. Thus a user and their image can
+     * always be lined up with a simple join.
+     *
+     * @param sqLiteDatabase The database in which the table is to be created.
+     * @param tableName      The name to be used for the table.
+     */
+    static void createImageTable(SQLiteDatabase sqLiteDatabase, String tableName) {
+        sqLiteDatabase.execSQL(String.format("CREATE TABLE %s (%s INTEGER PRIMARY KEY REFERENCES %s(%s) " +
+                "ON DELETE CASCADE, %s BLOB);", tableName, COLUMN_INDEX, TABLE_NAME, COLUMN_INDEX, COLUMN_IMAGE));
+    }
+
+    /**
+     * Adds the columns that describe an image kept in the `ImageStore` to `ImageTable`, along with
+     * an index on the hash. The index allows finding every user that shares a particular image.
+     *
+     * @param sqLiteDatabase The database in which the columns are to be added.
+     */
+    static void addImageStoreColumns(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s TEXT", IMAGE_TABLE, COLUMN_IMAGE_HASH));
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", IMAGE_TABLE, COLUMN_IMAGE_SIZE));
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", IMAGE_TABLE, COLUMN_IMAGE_WIDTH));
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", IMAGE_TABLE, COLUMN_IMAGE_HEIGHT));
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s TEXT", IMAGE_TABLE, COLUMN_IMAGE_TYPE));
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)", INDEX_IMAGE_HASH,
+                IMAGE_TABLE, COLUMN_IMAGE_HASH));
+    }
+
+    /**
+     * Adds the column holding the perceptual hash of every image to `ImageTable`. The column isn't
+     * indexed, near duplicates are looked up through the `PerceptualHashIndex` instead.
+     *
+     * @param sqLiteDatabase The database in which the column is to be added.
+     */
+    static void addPerceptualHashColumn(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", IMAGE_TABLE,
+                COLUMN_IMAGE_PERCEPTUAL_HASH));
+    }
+
+    /**
+     * Adds the column holding the date of birth as an epoch day to `IndexTable`, along with an index
+     * on it. The index serves the lookups by date of birth (and by age), see `findUsersBornBetween()`.
+     *
+     * @param sqLiteDatabase The database in which the column is to be added.
+     */
+    static void addDateOfBirthEpochDayColumn(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", TABLE_NAME,
+                COLUMN_DOB_EPOCH_DAY));
+        sqLiteDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)", INDEX_DOB,
+                TABLE_NAME, COLUMN_DOB_EPOCH_DAY));
+    }
+
+    /**
+     * Creates the table that holds the renditions of every image. The renditions of a user are
+     * stored next to each other (the table is clustered on its key), thus picking the right one
+     * reads a single page.
+     *
+     * @param sqLiteDatabase The database in which the table is to be created.
+     */
+    static void createRenditionTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s (%s INTEGER NOT NULL REFERENCES " +
+                        "%s(%s) ON DELETE CASCADE, %s INTEGER NOT NULL, %s TEXT NOT NULL, %s INTEGER, %s INTEGER, " +
+                        "%s INTEGER, %s TEXT, PRIMARY KEY (%s, %s)) WITHOUT ROWID", RENDITION_TABLE, COLUMN_INDEX,
+                TABLE_NAME, COLUMN_INDEX, COLUMN_RENDITION_SIZE, COLUMN_IMAGE_HASH, COLUMN_IMAGE_SIZE,
+                COLUMN_IMAGE_WIDTH, COLUMN_IMAGE_HEIGHT, COLUMN_IMAGE_TYPE, COLUMN_INDEX, COLUMN_RENDITION_SIZE));
+    }
+
+    /**
+     * Creates the full-text search table along with the triggers that keep it in sync with
+     * `IndexTable`. The table is an "external content" FTS4 table, i.e. it only holds the index and
+     * reads the actual text from `IndexTable`, thus the text isn't stored twice. Prefixes of two
+     * and three characters are indexed as well, which is what most type-ahead queries look like.
+     *
+     * @param sqLiteDatabase The database in which the table is to be created.
+     */
+    static void createSearchTable(SQLiteDatabase sqLiteDatabase) {
+        String columns = String.format("%s, %s, %s, %s", COLUMN_FIRST_NAME, COLUMN_LAST_NAME,
+                COLUMN_PLACE, COLUMN_STATE);
+        String newValues = String.format("new.%s, new.%s, new.%s, new.%s", COLUMN_FIRST_NAME,
+                COLUMN_LAST_NAME, COLUMN_PLACE, COLUMN_STATE);
+
+        sqLiteDatabase.execSQL(String.format("CREATE VIRTUAL TABLE %s USING fts4(content=\"%s\", %s, " +
+                "prefix=\"2,3\")", SEARCH_TABLE, TABLE_NAME, columns));
+
+        // The old text has to be removed from the index before the row changes, and the new text
+        // added once the row has changed. Updates to columns that aren't searched are ignored.
+        String deleteOld = String.format("DELETE FROM %s WHERE docid = old.%s;", SEARCH_TABLE, COLUMN_INDEX);
+        String insertNew = String.format("INSERT INTO %s (docid, %s) VALUES (new.%s, %s);", SEARCH_TABLE,
+                columns, COLUMN_INDEX, newValues);
+
+        sqLiteDatabase.execSQL(String.format("CREATE TRIGGER %s_ai AFTER INSERT ON %s BEGIN %s END",
+                SEARCH_TABLE, TABLE_NAME, insertNew));
+        sqLiteDatabase.execSQL(String.format("CREATE TRIGGER %s_bd BEFORE DELETE ON %s BEGIN %s END",
+                SEARCH_TABLE, TABLE_NAME, deleteOld));
+        sqLiteDatabase.execSQL(String.format("CREATE TRIGGER %s_bu BEFORE UPDATE OF %s ON %s BEGIN %s END",
+                SEARCH_TABLE, columns, TABLE_NAME, deleteOld));
+        sqLiteDatabase.execSQL(String.format("CREATE TRIGGER %s_au AFTER UPDATE OF %s ON %s BEGIN %s END",
+                SEARCH_TABLE, columns, TABLE_NAME, insertNew));
     }
 
     /**
@@ -84,6 +448,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * <p>
      * This method is a single transaction method, i.e. while processing any query in this method, if the
      * operation fails, the entire database will be reverted back to its previous state.
+     * <p>
+     * The actual steps live in `Migrations`. Only the quick structural changes are made in here, the
+     * rewrites of existing rows are scheduled as background migrations and executed once the database
+     * has been opened (see `onOpen()`).
      *
      * @param sqLiteDatabase The SQLiteDatabase object on which the commands are to be executed.
      * @param oldVersion     An integer containing the old version of the database that is to be outdated
@@ -92,16 +460,83 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // Normally, the program isn't supposed to reach this part of the code. However, in some
-        // scenario if the flow-of-control does reach this, deleting the existing table and creating a new one.
-        String sqlQuery = String.format("Drop table if exists %s", TABLE_NAME);
+        // Each version of the schema has its own step. The steps are applied one after the other,
+        // thus a database that is a few versions behind is walked up to the latest version without
+        // losing any of the users already present in it.
+        long start = DbMetrics.start();
+        Tracer.beginSection("DatabaseHelper.onUpgrade");
+        try {
+            Migrations.upgrade(sqLiteDatabase, oldVersion, newVersion);
+            metrics.record(Operation.UPGRADE, start, 0, 0);
+        } finally {
+            Tracer.endSection();
+        }
+    }
 
-        // Executing the above query.
-        sqLiteDatabase.execSQL(sqlQuery);
+    /**
+     * Opens the database (creating or upgrading it if required) the first time it's called, and
+     * returns the open database after that. Only the first call is traced, see `Tracer`.
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        if (opened)
+            return super.getWritableDatabase();
+
+        long start = DbMetrics.start();
+        Tracer.beginSection("DatabaseHelper.open");
+        try {
+            SQLiteDatabase database = super.getWritableDatabase();
+            opened = true;
+            metrics.record(Operation.OPEN, start, 0, 0);
+            return database;
+        } finally {
+            Tracer.endSection();
+        }
+    }
+
+    /**
+     * See `getWritableDatabase()`.
+     */
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        if (opened)
+            return super.getReadableDatabase();
+
+        long start = DbMetrics.start();
+        Tracer.beginSection("DatabaseHelper.open");
+        try {
+            SQLiteDatabase database = super.getReadableDatabase();
+            opened = true;
+            metrics.record(Operation.OPEN, start, 0, 0);
+            return database;
+        } finally {
+            Tracer.endSection();
+        }
+    }
 
-        // Once the table has been dropped, forcefully recreating the same table by directly executing
-        // the `onCreate()`.
-        onCreate(sqLiteDatabase);
+    /**
+     * Executed every time the database is opened, after it has been created or upgraded. Starts
+     * the background migrations that are yet to finish, if there are any.
+     *
+     * @param sqLiteDatabase The database that was opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        if (!sqLiteDatabase.isReadOnly() && startsBackgroundMigrations)
+            Migrations.startBackgroundMigrations(this);
+    }
+
+    /**
+     * Decides whether the background migrations are started once the database has been opened. Has
+     * to be called before the database is opened for the first time.
+     *
+     * @param starts False to leave the background migrations to the caller, see `Migrations`.
+     */
+    @VisibleForTesting
+    void setStartsBackgroundMigrations(boolean starts) {
+        startsBackgroundMigrations = starts;
     }
 
     /**
@@ -124,103 +559,1123 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public long registerUser(String firstName, String lastName, String password, String place,
                              String state, String country, String pin, String dob, String gender, Bitmap image) {
+        long start = DbMetrics.start();
+
         // Starting by getting an instance of the database that will be used to write the values into.
         SQLiteDatabase database = this.getWritableDatabase();
 
-        // Creating a new instance of `ContentValues`, think of this as an object to which all the
-        // data that should be added to a single row of the database will be added and then this object
-        // will be added to the database.
-        ContentValues contentValues = new ContentValues();
-
-        // The values are to be added to this object in the form of key-value pair. With `key` being
-        // the name of the column to which this data is to be added and `value` being the data to be added.
-        contentValues.put(COLUMN_FIRST_NAME, firstName);
-        contentValues.put(COLUMN_LAST_NAME, lastName);
-        contentValues.put(COLUMN_PASSWORD, password);
-        contentValues.put(COLUMN_DOB, dob);
-        contentValues.put(COLUMN_GENDER, gender);
-        contentValues.put(COLUMN_PLACE, place);
-        contentValues.put(COLUMN_PIN, pin);
-        contentValues.put(COLUMN_STATE, state);
-        contentValues.put(COLUMN_COUNTRY, country);
-
-        // Once all the values that are to be added to a row of the table have been placed inside this
-        // object, adding this object to the table. If the insertion is successful, `result` will be
-        // the row ID of the newly inserted row (-1 in case of error).
-        long result = database.insert(TABLE_NAME, null, contentValues);
-
-        // Overwriting the same `contentValues` now to insert image into the database.
-        contentValues = new ContentValues();
-
-        // Using `ImageHandler` class to convert the supplied image into an array of bytes. And
-        // adding the same to the ImageTable of the database.
-        contentValues.put(COLUMN_IMAGE, ImageHandler.getBytes(image));
-
-        long resultNew = database.insert(IMAGE_TABLE, null, contentValues);
-
-        /*
-         * nullColumnHack -->> Normally, a completely empty (null) row cannot be added to SQLite
-         * database without explicitly indicating name of the column to which the null entry should be
-         * added. Thus, in case if all the entries that have been added to `contentValues` are null,
-         * the row cannot be added to the database without signifying which column the null
-         * value should be added to. In such a scenario, the column name that is provided as value for
-         * `nullColumnHack` is used and this null value is added to that column. However, if instead
-         * of a column name `null` is provided as the value for `nullColumnHack` (like in this case)
-         * then a completely empty row can't be added to the database and `result` will be -1.
+        // Wrapping the details into a record and letting `insertUser()` do the actual writing. The
+        // image and its renditions are converted and written into the store before the transaction
+        // begins to keep the database locked for less time.
+        UserRecord record = new UserRecord(firstName, lastName, password, dob, gender, place, pin,
+                state, country);
+
+        // The password is hashed here as well, hashing takes far longer than the inserts do. Whatever
+        // the user typed is a password, even if it looks like a hash.
+        record = withHashedPassword(record, false);
+
+        ImageRenditions images;
+        try {
+            images = ImageRenditions.create(image, imageStore);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store the image", e);
+            metrics.recordFailure(Operation.REGISTER_USER, start);
+            return -1;
+        }
+
+        // Both the rows are written inside a single transaction, thus there is a single commit for
+        // the user and the image, and a user never ends up without their image (or vice-versa).
+        long result = -1;
+        long transactionStart = DbMetrics.start();
+        database.beginTransaction();
+        try {
+            result = insertUser(record, images);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+
+            // Nothing refers to the stored images if the user wasn't written.
+            if (result < 0)
+                discardImages(images);
+        }
+        metrics.recordTransaction(transactionStart, (result >= 0) ? 1 : 0);
+
+        if (result >= 0) {
+            indexPerceptualHash(result, images.getPerceptualHash());
+            metrics.record(Operation.REGISTER_USER, start, 1, lengthOf(record)
+                    + ((images.getOriginal() != null) ? images.getOriginal().getByteCount() : 0));
+        } else {
+            metrics.recordFailure(Operation.REGISTER_USER, start);
+        }
+
+        // The database is intentionally left open, it will be reused by the next operation.
+        return result;
+    }
+
+    /**
+     * Writes a single user (along with their image) into the database. Unlike `registerUser()` this
+     * method does not touch the transaction state. This allows the caller (for example
+     * `RegistrationQueue`) to group multiple users into a single transaction.
+     * <p>
+     * Must be called from inside a transaction. The image is keyed by the `AutoIndex` of the user,
+     * and if the image can't be written the user row is removed again, thus on failure nothing from
+     * this user is left behind once the transaction commits.
+     * <p>
+     * The caller is expected to hand the perceptual hash of the image to `indexPerceptualHash()`
+     * once the transaction has been committed, and to hash the password with `withHashedPassword()`
+     * before the transaction begins. Nothing is hashed here, the database would stay locked while it
+     * was.
+     *
+     * @param record The details of the user that are to be written, with the password hashed.
+     * @param images The image of the user along with its renditions, already written into the store
+     *               using `ImageRenditions.create()`. Can be null if the user has no image.
+     * @return If the insertion is successful, the `AutoIndex` of the newly inserted user will be
+     * returned and -1 will be returned in case of error.
+     * @throws IllegalArgumentException If the password hasn't been hashed, thus it never reaches the
+     *                                  table as typed.
+     */
+    long insertUser(UserRecord record, @Nullable ImageRenditions images) {
+        if (record.getPassword() != null && !PasswordHasher.isHash(record.getPassword(), 1))
+            throw new IllegalArgumentException("The password should be hashed before the user is inserted");
+
+        SQLiteDatabase database = getWritableDatabase();
+        compileStatements(database);
+
+        long start = DbMetrics.start();
+
+        // Since the caller holds the write transaction, no other thread can be inside this method
+        // at the same time. The locks below are only there to keep the bound arguments safe.
+        long result;
+        synchronized (insertUserStatement) {
+            // The arguments are bound in the order in which the columns are listed in the statement.
+            bindText(insertUserStatement, 1, record.getFirstName());
+            bindText(insertUserStatement, 2, record.getLastName());
+            bindText(insertUserStatement, 3, record.getPassword());
+            bindText(insertUserStatement, 4, record.getDateOfBirth());
+            bindText(insertUserStatement, 5, record.getGender());
+            bindText(insertUserStatement, 6, record.getLocation());
+            bindText(insertUserStatement, 7, record.getPin());
+            bindText(insertUserStatement, 8, record.getState());
+            bindText(insertUserStatement, 9, record.getCountry());
+            bindEpochDay(insertUserStatement, 10, record.getDateOfBirth());
+
+            result = executeInsert(insertUserStatement);
+        }
+
+        // Since negative value implies an error in insertion, no point in adding the image. Users
+        // without an image (for example the ones brought in by a bulk import) have no image row.
+        if (result < 0) {
+            metrics.recordFailure(Operation.INSERT_USER, start);
+            return result;
+        }
+        if (images == null || images.getOriginal() == null) {
+            metrics.record(Operation.INSERT_USER, start, 1, lengthOf(record));
+            return result;
+        }
+
+        // The image shares the key of the user that was just inserted. Only the details of the
+        // image are written, the image itself is already in the store.
+        long imageResult;
+        synchronized (insertImageStatement) {
+            insertImageStatement.bindLong(1, result);
+            bindImage(insertImageStatement, 2, images.getOriginal());
+            insertImageStatement.bindLong(7, images.getPerceptualHash());
+
+            imageResult = executeInsert(insertImageStatement);
+        }
+
+        // The renditions share the key as well.
+        synchronized (insertRenditionStatement) {
+            for (Rendition rendition : images.getRenditions()) {
+                if (imageResult < 0)
+                    break;
+
+                insertRenditionStatement.bindLong(1, result);
+                insertRenditionStatement.bindLong(2, rendition.getMaxSize());
+                bindImage(insertRenditionStatement, 3, rendition.getImage());
+
+                imageResult = executeInsert(insertRenditionStatement);
+            }
+        }
+
+        if (imageResult < 0) {
+            // Foreign keys aren't enforced, thus the rows of the image have to be removed by hand.
+            String[] key = {String.valueOf(result)};
+            database.delete(RENDITION_TABLE, COLUMN_INDEX + " = ?", key);
+            database.delete(IMAGE_TABLE, COLUMN_INDEX + " = ?", key);
+            database.delete(TABLE_NAME, COLUMN_INDEX + " = ?", key);
+            metrics.recordFailure(Operation.INSERT_USER, start);
+            return -1;
+        }
+
+        // The user, the details of the image and every rendition.
+        metrics.record(Operation.INSERT_USER, start, 2 + images.getRenditions().size(), lengthOf(record));
+        return result;
+    }
+
+    /**
+     * Removes the image (and the renditions) written into the store for a user that in the end was
+     * never written, for example because the transaction was rolled back or the registration was
+     * cancelled. Identical images are only kept once, thus a file is left alone as long as any user
+     * still refers to it.
+     * <p>
+     * Must be called once the transaction is over. An identical image being stored for another user
+     * at the very same moment may still lose its file, that user then reads as having no image, the
+     * same as when the file is lost in any other way.
+     *
+     * @param images The images, as returned by `ImageRenditions.create()`. Can be null.
+     */
+    void discardImages(@Nullable ImageRenditions images) {
+        if (images == null)
+            return;
+
+        List<String> hashes = new ArrayList<>(1 + images.getRenditions().size());
+        if (images.getOriginal() != null)
+            hashes.add(images.getOriginal().getHash());
+        for (Rendition rendition : images.getRenditions())
+            hashes.add(rendition.getImage().getHash());
+
+        discardStoredImages(hashes);
+    }
+
+    /**
+     * Removes renditions written into the store that in the end no row refers to, the same way as
+     * `discardImages()` does. Must be called once the transaction is over.
+     *
+     * @param renditions The renditions, as returned by `ImageRenditions.createRenditions()`.
+     */
+    void discardRenditions(List<Rendition> renditions) {
+        List<String> hashes = new ArrayList<>(renditions.size());
+        for (Rendition rendition : renditions)
+            hashes.add(rendition.getImage().getHash());
+
+        discardStoredImages(hashes);
+    }
+
+    private void discardStoredImages(List<String> hashes) {
+        try {
+            SQLiteDatabase database = getReadableDatabase();
+            for (String hash : hashes) {
+                Cursor cursor = database.rawQuery(QUERY_IMAGE_REFERENCED, new String[]{hash});
+                try {
+                    if (!cursor.moveToFirst())
+                        imageStore.delete(hash);
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (SQLException e) {
+            // Without knowing who refers to the files, the only safe thing is to keep them.
+            Log.e(TAG, "Unable to look up the references to an image", e);
+        }
+    }
+
+    /**
+     * Writes a large number of users into the database, using the default batch size and starting
+     * from the very first record. See `registerUsers(Iterable, int, long, ImportListener)`.
+     *
+     * @param records The users that are to be written.
+     * @return The number of users written into the database.
+     */
+    public long registerUsers(Iterable<UserRecord> records) {
+        return registerUsers(records, DEFAULT_IMPORT_BATCH_SIZE, 0, null);
+    }
+
+    /**
+     * Writes a large number of users into the database. Instead of a transaction per user (which is
+     * what calling `registerUser()` in a loop would result in), the users are written in chunks of
+     * `batchSize`, each chunk being a single transaction, and every user goes through the same
+     * compiled statement. Users written by this method have no image.
+     * <p>
+     * Passwords that are already hashed (see `PasswordHasher.isHash()`) are written as they are,
+     * thus users exported from another install keep their passwords. Anything else, including a
+     * hash of fewer than `PasswordHasher.MIN_ITERATIONS`, is hashed before its batch is written.
+     * Hashing is slow on purpose, thus an import of passwords as typed takes about
+     * `PASSWORD_HASH_TARGET_MILLIS` per user.
+     * <p>
+     * The records are read one at a time, thus `records` can be a lazy source that never holds all
+     * the users in memory at once. If the import fails partway through, every batch that was
+     * committed before the failure stays in the database and the exception reports how many records
+     * were committed. Calling this method again with the same records and that count as `skip`
+     * resumes the import right after the last committed batch.
+     *
+     * @param records   The users that are to be written.
+     * @param batchSize The number of users to be written per transaction.
+     * @param skip      The number of records (from the start of `records`) that have already been
+     *                  written by an earlier attempt and are to be skipped.
+     * @param listener  An optional listener, informed after every committed batch. Executed on the
+     *                  thread calling this method.
+     * @return The total number of records committed, including the skipped ones.
+     * @throws BulkImportException If a batch could not be written. None of the users from the failed
+     *                             batch are committed.
+     */
+    public long registerUsers(Iterable<UserRecord> records, int batchSize, long skip,
+                              @Nullable ImportListener listener) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize should be positive, received " + batchSize);
+
+        long start = DbMetrics.start();
+        SQLiteDatabase database = getWritableDatabase();
+        Iterator<UserRecord> iterator = records.iterator();
+
+        // Fast-forwarding past the records that were committed by a previous attempt.
+        long committed = 0;
+        while (committed < skip && iterator.hasNext()) {
+            iterator.next();
+            committed++;
+        }
+        long skipped = committed;
+        long bytes = 0;
+
+        List<UserRecord> batch = new ArrayList<>(Math.min(batchSize, DEFAULT_IMPORT_BATCH_SIZE));
+        while (iterator.hasNext()) {
+            // The passwords of the batch are hashed before its transaction begins, thus the database
+            // isn't kept locked while they are.
+            batch.clear();
+            try {
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    UserRecord record = withHashedPassword(iterator.next(), true);
+                    bytes += lengthOf(record);
+                    batch.add(record);
+                }
+            } catch (RuntimeException e) {
+                metrics.recordFailure(Operation.BULK_IMPORT, start);
+                throw new BulkImportException(committed, e);
+            }
+
+            int written = 0;
+
+            long transactionStart = DbMetrics.start();
+            database.beginTransaction();
+            try {
+                while (written < batch.size()) {
+                    if (insertUser(batch.get(written), null) < 0)
+                        throw new SQLException("Unable to insert record #" + (committed + written));
+
+                    written++;
+                }
+
+                database.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                metrics.recordFailure(Operation.BULK_IMPORT, start);
+                throw new BulkImportException(committed, e);
+            } finally {
+                database.endTransaction();
+            }
+            metrics.recordTransaction(transactionStart, written);
+
+            committed += written;
+            if (listener != null)
+                listener.onBatchCommitted(committed);
+        }
+
+        metrics.record(Operation.BULK_IMPORT, start, committed - skipped, bytes);
+        return committed;
+    }
+
+    /**
+     * Returns a copy of the record with its password hashed by `getPasswordHasher()`. Hashing takes
+     * about `PASSWORD_HASH_TARGET_MILLIS`, thus this should be called on a background thread and
+     * outside of any transaction.
+     *
+     * @param record           The details of a user.
+     * @param keepExistingHash Whether a password that is already a hash (see `PasswordHasher.isHash()`)
+     *                         is kept as it is. Only meant for records that were read back from a
+     *                         database, never for a password the user typed.
+     * @return The record itself if it has no password (or keeps its hash), a copy with the hash in
+     * place of the password otherwise.
+     */
+    UserRecord withHashedPassword(UserRecord record, boolean keepExistingHash) {
+        String password = record.getPassword();
+        if (password == null || (keepExistingHash && PasswordHasher.isHash(password)))
+            return record;
+
+        return new UserRecord(record.getFirstName(), record.getLastName(), getPasswordHasher().hash(password),
+                record.getDateOfBirth(), record.getGender(), record.getLocation(), record.getPin(),
+                record.getState(), record.getCountry());
+    }
+
+    /**
+     * Returns the hasher that passwords are stored with. The first call in every process measures how
+     * many iterations the device can hash in `PASSWORD_HASH_TARGET_MILLIS`, which takes a few dozen
+     * milliseconds, thus it should be made on a background thread (it's made by the first hash,
+     * on the thread writing the user).
+     * <p>
+     * A measurement comes out low whenever the device is busy, for example while an app is starting.
+     * Thus the largest measurement is kept in the preferences, and a smaller one is only taken once
+     * the system is updated or the app is restored onto another device.
+     *
+     * @return The hasher, shared by every operation of this helper.
+     */
+    PasswordHasher getPasswordHasher() {
+        synchronized (passwordHasherLock) {
+            if (passwordHasher != null)
+                return passwordHasher;
+
+            // Measured at the default priority, whatever the priority of the calling thread, as a
+            // background thread only gets a fraction of the processor.
+            int iterations;
+            int priority = Process.getThreadPriority(Process.myTid());
+            Tracer.beginSection("PasswordHasher.calibrate");
+            try {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                iterations = PasswordHasher.calibrate(PASSWORD_HASH_TARGET_MILLIS);
+            } finally {
+                Process.setThreadPriority(priority);
+                Tracer.endSection();
+            }
+
+            if (Build.FINGERPRINT.equals(passwordPreferences.getString(PREFERENCE_FINGERPRINT, null)))
+                iterations = Math.max(iterations, passwordPreferences.getInt(PREFERENCE_ITERATIONS, 0));
+
+            Log.i(TAG, "Passwords will be hashed with " + iterations + " iterations");
+            passwordPreferences.edit()
+                    .putInt(PREFERENCE_ITERATIONS, iterations)
+                    .putString(PREFERENCE_FINGERPRINT, Build.FINGERPRINT)
+                    .apply();
+
+            passwordHasher = new PasswordHasher(iterations);
+            return passwordHasher;
+        }
+    }
+
+    /**
+     * Replaces the calibrated hasher. Only meant for tests that aren't measuring the hashing, which
+     * would otherwise spend most of their time on it.
+     *
+     * @param hasher The hasher that passwords are to be stored with from here on.
+     */
+    @VisibleForTesting
+    void setPasswordHasher(PasswordHasher hasher) {
+        synchronized (passwordHasherLock) {
+            passwordHasher = hasher;
+        }
+    }
+
+    /**
+     * Listener used by `registerUsers()` to report the progress of a bulk import.
+     */
+    public interface ImportListener {
+        /**
+         * Executed after every batch of users is committed to the database.
+         *
+         * @param committed The total number of records committed so far, including skipped records.
+         *                  Can be used as the `skip` argument to resume an import that fails later on.
+         */
+        void onBatchCommitted(long committed);
+    }
+
+    /**
+     * Thrown by `registerUsers()` when a batch of users could not be written. Carries the number of
+     * records that were committed before the failure, thus the import can be resumed from there.
+     */
+    public static class BulkImportException extends SQLException {
+        private final long committedCount;
+
+        BulkImportException(long committedCount, Throwable cause) {
+            super("Bulk import failed after " + committedCount + " records", cause);
+            this.committedCount = committedCount;
+        }
+
+        /**
+         * @return The number of records (counted from the start of the input) that were committed
+         * before the failure.
          */
+        public long getCommittedCount() {
+            return committedCount;
+        }
+    }
+
+    /**
+     * Compiles the statements that are reused across operations, if they haven't been compiled
+     * already. The statements stay valid for as long as the database is open.
+     *
+     * @param database The open database against which the statements are to be compiled.
+     */
+    private synchronized void compileStatements(SQLiteDatabase database) {
+        if (insertUserStatement != null)
+            return;
+
+        insertUserStatement = database.compileStatement(String.format("INSERT INTO %s (%s, %s, %s, %s, " +
+                        "%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", TABLE_NAME,
+                COLUMN_FIRST_NAME, COLUMN_LAST_NAME, COLUMN_PASSWORD, COLUMN_DOB, COLUMN_GENDER,
+                COLUMN_PLACE, COLUMN_PIN, COLUMN_STATE, COLUMN_COUNTRY, COLUMN_DOB_EPOCH_DAY));
 
-        // Once the row is added to the database, closing the database and returning result.
-        database.close();
+        insertImageStatement = database.compileStatement(String.format("INSERT INTO %s (%s, %s, %s, %s, " +
+                        "%s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?)", IMAGE_TABLE, COLUMN_INDEX, COLUMN_IMAGE_HASH,
+                COLUMN_IMAGE_SIZE, COLUMN_IMAGE_WIDTH, COLUMN_IMAGE_HEIGHT, COLUMN_IMAGE_TYPE,
+                COLUMN_IMAGE_PERCEPTUAL_HASH));
 
-        // Since negative value implies an error in insertion, thus sending negative value (if present).
-        return (result < 0) ? result : resultNew;
+        insertRenditionStatement = database.compileStatement(INSERT_RENDITION);
+
+        // `IFNULL()` makes sure that an empty table gives back 0 instead of failing the query.
+        lastUserIndexStatement = database.compileStatement(QUERY_LAST_USER_INDEX);
     }
 
+    /**
+     * Binds a string to a compiled statement. `bindString()` refuses null values, thus the nulls
+     * are bound explicitly.
+     */
+    static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    /**
+     * Binds the epoch day of a date of birth written by `DateFormatter`. A date that can't be parsed
+     * is bound as null, such a user is simply left out of the lookups by date of birth.
+     */
+    static void bindEpochDay(SQLiteStatement statement, int index, String dateOfBirth) {
+        int epochDay = DateCodec.parse(dateOfBirth);
+        if (epochDay == DateCodec.NOT_A_DATE)
+            statement.bindNull(index);
+        else
+            statement.bindLong(index, epochDay);
+    }
+
+    /**
+     * Binds the details of a stored image to five consecutive arguments of a compiled statement,
+     * starting at `index`, in the order hash, size, width, height and format. The size of an image
+     * that couldn't be read is bound as null.
+     */
+    static void bindImage(SQLiteStatement statement, int index, StoredImage image) {
+        bindText(statement, index, image.getHash());
+        statement.bindLong(index + 1, image.getByteCount());
+
+        if (image.getWidth() < 0 || image.getHeight() < 0) {
+            statement.bindNull(index + 2);
+            statement.bindNull(index + 3);
+        } else {
+            statement.bindLong(index + 2, image.getWidth());
+            statement.bindLong(index + 3, image.getHeight());
+        }
+
+        bindText(statement, index + 4, image.getMimeType());
+    }
+
+    /**
+     * Executes a compiled insert statement. Mirrors the behaviour of `SQLiteDatabase.insert()`,
+     * i.e. the errors are logged and -1 is returned instead of throwing.
+     */
+    private static long executeInsert(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting a row", e);
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Closes the statements compiled by this helper along with the database itself. Since the
+     * helper is meant to live as long as the process does, this is only used by tests.
+     */
+    @Override
+    public synchronized void close() {
+        if (insertUserStatement != null) {
+            insertUserStatement.close();
+            insertImageStatement.close();
+            insertRenditionStatement.close();
+            lastUserIndexStatement.close();
+            insertUserStatement = null;
+            insertImageStatement = null;
+            insertRenditionStatement = null;
+            lastUserIndexStatement = null;
+        }
+
+        opened = false;
+        super.close();
+    }
 
     /**
      * This method will be used to get the last row form the database. Will return the data as an object
      * of `Data` that will contain the details about the user who registered.
      *
-     * @return An object containing the data of the user who last registered in the database.
+     * @return An object containing the data of the user who last registered in the database, or
+     * null if nobody has registered yet.
      */
     public Data getLastRegisteredUser() {
+        long start = DbMetrics.start();
+        compileStatements(getReadableDatabase());
+
+        // Looking up the latest key first using the compiled statement, and then fetching the user
+        // with that key.
+        long lastIndex;
+        synchronized (lastUserIndexStatement) {
+            lastIndex = lastUserIndexStatement.simpleQueryForLong();
+        }
+
+        Data user = (lastIndex > 0) ? getUser(lastIndex) : null;
+        metrics.record(Operation.LAST_USER, start, (user != null) ? 1 : 0, lengthOf(user));
+        return user;
+    }
+
+    /**
+     * Fetches a single user using the `AutoIndex` of the user. Only the text columns are read, the
+     * returned object holds a reference to the image which is read (and decoded) the first time
+     * `Data.getImage()` is called. Thus, showing just the details of a user never touches the image.
+     *
+     * @param userIndex The `AutoIndex` of the user that is to be fetched.
+     * @return An object containing the data of the user, or null if no such user exists.
+     */
+    public Data getUser(long userIndex) {
+        long start = DbMetrics.start();
+
         // Getting a readable instance of the database.
         SQLiteDatabase sqLiteDatabase = this.getReadableDatabase();
 
-        // Writing the SQL Query that will be used to get the last row from the database.
-        String query = String.format("SELECT * FROM %s WHERE %s = (SELECT MAX(%s) FROM %s)",
-                TABLE_NAME, COLUMN_INDEX, COLUMN_INDEX, TABLE_NAME);
+        // Creating a new cursor. This cursor will get location of the row when the query is executed.
+        Cursor cursor = sqLiteDatabase.query(TABLE_NAME, USER_COLUMNS, COLUMN_INDEX + " = ?",
+                new String[]{String.valueOf(userIndex)}, null, null, null, null);
+        try {
+            // If the database had no such data, then there's nothing to return.
+            if (!cursor.moveToFirst()) {
+                metrics.record(Operation.GET_USER, start, 0, 0);
+                return null;
+            }
+
+            // Using the cursor to create a `Data` object by reading values from each column one by
+            // one. The columns are read in the order in which they are listed in `USER_COLUMNS`.
+            Data user = new Data(cursor.getInt(0), cursor.getString(1),
+                    cursor.getString(2), cursor.getString(3), cursor.getString(4),
+                    cursor.getString(5), cursor.getString(6), cursor.getString(7),
+                    cursor.getString(8), cursor.getString(9), new ImageReference(this, userIndex));
+            metrics.record(Operation.GET_USER, start, 1, lengthOf(user));
+            return user;
+        } finally {
+            // Once the work with the cursor is done, closing it.
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the store in which the images of the users are kept.
+     */
+    ImageStore getImageStore() {
+        return imageStore;
+    }
+
+    /**
+     * Returns the cache holding the images of the users that have been shown recently. Preferred
+     * over reading the images directly wherever the image is only to be shown.
+     */
+    public UserImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * Returns the latencies and counters of every operation made through this helper.
+     */
+    public DbMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Opens the image of a user for reading. The image is streamed from the `ImageStore`, thus it can
+     * be decoded without ever holding the encoded image in memory.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is to be read.
+     * @return A stream over the image (to be closed by the caller), or null if the user has no image.
+     */
+    @Nullable
+    InputStream openUserImage(long userIndex) {
+        long start = DbMetrics.start();
+        String hash = getUserImageHash(userIndex);
+        if (hash != null) {
+            InputStream image = imageStore.open(hash);
+            metrics.record(Operation.OPEN_IMAGE, start, 1, 0);
+            return image;
+        }
+
+        // Images from before version 5 that the background migration hasn't reached yet.
+        byte[] imageBytes = readImageColumn(getReadableDatabase(), userIndex);
+        metrics.record(Operation.OPEN_IMAGE, start, (imageBytes != null) ? 1 : 0,
+                (imageBytes != null) ? imageBytes.length : 0);
+        return (imageBytes == null) ? null : new ByteArrayInputStream(imageBytes);
+    }
+
+    /**
+     * Opens the smallest rendition of the image of a user that is at least as large as the given
+     * size, thus the image can be decoded at (close to) the size of the view it's shown in. Falls
+     * back to the original if none of the renditions is large enough.
+     * <p>
+     * Renditions keep the shape of the original and fit in a square, thus a rendition is picked by
+     * the larger of the two sides.
+     *
+     * @param userIndex    The `AutoIndex` of the user whose image is to be read.
+     * @param targetWidth  The width of the view in which the image will be shown, in pixels.
+     * @param targetHeight The height of the view in which the image will be shown, in pixels.
+     * @return A stream over the image (to be closed by the caller), or null if the user has no image.
+     */
+    @Nullable
+    InputStream openUserImage(long userIndex, int targetWidth, int targetHeight) {
+        long start = DbMetrics.start();
+        Cursor cursor = getReadableDatabase().rawQuery(QUERY_RENDITION, new String[]{String.valueOf(userIndex),
+                String.valueOf(Math.max(targetWidth, targetHeight))});
+        String hash;
+        try {
+            hash = cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+
+        InputStream rendition = (hash == null) ? null : imageStore.open(hash);
+        if (rendition == null)
+            rendition = openUserImage(userIndex);
+
+        metrics.record(Operation.OPEN_RENDITION, start, (rendition != null) ? 1 : 0, 0);
+        return rendition;
+    }
+
+    /**
+     * Reads the image of a user, as an array of bytes. Prefer `openUserImage()` wherever a stream
+     * will do.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is to be read.
+     * @return The image as an array of bytes, or null if the user has no image.
+     */
+    byte[] getUserImageBytes(long userIndex) {
+        long start = DbMetrics.start();
+        String hash = getUserImageHash(userIndex);
+        byte[] image = (hash != null) ? imageStore.read(hash) : readImageColumn(getReadableDatabase(), userIndex);
+
+        metrics.record(Operation.READ_IMAGE, start, (image != null) ? 1 : 0, (image != null) ? image.length : 0);
+        return image;
+    }
+
+    /**
+     * Looks up the hash of the image of a user. This is the only query made on `ImageTable` for
+     * reading an image, the image itself is then read from the `ImageStore`.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is to be read.
+     * @return The hash of the image, or null if the user has no image in the store.
+     */
+    @Nullable
+    private String getUserImageHash(long userIndex) {
+        SQLiteDatabase sqLiteDatabase = this.getReadableDatabase();
+
+        Cursor cursor = sqLiteDatabase.query(IMAGE_TABLE, new String[]{COLUMN_IMAGE_HASH}, COLUMN_INDEX + " = ?",
+                new String[]{String.valueOf(userIndex)}, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Finds the users who registered the same photo as the one given (or one that is nearly the
+     * same, for example the same photo scaled or re-encoded), closest matches first.
+     * <p>
+     * The first call loads the perceptual hashes of every image into memory, thus this should never
+     * be called from the main thread. Images registered before version 7 are only found once the
+     * background migration has hashed them.
+     *
+     * @param image       The photo to look for.
+     * @param maxDistance The number of bits in which the perceptual hashes may differ, see
+     *                    `PerceptualHash.NEAR_DUPLICATE_DISTANCE`.
+     * @param limit       The maximum number of users to be returned.
+     * @return The users with a similar photo, the most similar (and then the newest) first.
+     */
+    public List<UserSummary> findNearDuplicates(Bitmap image, int maxDistance, int limit) {
+        return findNearDuplicates(PerceptualHash.of(image), -1, maxDistance, limit);
+    }
+
+    /**
+     * Finds the users whose photo is the same as (or nearly the same as) the photo of the given user.
+     * See `findNearDuplicates(Bitmap, int, int)`.
+     *
+     * @param userIndex   The `AutoIndex` of the user whose photo is to be looked for.
+     * @param maxDistance The number of bits in which the perceptual hashes may differ.
+     * @param limit       The maximum number of users to be returned.
+     * @return The other users with a similar photo, the most similar (and then the newest) first.
+     * Empty if the photo of the user hasn't been hashed yet.
+     */
+    public List<UserSummary> findNearDuplicates(long userIndex, int maxDistance, int limit) {
+        Cursor cursor = getReadableDatabase().query(IMAGE_TABLE, new String[]{COLUMN_IMAGE_PERCEPTUAL_HASH},
+                COLUMN_INDEX + " = ? AND " + COLUMN_IMAGE_PERCEPTUAL_HASH + " IS NOT NULL",
+                new String[]{String.valueOf(userIndex)}, null, null, null, null);
+        try {
+            if (!cursor.moveToFirst())
+                return new ArrayList<>();
+
+            return findNearDuplicates(cursor.getLong(0), userIndex, maxDistance, limit);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Looks up a perceptual hash in the index and reads the matching users.
+     *
+     * @param hash         The perceptual hash to look for.
+     * @param excludeIndex The `AutoIndex` of a user to be left out of the result, -1 for none.
+     * @param maxDistance  The number of bits in which the perceptual hashes may differ.
+     * @param limit        The maximum number of users to be returned.
+     */
+    private List<UserSummary> findNearDuplicates(long hash, long excludeIndex, int maxDistance, int limit) {
+        long start = DbMetrics.start();
+        List<HashMatch> matches = getPerceptualHashIndex().find(hash, maxDistance);
+
+        // The users are read by their keys in a single query, and then put back in the order of
+        // the matches. The keys are numbers, thus they can be written into the query directly.
+        StringBuilder keys = new StringBuilder();
+        List<Long> order = new ArrayList<>(Math.min(matches.size(), limit));
+        for (HashMatch match : matches) {
+            if (order.size() == limit)
+                break;
+            if (match.getUserIndex() == excludeIndex || order.contains(match.getUserIndex()))
+                continue;
+
+            if (keys.length() > 0)
+                keys.append(',');
+            keys.append(match.getUserIndex());
+            order.add(match.getUserIndex());
+        }
+
+        if (order.isEmpty()) {
+            metrics.record(Operation.NEAR_DUPLICATES, start, 0, 0);
+            return new ArrayList<>();
+        }
+
+        List<UserSummary> users = queryUsers(null, String.format("SELECT %s FROM %s WHERE %s IN (%s)",
+                SUMMARY_COLUMNS, TABLE_NAME, COLUMN_INDEX, keys));
+
+        // Users removed since they were indexed simply don't come back from the query.
+        UserSummary[] ordered = new UserSummary[order.size()];
+        for (UserSummary user : users)
+            ordered[order.indexOf(user.getUserIndex())] = user;
+
+        List<UserSummary> result = new ArrayList<>(users.size());
+        for (UserSummary user : ordered) {
+            if (user != null)
+                result.add(user);
+        }
+
+        metrics.record(Operation.NEAR_DUPLICATES, start, result.size(), 0);
+        return result;
+    }
+
+    /**
+     * Returns the index over the perceptual hashes of the images, loading it from `ImageTable` if
+     * this is the first time it's asked for.
+     */
+    private PerceptualHashIndex getPerceptualHashIndex() {
+        synchronized (perceptualHashLock) {
+            if (perceptualHashIndex != null)
+                return perceptualHashIndex;
+
+            long start = DbMetrics.start();
+            int rows = 0;
+            PerceptualHashIndex index = new PerceptualHashIndex();
+            Cursor cursor = getReadableDatabase().rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s IS NOT NULL",
+                    COLUMN_INDEX, COLUMN_IMAGE_PERCEPTUAL_HASH, IMAGE_TABLE, COLUMN_IMAGE_PERCEPTUAL_HASH), null);
+            try {
+                for (; cursor.moveToNext(); rows++)
+                    index.add(cursor.getLong(0), cursor.getLong(1));
+            } finally {
+                cursor.close();
+            }
+
+            // Two 8 byte integers per row.
+            metrics.record(Operation.LOAD_HASH_INDEX, start, rows, rows * 16L);
+            perceptualHashIndex = index;
+            return index;
+        }
+    }
+
+    /**
+     * Adds the image of a user to the perceptual hash index, if the index has been loaded already.
+     * Otherwise the hash is picked up from `ImageTable` whenever the index is loaded. Should only be
+     * called once the user has been committed, thus the index never holds a user that was rolled back.
+     *
+     * @param userIndex The `AutoIndex` of the user the image belongs to.
+     * @param hash      The perceptual hash of the image.
+     */
+    void indexPerceptualHash(long userIndex, long hash) {
+        synchronized (perceptualHashLock) {
+            if (perceptualHashIndex != null)
+                perceptualHashIndex.add(userIndex, hash);
+        }
+    }
+
+    /**
+     * Drops the perceptual hash index, thus it's loaded again from `ImageTable` the next time it's
+     * needed. Used once a lot of hashes have been written at once, for example by a migration.
+     */
+    void invalidatePerceptualHashIndex() {
+        synchronized (perceptualHashLock) {
+            perceptualHashIndex = null;
+        }
+    }
+
+    /**
+     * Reads an image that is still held by the `Image` column of `ImageTable`, i.e. one written before
+     * version 5. The image is read in pieces of `IMAGE_CHUNK_SIZE`, thus even an image larger than a
+     * `CursorWindow` can be read.
+     *
+     * @param database  The database from which the image is to be read.
+     * @param userIndex The `AutoIndex` of the user whose image is to be read.
+     * @return The image as an array of bytes, or null if the column is empty.
+     */
+    @Nullable
+    static byte[] readImageColumn(SQLiteDatabase database, long userIndex) {
+        String key = String.valueOf(userIndex);
+
+        // `length()` gives back the size of a BLOB without reading it.
+        long length;
+        Cursor cursor = database.rawQuery(String.format("SELECT length(%s) FROM %s WHERE %s = ? AND %s IS NOT NULL",
+                COLUMN_IMAGE, IMAGE_TABLE, COLUMN_INDEX, COLUMN_IMAGE), new String[]{key});
+        try {
+            if (!cursor.moveToFirst())
+                return null;
+
+            length = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        ByteArrayOutputStream imageBytes = new ByteArrayOutputStream((int) length);
+        for (long offset = 0; offset < length; offset += IMAGE_CHUNK_SIZE) {
+            // `substr()` counts from 1, and works on bytes when given a BLOB.
+            cursor = database.rawQuery(String.format("SELECT substr(%s, ?, ?) FROM %s WHERE %s = ?",
+                    COLUMN_IMAGE, IMAGE_TABLE, COLUMN_INDEX), new String[]{String.valueOf(offset + 1),
+                    String.valueOf(IMAGE_CHUNK_SIZE), key});
+            try {
+                if (!cursor.moveToFirst())
+                    return null;
+
+                byte[] chunk = cursor.getBlob(0);
+                imageBytes.write(chunk, 0, chunk.length);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return imageBytes.toByteArray();
+    }
+
+    /**
+     * Fetches a page of users, newest first, for showing them in a list. The pages are keyed on
+     * `AutoIndex` instead of using an OFFSET, i.e. the next page is asked for by passing the index
+     * of the last user on the current page. SQLite jumps straight to that key using the primary key,
+     * thus fetching a page deep down the list costs as much as fetching the first one.
+     *
+     * @param beforeIndex Only users with an `AutoIndex` smaller than this are returned. Pass
+     *                    `Long.MAX_VALUE` to get the first page.
+     * @param limit       The maximum number of users to be returned.
+     * @return The users on the page, ordered from the newest to the oldest. If this has less than
+     * `limit` entries, then this is the last page.
+     */
+    public List<UserSummary> getUsersPage(long beforeIndex, int limit) {
+        // Only the columns shown in a list are projected, the image table isn't touched at all.
+        return queryUsers(Operation.USERS_PAGE, QUERY_USERS_PAGE, String.valueOf(beforeIndex), String.valueOf(limit));
+    }
+
+    /**
+     * Looks up users by their name, newest first. The names are compared without case. Served by
+     * the index on the name columns.
+     *
+     * @param firstName The first name to look for, or null to match just the last name.
+     * @param lastName  The last name to look for, or null to match just the first name.
+     * @param limit     The maximum number of users to be returned.
+     * @return The matching users, newest first.
+     */
+    public List<UserSummary> findUsersByName(@Nullable String firstName, @Nullable String lastName, int limit) {
+        if (firstName == null && lastName == null)
+            throw new IllegalArgumentException("At least one of the names is required");
+
+        if (firstName == null)
+            return queryUsers(Operation.USERS_BY_NAME, QUERY_USERS_BY_LAST_NAME, lastName, String.valueOf(limit));
+        if (lastName == null)
+            return queryUsers(Operation.USERS_BY_NAME, QUERY_USERS_BY_FIRST_NAME, firstName, String.valueOf(limit));
+
+        return queryUsers(Operation.USERS_BY_NAME, QUERY_USERS_BY_NAME, lastName, firstName, String.valueOf(limit));
+    }
+
+    /**
+     * Looks up users by their PIN code, newest first. Served by the index on the PIN column.
+     *
+     * @param pin   The PIN code to look for.
+     * @param limit The maximum number of users to be returned.
+     * @return The matching users, newest first.
+     */
+    public List<UserSummary> findUsersByPin(String pin, int limit) {
+        return queryUsers(Operation.USERS_BY_PIN, QUERY_USERS_BY_PIN, pin, String.valueOf(limit));
+    }
+
+    /**
+     * Looks up users by the country (and optionally the state) they reside in, newest first. Served
+     * by the index on the country and state columns.
+     *
+     * @param country The country to look for.
+     * @param state   The state to look for, or null to match every state of the country.
+     * @param limit   The maximum number of users to be returned.
+     * @return The matching users, newest first.
+     */
+    public List<UserSummary> findUsersByRegion(String country, @Nullable String state, int limit) {
+        if (state == null)
+            return queryUsers(Operation.USERS_BY_REGION, QUERY_USERS_BY_COUNTRY, country, String.valueOf(limit));
+
+        return queryUsers(Operation.USERS_BY_REGION, QUERY_USERS_BY_STATE, country, state, String.valueOf(limit));
+    }
+
+    /**
+     * Looks up the users born between two dates (both included), in the order of their date of
+     * birth. Served by the index on the date of birth, thus no row outside the range is read.
+     *
+     * @param from  The earliest date of birth.
+     * @param to    The latest date of birth.
+     * @param limit The maximum number of users to be returned.
+     * @return The matching users, oldest first.
+     */
+    public List<UserSummary> findUsersBornBetween(Date from, Date to, int limit) {
+        return findUsersBornBetween(DateCodec.toEpochDay(from), DateCodec.toEpochDay(to), limit);
+    }
+
+    /**
+     * Looks up the users whose age (in whole years, as of today) is between `minAge` and `maxAge`,
+     * both included. For example 18 and 25 matches everyone from their 18th birthday up to the day
+     * before their 26th. The ages are turned into a range of dates of birth, which is then looked up
+     * through the index. See `findUsersBornBetween()`.
+     *
+     * @param minAge The youngest age to be matched.
+     * @param maxAge The oldest age to be matched.
+     * @param limit  The maximum number of users to be returned.
+     * @return The matching users, oldest first.
+     */
+    public List<UserSummary> findUsersAgedBetween(int minAge, int maxAge, int limit) {
+        Calendar calendar = Calendar.getInstance();
+        int today = DateCodec.toEpochDay(calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH),
+                calendar.get(Calendar.YEAR));
+
+        // Someone who is `maxAge` today turns `maxAge + 1` on the day after the earliest date.
+        int earliest = DateCodec.minusYears(today, maxAge + 1) + 1;
+        int latest = DateCodec.minusYears(today, minAge);
+        return findUsersBornBetween(earliest, latest, limit);
+    }
 
-        String imageQuery = String.format("SELECT * FROM %s WHERE %s = (SELECT MAX(%s) FROM %s)",
-                IMAGE_TABLE, COLUMN_INDEX, COLUMN_INDEX, IMAGE_TABLE);
+    private List<UserSummary> findUsersBornBetween(int fromEpochDay, int toEpochDay, int limit) {
+        return queryUsers(Operation.USERS_BY_BIRTH, QUERY_USERS_BY_BIRTH, String.valueOf(fromEpochDay), String.valueOf(toEpochDay),
+                String.valueOf(limit));
+    }
 
-        // Creating a new cursor. This cursor will get location of the row when the following SQL
-        // query is executed. Getting the image from the image table first.
-        Cursor cursor = sqLiteDatabase.rawQuery(imageQuery, null);
+    /**
+     * Searches for users by what has been typed so far, meant for a type-ahead search box. Every
+     * word typed is matched as a prefix against the first name, last name, location and state of the
+     * users, and a user has to match all the words to be returned. Users whose name starts with the
+     * first word are ranked above the rest.
+     *
+     * @param prefix The text typed so far, for example "jo de" to find "John Doe".
+     * @param limit  The maximum number of users to be returned.
+     * @return The matching users, best matches first. Empty if nothing searchable was typed.
+     */
+    public List<UserSummary> searchUsers(String prefix, int limit) {
+        // Breaking the text into words, dropping anything that isn't a letter or a digit. This also
+        // makes sure that nothing typed is treated as an FTS operator.
+        StringBuilder match = new StringBuilder();
+        String firstWord = null;
 
-        // If the cursor is not null, then moving it to the first row of the resultant query.
-        if (cursor != null)
-            cursor.moveToFirst();
+        for (String word : prefix.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty())
+                continue;
 
-        byte[] imageBlob = cursor.getBlob(1);
+            if (firstWord == null)
+                firstWord = word;
 
-        // Next, getting data from the rest of the table using the other SQL query.
-        cursor = sqLiteDatabase.rawQuery(query, null);
+            if (match.length() > 0)
+                match.append(' ');
+            match.append(word).append('*');
+        }
 
-        // If the database had no such data, then the cursor will be null. If the cursor isn't null,
-        // then moving the cursor to the row where we found the required data.
-        if (cursor != null)
-            cursor.moveToFirst();
+        if (firstWord == null)
+            return new ArrayList<>();
 
-        // Using the cursor to create a `Data` object by reading values from each column one by one.
-        Data data = new Data(Integer.parseInt(cursor.getString(0)), cursor.getString(1),
-                cursor.getString(2), cursor.getString(3), cursor.getString(6),
-                cursor.getString(8), cursor.getString(9), cursor.getString(7),
-                cursor.getString(4), cursor.getString(5), imageBlob);
+        // The users whose name matches first, then as many of the rest as there is room for. Each
+        // query stops at its limit, thus a common prefix never sorts (or even reads) every match.
+        long start = DbMetrics.start();
+        List<UserSummary> users = queryUsers(null, QUERY_SEARCH_USERS_BY_NAME, match.toString(), firstWord + "%",
+                firstWord + "%", String.valueOf(limit));
+        if (users.size() < limit) {
+            users.addAll(queryUsers(null, QUERY_SEARCH_OTHER_USERS, match.toString(), firstWord + "%",
+                    firstWord + "%", String.valueOf(limit - users.size())));
+        }
 
-        // Once the work with the cursor is done, closing it.
-        cursor.close();
-        return data;
+        long bytes = 0;
+        for (UserSummary user : users)
+            bytes += lengthOf(user);
+        metrics.record(Operation.SEARCH, start, users.size(), bytes);
+        return users;
+    }
+
+    /**
+     * Runs a query that selects `SUMMARY_COLUMNS` and converts every row of the result into a
+     * `UserSummary`.
+     *
+     * @param operation     The operation the query is recorded under in the metrics, or null if the
+     *                      caller records it as part of an operation of its own.
+     * @param query         The SQL query to be executed.
+     * @param selectionArgs The arguments for the query.
+     * @return The users returned by the query, in the order they were returned.
+     */
+    private List<UserSummary> queryUsers(@Nullable Operation operation, String query, String... selectionArgs) {
+        long start = DbMetrics.start();
+        SQLiteDatabase sqLiteDatabase = this.getReadableDatabase();
+        Cursor cursor = sqLiteDatabase.rawQuery(query, selectionArgs);
+
+        List<UserSummary> users = new ArrayList<>(cursor.getCount());
+        long bytes = 0;
+        try {
+            while (cursor.moveToNext()) {
+                UserSummary user = new UserSummary(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getString(5));
+                bytes += lengthOf(user);
+                users.add(user);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (operation != null)
+            metrics.record(operation, start, users.size(), bytes);
+        return users;
+    }
+
+    /**
+     * The size of the columns of a user in a list, as counted by the metrics.
+     */
+    private static long lengthOf(UserSummary user) {
+        return 8 + lengthOf(user.getFirstName()) + lengthOf(user.getLastName()) + lengthOf(user.getLocation())
+                + lengthOf(user.getState()) + lengthOf(user.getCountry());
+    }
+
+    /**
+     * The size of the text columns of a record, as counted by the metrics.
+     */
+    private static long lengthOf(UserRecord record) {
+        return lengthOf(record.getFirstName()) + lengthOf(record.getLastName()) + lengthOf(record.getPassword())
+                + lengthOf(record.getDateOfBirth()) + lengthOf(record.getGender()) + lengthOf(record.getLocation())
+                + lengthOf(record.getPin()) + lengthOf(record.getState()) + lengthOf(record.getCountry());
+    }
+
+    /**
+     * The size of the text columns of a user, as counted by the metrics. 0 for no user.
+     */
+    private static long lengthOf(@Nullable Data user) {
+        if (user == null)
+            return 0;
+
+        return lengthOf(user.getFirstName()) + lengthOf(user.getLastName()) + lengthOf(user.getPassword())
+                + lengthOf(user.getDateOfBirth()) + lengthOf(user.getGender()) + lengthOf(user.getLocation())
+                + lengthOf(user.getPin()) + lengthOf(user.getState()) + lengthOf(user.getCountry());
+    }
+
+    private static int lengthOf(@Nullable String text) {
+        return (text == null) ? 0 : text.length();
     }
 }
 
@@ -240,7 +1695,12 @@ class Data {
     private String pin;
     private String state;
     private String country;
+
+    // The image isn't read along with the rest of the details. Instead, `getImage()` reads and
+    // decodes it the first time it's asked for, and then holds on to it.
+    private final ImageReference imageReference;
     private Bitmap image;
+    private boolean imageLoaded = false;
 
     /**
      * The class constructor. Will be used as the only setter in the entire class.
@@ -248,17 +1708,17 @@ class Data {
      * @param userIndex   An integer containing the index position for the row in which the user is present
      * @param firstName   The first name of the user.
      * @param lastName    The last name of the user.
-     * @param password    The password that the user selects.
+     * @param password    The hash of the password, see `PasswordHasher`.
      * @param dateOfBirth The date of birth for the user.
      * @param gender      The gender of the user.
      * @param location    The location for the user.
      * @param pin         The PIN code that the user entered.
      * @param state       The state in which the user resides.
      * @param country     The country of residence for the user.
-     * @param imageByte   The image as an array of bytes.
+     * @param image       A reference to the image of the user, will be read only when required.
      */
     public Data(int userIndex, String firstName, String lastName, String password, String dateOfBirth,
-                String gender, String location, String pin, String state, String country, byte[] imageByte) {
+                String gender, String location, String pin, String state, String country, ImageReference image) {
         this.userIndex = userIndex;
         this.firstName = firstName;
         this.lastName = lastName;
@@ -269,7 +1729,7 @@ class Data {
         this.pin = pin;
         this.state = state;
         this.country = country;
-        this.image = ImageHandler.getImage(imageByte);
+        this.imageReference = image;
     }
 
     public int getUserIndex() {
@@ -284,6 +1744,11 @@ class Data {
         return lastName;
     }
 
+    /**
+     * @return The hash of the password (see `PasswordHasher`), never the password itself. May be
+     * the password as typed for users written before version 9, till the background migration
+     * has hashed it.
+     */
     public String getPassword() {
         return password;
     }
@@ -312,7 +1777,18 @@ class Data {
         return state;
     }
 
-    public Bitmap getImage() {
+    /**
+     * Returns the image of the user. The image is streamed from the store and decoded on the first
+     * call, thus the first call should preferably be made off the main thread.
+     *
+     * @return The image of the user, or null if the user has no image.
+     */
+    public synchronized Bitmap getImage() {
+        if (!imageLoaded) {
+            image = ImageHandler.getImage(imageReference);
+            imageLoaded = true;
+        }
+
         return image;
     }
 }
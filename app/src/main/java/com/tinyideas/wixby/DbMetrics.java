@@ -0,0 +1,249 @@
+package com.tinyideas.wixby;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tinyideas.wixby.core.Histogram;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Latencies and counters for every operation made by `DatabaseHelper`: how long each kind of
+ * operation takes (as a histogram, reported as p50/p99/max), how often it failed, how many rows it
+ * wrote or read and roughly how many bytes those rows held. Write transactions are counted on their
+ * own as well, along with the number of users written by each.
+ * <p>
+ * Every helper has metrics of its own, kept from the moment it was created. They are printed by
+ * `adb shell dumpsys activity top` while `DisplayData` is showing, and to logcat once a user has
+ * been shown if logging is enabled for `TAG`.
+ * <p>
+ * Used like this, with the start taken from `start()`:
+ * <pre>
+ *     long start = DbMetrics.start();
+ *     ...
+ *     metrics.record(DbMetrics.Operation.GET_USER, start, rows, bytes);
+ * </pre>
+ * Recording doesn't allocate, thus it's cheap enough for every operation. Operations made from
+ * within another operation (`getLastRegisteredUser()` reading the user with `getUser()`, for
+ * example) are counted by both.
+ */
+public final class DbMetrics {
+
+    // The tag that logcat output is written under, after `adb shell setprop log.tag.WixbyDbMetrics DEBUG`.
+    static final String TAG = "WixbyDbMetrics";
+
+    /**
+     * The operations that are measured, named after the method (or the part of it) that makes them.
+     */
+    public enum Operation {
+        CREATE("onCreate"),
+        UPGRADE("onUpgrade"),
+        OPEN("open"),
+        REGISTER_USER("registerUser"),
+        QUEUED_REGISTRATION("RegistrationQueue"),
+        INSERT_USER("insertUser"),
+        BULK_IMPORT("registerUsers"),
+        TRANSACTION("transaction"),
+        LAST_USER("getLastRegisteredUser"),
+        GET_USER("getUser"),
+        OPEN_IMAGE("openUserImage"),
+        OPEN_RENDITION("openUserImage(size)"),
+        READ_IMAGE("getUserImageBytes"),
+        USERS_PAGE("getUsersPage"),
+        USERS_BY_NAME("findUsersByName"),
+        USERS_BY_PIN("findUsersByPin"),
+        USERS_BY_REGION("findUsersByRegion"),
+        USERS_BY_BIRTH("findUsersBornBetween"),
+        SEARCH("searchUsers"),
+        NEAR_DUPLICATES("findNearDuplicates"),
+        LOAD_HASH_INDEX("loadPerceptualHashes"),
+        MIGRATION_BATCH("migrateBatch");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Stats[] stats = new Stats[OPERATIONS.length];
+
+    // The number of users written by every write transaction.
+    private final Histogram transactionSizes = new Histogram();
+
+    private final long createdNanos = SystemClock.elapsedRealtimeNanos();
+
+    DbMetrics() {
+        for (int i = 0; i < stats.length; i++)
+            stats[i] = new Stats();
+    }
+
+    /**
+     * @return The moment an operation starts, to be handed to `record()` once it's done.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records an operation that succeeded.
+     *
+     * @param operation  The operation that was made.
+     * @param startNanos The moment it started, as returned by `start()`.
+     * @param rows       The number of rows it wrote or read.
+     * @param bytes      The (approximate) size of those rows. Text is counted by its length, images
+     *                   by the size of their file.
+     */
+    public void record(Operation operation, long startNanos, long rows, long bytes) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        stats[operation.ordinal()].record(micros, rows, bytes, false);
+    }
+
+    /**
+     * Records an operation that failed, i.e. returned an error instead of a result. The time it
+     * took counts towards the latency of the operation as well. Operations that throw aren't
+     * recorded, the exception reports them already.
+     *
+     * @param operation  The operation that was attempted.
+     * @param startNanos The moment it started, as returned by `start()`.
+     */
+    public void recordFailure(Operation operation, long startNanos) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+        stats[operation.ordinal()].record(micros, 0, 0, true);
+    }
+
+    /**
+     * Records a write transaction that was committed. The latency is the time the database was
+     * locked for, i.e. from `beginTransaction()` to `endTransaction()`.
+     *
+     * @param startNanos The moment the transaction began, as returned by `start()`.
+     * @param users      The number of users written by the transaction.
+     */
+    public void recordTransaction(long startNanos, int users) {
+        record(Operation.TRANSACTION, startNanos, users, 0);
+        transactionSizes.record(users);
+    }
+
+    /**
+     * @return The number of times the operation was recorded (including failures).
+     */
+    public long getCount(Operation operation) {
+        return stats[operation.ordinal()].latencyMicros.getCount();
+    }
+
+    /**
+     * @return The histogram of the latencies of the operation, in microseconds.
+     */
+    public Histogram getLatencyMicros(Operation operation) {
+        return stats[operation.ordinal()].latencyMicros;
+    }
+
+    /**
+     * @return The histogram of the number of users written per write transaction.
+     */
+    public Histogram getTransactionSizes() {
+        return transactionSizes;
+    }
+
+    /**
+     * Prints a table of every operation that has been made at least once, with its latencies in
+     * milliseconds, followed by the sizes of the write transactions.
+     *
+     * @param writer The writer the metrics are to be printed to.
+     */
+    public void dump(PrintWriter writer) {
+        writer.printf("Database metrics over the last %.1f s%n",
+                (SystemClock.elapsedRealtimeNanos() - createdNanos) / 1e9);
+        writer.printf("  %-22s %8s %6s %9s %9s %9s %10s %12s%n", "operation", "count", "failed",
+                "p50 ms", "p99 ms", "max ms", "rows", "bytes");
+
+        for (Operation operation : OPERATIONS) {
+            Stats operationStats = stats[operation.ordinal()];
+            Histogram latency = operationStats.latencyMicros;
+            if (latency.getCount() == 0)
+                continue;
+
+            long rows;
+            long bytes;
+            long failures;
+            synchronized (operationStats) {
+                rows = operationStats.rows;
+                bytes = operationStats.bytes;
+                failures = operationStats.failures;
+            }
+
+            writer.printf("  %-22s %8d %6d %9.3f %9.3f %9.3f %10d %12d%n", operation.getLabel(),
+                    latency.getCount(), failures, latency.getPercentile(50) / 1e3,
+                    latency.getPercentile(99) / 1e3, latency.getMax() / 1e3, rows, bytes);
+        }
+
+        writer.printf("Users per transaction: %d transactions, p50 %d, p99 %d, max %d%n",
+                transactionSizes.getCount(), transactionSizes.getPercentile(50),
+                transactionSizes.getPercentile(99), transactionSizes.getMax());
+        writer.flush();
+    }
+
+    /**
+     * Prints the metrics to logcat, if logging has been enabled for `TAG`.
+     */
+    public void dumpToLog() {
+        if (!Log.isLoggable(TAG, Log.DEBUG))
+            return;
+
+        StringWriter metrics = new StringWriter();
+        dump(new PrintWriter(metrics));
+
+        for (String line : metrics.toString().split("\n"))
+            Log.d(TAG, line);
+    }
+
+    /**
+     * Forgets everything recorded so far, for example before measuring a single screen.
+     */
+    public void clear() {
+        for (Stats operationStats : stats)
+            operationStats.clear();
+
+        transactionSizes.clear();
+    }
+
+    /**
+     * The latencies and counters of a single operation.
+     */
+    private static final class Stats {
+        final Histogram latencyMicros = new Histogram();
+
+        // Guarded by `this`.
+        long rows = 0;
+        long bytes = 0;
+        long failures = 0;
+
+        void record(long micros, long rowCount, long byteCount, boolean failed) {
+            latencyMicros.record(micros);
+
+            synchronized (this) {
+                rows += rowCount;
+                bytes += byteCount;
+                if (failed)
+                    failures++;
+            }
+        }
+
+        void clear() {
+            latencyMicros.clear();
+
+            synchronized (this) {
+                rows = 0;
+                bytes = 0;
+                failures = 0;
+            }
+        }
+    }
+}
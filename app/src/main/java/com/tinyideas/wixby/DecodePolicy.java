@@ -0,0 +1,51 @@
+package com.tinyideas.wixby;
+
+/**
+ * Describes how `ImageHandler` may decode an image, depending on what the image is going to be used
+ * for. An image that is only ever drawn into a view can live in graphics memory as a hardware bitmap,
+ * and a photo without transparency that is shown small loses little by being decoded with half the
+ * bytes per pixel. Images that are going to be scaled, encoded or otherwise read back need neither.
+ */
+public class DecodePolicy {
+
+    /**
+     * Full colour, in regular memory, reusing a pooled bitmap where possible. Suitable for every
+     * use, and the only choice for an image that is going to be modified or encoded again.
+     */
+    public static final DecodePolicy DEFAULT = new DecodePolicy(false, false);
+
+    /**
+     * For images that are only ever drawn into a view. Decoded as hardware bitmaps where the device
+     * supports them (Android 8 and above), which keeps the pixels out of the Java heap entirely.
+     */
+    public static final DecodePolicy DISPLAY = new DecodePolicy(true, false);
+
+    /**
+     * For small images in places where a slight loss of colour doesn't matter, such as the rows of a
+     * long list. Like `DISPLAY`, but images without transparency are decoded as RGB_565 on the
+     * devices without hardware bitmaps, halving the memory they take up.
+     */
+    public static final DecodePolicy DISPLAY_COMPACT = new DecodePolicy(true, true);
+
+    private final boolean allowHardware;
+    private final boolean allowRgb565;
+
+    /**
+     * The class constructor.
+     *
+     * @param allowHardware Whether the image may be decoded as a hardware bitmap.
+     * @param allowRgb565   Whether an image without transparency may be decoded as RGB_565.
+     */
+    public DecodePolicy(boolean allowHardware, boolean allowRgb565) {
+        this.allowHardware = allowHardware;
+        this.allowRgb565 = allowRgb565;
+    }
+
+    public boolean allowsHardware() {
+        return allowHardware;
+    }
+
+    public boolean allowsRgb565() {
+        return allowRgb565;
+    }
+}
@@ -2,16 +2,86 @@ package com.tinyideas.wixby;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.View;
+import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.tinyideas.wixby.core.UserRecord;
+import com.tinyideas.wixby.core.UserRecordCodec;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class DisplayData extends AppCompatActivity {
 
+    // The user that was just registered, handed over by the activity that registered them. Thus
+    // the details can be shown straight away, without waiting for the database.
+    private static final String EXTRA_USER_INDEX = "com.tinyideas.wixby.USER_INDEX";
+    private static final String EXTRA_USER_RECORD = "com.tinyideas.wixby.USER_RECORD";
+
+    // The file (in the cache directory) the timeline of the process is written into once a user is shown.
+    private static final String TIMELINE_FILE = "trace-timeline.txt";
+
+    // Shown in place of the password. Only a hash of the password is stored, and its length isn't
+    // given away either.
+    private static final String HIDDEN_PASSWORD = "********";
+
+    private DatabaseHelper databaseHelper;
+
+    // The user and their image are read on a background thread, and handed back to the main thread.
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private TextView userCounter;
+    private TextView name;
+    private TextView password;
+    private TextView dateOfBirth;
+    private TextView gender;
+    private TextView location;
+    private TextView pin;
+    private TextView country;
+    private ImageView displayImage;
+
+    // The user being shown, null till the details have been read.
+    private Data userData;
+
+    /**
+     * Creates the intent that shows a user who has just been registered. The details of the user
+     * travel along with the intent, thus only the image has to be read from the database. The
+     * password is left out, as it's never shown.
+     *
+     * @param context   The context the activity is to be started from.
+     * @param userIndex The `AutoIndex` the user was written with.
+     * @param record    The details the user was written with.
+     * @return The intent that will start the activity.
+     */
+    static Intent newIntent(Context context, long userIndex, UserRecord record) {
+        UserRecord withoutPassword = new UserRecord(record.getFirstName(), record.getLastName(), null,
+                record.getDateOfBirth(), record.getGender(), record.getLocation(), record.getPin(),
+                record.getState(), record.getCountry());
+
+        return new Intent(context, DisplayData.class)
+                .putExtra(EXTRA_USER_INDEX, userIndex)
+                .putExtra(EXTRA_USER_RECORD, UserRecordCodec.toBytes(withoutPassword));
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Tracer.beginSection("DisplayData.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_display_data);
 
@@ -31,69 +101,210 @@ public class DisplayData extends AppCompatActivity {
         // the original dimensions.
         getWindow().setLayout((int) (width * 0.82), (int) (height * 0.68));
 
-        // Creating an instance of the `DataBaseHelper` this will be used to extract the last row
-        // from the database.
-        DatabaseHelper databaseHelper = new DatabaseHelper(DisplayData.this);
-
-        // Getting the last row of the SQL Database.
-        final Data userData = databaseHelper.getLastRegisteredUser();
+        // Getting the shared instance of the `DataBaseHelper` this will be used to read the user
+        // (if they weren't handed over) and their image.
+        databaseHelper = DatabaseHelper.getInstance(DisplayData.this);
 
         // Once the popup window is done, getting started with setting up the UI elements.
-        final TextView userCounter = findViewById(R.id.displayUserCounter);
-        final TextView name = findViewById(R.id.displayName);
-        final TextView password = findViewById(R.id.displayPassordField);
-        final TextView dateOfBirth = findViewById(R.id.displayDob);
-        final TextView gender = findViewById(R.id.displayGender);
-        final TextView location = findViewById(R.id.displayLocation);
-        final TextView pin = findViewById(R.id.displayPin);
-        final TextView country = findViewById(R.id.displayCountry);
+        userCounter = findViewById(R.id.displayUserCounter);
+        name = findViewById(R.id.displayName);
+        password = findViewById(R.id.displayPassordField);
+        dateOfBirth = findViewById(R.id.displayDob);
+        gender = findViewById(R.id.displayGender);
+        location = findViewById(R.id.displayLocation);
+        pin = findViewById(R.id.displayPin);
+        country = findViewById(R.id.displayCountry);
+
+        displayImage = findViewById(R.id.displayImage);
+
+        // The button at the bottom opens the list of every user that has registered so far.
+        Button allUsers = findViewById(R.id.displayAllUsers);
+        allUsers.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(DisplayData.this, UserDirectory.class));
+            }
+        });
+
+        // A user handed over by the intent is shown straight away. Otherwise, reading the last row
+        // of the database in the background and showing it once it has been read.
+        Data handedOver = userFromIntent(getIntent());
+        if (handedOver != null)
+            showUser(handedOver);
+        else
+            loadLastUser();
+
+        Tracer.endSection();
+    }
+
+    /**
+     * Prints the timeline recorded by `Tracer`, the metrics of the database (see `DbMetrics`) and
+     * the counters of the `BitmapPool`, through `adb shell dumpsys activity top`. Passing "reset-db-metrics" as an argument clears the
+     * metrics once they have been printed.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Tracer.dump(writer);
+
+        if (databaseHelper != null) {
+            databaseHelper.getMetrics().dump(writer);
+            if (args != null && Arrays.asList(args).contains("reset-db-metrics"))
+                databaseHelper.getMetrics().clear();
+        }
+
+        writer.println(BitmapPool.getInstance());
+        writer.flush();
+    }
 
-        // Also, getting the ImageView that will be used to show or hide the password.
-        final ImageView showPassword = findViewById(R.id.displayShowPassword);
+    /**
+     * Reads the last row of the database in the background and shows it once it has been read.
+     */
+    private void loadLastUser() {
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                Tracer.beginSection("DisplayData.readUser");
+                final Data lastUser;
+                try {
+                    lastUser = databaseHelper.getLastRegisteredUser();
+                } finally {
+                    Tracer.endSection();
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isDestroyed() && lastUser != null)
+                            showUser(lastUser);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Whatever is still being read has nowhere to be shown.
+        loader.shutdownNow();
+    }
+
+    /**
+     * Reads the user handed over by `newIntent()`, if any.
+     *
+     * @return The user, or null if the intent holds no user.
+     */
+    private Data userFromIntent(Intent intent) {
+        long userIndex = intent.getLongExtra(EXTRA_USER_INDEX, -1);
+        byte[] recordBytes = intent.getByteArrayExtra(EXTRA_USER_RECORD);
+        if (userIndex < 0 || recordBytes == null)
+            return null;
+
+        UserRecord record;
+        try {
+            record = UserRecordCodec.fromBytes(recordBytes);
+        } catch (IOException e) {
+            Log.e("DisplayData", "Unable to read the user handed over", e);
+            return null;
+        }
+
+        return new Data((int) userIndex, record.getFirstName(), record.getLastName(), record.getPassword(),
+                record.getDateOfBirth(), record.getGender(), record.getLocation(), record.getPin(),
+                record.getState(), record.getCountry(), new ImageReference(databaseHelper, userIndex));
+    }
 
-        final ImageView displayImage = findViewById(R.id.displayImage);
+    /**
+     * Fills in the details of a user, and starts loading their image.
+     *
+     * @param user The user that is to be shown.
+     */
+    private void showUser(Data user) {
+        userData = user;
 
         // Populating the text view with data from the database.
         userCounter.setText(String.format("User #%s", userData.getUserIndex()));
         name.setText(String.format("Name:  %s %s", userData.getFirstName(), userData.getLastName()));
-        password.setText(String.format("Password:  %s", userData.getPassword()));
+        password.setText(String.format("Password:  %s", HIDDEN_PASSWORD));
         dateOfBirth.setText(String.format("Date Of Birth:  %s", userData.getDateOfBirth()));
         gender.setText(String.format("Gender:  %s", userData.getGender()));
         location.setText(String.format("Location:  %s", userData.getLocation()));
         pin.setText(String.format("PIN Code: %s", userData.getPin()));
         country.setText(String.format("Miscellaneous:  %s, %s", userData.getState(), userData.getCountry()));
-        displayImage.setImageBitmap(userData.getImage());
 
-        // Attaching an on-click listener to the show password image view.
-        showPassword.setOnClickListener(new View.OnClickListener() {
-            boolean isPasswordDisplayed = true;
+        loadImage(userData.getUserIndex());
+    }
+
+    /**
+     * Shows the image of a user. An image held in memory is shown straight away, anything else is
+     * read (and decoded) in the background and filled in once it's ready.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is to be shown.
+     */
+    private void loadImage(final long userIndex) {
+        // The image comes from the cache, thus opening the same user again neither touches the
+        // database nor decodes the image a second time.
+        Bitmap cached = databaseHelper.getImageCache().getIfCached(userIndex);
+        if (cached != null) {
+            displayImage.setImageBitmap(cached);
+            reportTimeline();
+            return;
+        }
 
+        loader.execute(new Runnable() {
             @Override
-            public void onClick(View v) {
-                // Getting the password that is already being displayed. If this password is in hidden
-                // then displaying the same, else, hiding the password.
-                if (isPasswordDisplayed) {
-                    // Creating a string made of stars that is as long as the password.
-                    StringBuilder tempPassword = new StringBuilder();
-                    for (int i = 0; i < userData.getPassword().length(); i++)
-                        tempPassword.append("*");
-
-                    // Once the star-marked string is generated, setting this as the text for the view.
-                    // And changing the value of the parent boolean.
-                    password.setText(String.format("Password:  %s", tempPassword));
-                    isPasswordDisplayed = false;
-                } else {
-                    // If the password isn't already being displayed, then displaying the password and
-                    // changing the value of the boolean.
-
-                    password.setText(String.format("Password: %s", userData.getPassword()));
-                    isPasswordDisplayed = true;
+            public void run() {
+                Tracer.beginSection("DisplayData.readImage");
+                final Bitmap image;
+                try {
+                    image = databaseHelper.getImageCache().get(userIndex);
+                } finally {
+                    Tracer.endSection();
                 }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isDestroyed())
+                            return;
+
+                        if (image != null)
+                            displayImage.setImageBitmap(image);
+
+                        // The last screen of the sign up is complete, thus the timeline covers
+                        // everything from the start of the process till here.
+                        reportTimeline();
+                    }
+                });
             }
         });
+    }
 
-        // Since the password is being displayed to the user by default, thus performing a click
-        // on the show password button to hide it in the first run :)
-        showPassword.performClick();
+    /**
+     * Prints the timeline recorded so far to logcat, and writes it into the cache directory, from
+     * where it can be pulled with `adb shell run-as`. Both only if logging is enabled for
+     * `Tracer.TAG`, thus nothing is written in everyday use. The metrics of the database and the
+     * counters of the bitmap pool go to logcat as well (see `DbMetrics.TAG` and `BitmapPool.TAG`).
+     */
+    private void reportTimeline() {
+        Tracer.dumpToLog();
+        databaseHelper.getMetrics().dumpToLog();
+        BitmapPool.getInstance().dumpToLog();
+
+        if (!Log.isLoggable(Tracer.TAG, Log.DEBUG))
+            return;
+
+        final File timeline = new File(getCacheDir(), TIMELINE_FILE);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Tracer.writeTo(timeline);
+                } catch (IOException e) {
+                    Log.w("DisplayData", "Unable to write the timeline", e);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,105 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+
+/**
+ * Describes how an image is to be encoded by `ImageHandler.getBytes()`: the largest size the image
+ * may have, the format it's to be written in, and the number of bytes it may take up at most. The
+ * quality is stepped down from `startQuality` (and the image made smaller, if even `minQuality` is
+ * too large) until the encoded image fits in the budget.
+ */
+public class ImageEncoding {
+
+    /**
+     * The encoding used for the image registered by a user, i.e. the original that every rendition
+     * is made from. Large enough to make a sharp rendition for any screen, but nowhere near the size
+     * of a camera photo.
+     */
+    public static final ImageEncoding PROFILE = new ImageEncoding(Bitmap.CompressFormat.WEBP, 1024, 1024,
+            160 * 1024, 90, 50, 10);
+
+    /**
+     * The rendition used wherever a single user is shown. A profile picture is never shown larger
+     * than a few hundred pixels, thus anything beyond 512 pixels is simply wasted space.
+     */
+    public static final ImageEncoding DISPLAY = new ImageEncoding(Bitmap.CompressFormat.WEBP, 512, 512,
+            48 * 1024, 85, 40, 10);
+
+    /**
+     * The rendition used by lists and other places where the picture is only a small icon.
+     */
+    public static final ImageEncoding THUMBNAIL = new ImageEncoding(Bitmap.CompressFormat.WEBP, 128, 128,
+            8 * 1024, 80, 30, 10);
+
+    private final Bitmap.CompressFormat format;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final int byteBudget;
+    private final int startQuality;
+    private final int minQuality;
+    private final int qualityStep;
+
+    /**
+     * The class constructor.
+     *
+     * @param format       The format in which the image is to be written. PNG ignores the quality,
+     *                     thus a PNG image is only ever made to fit by making it smaller.
+     * @param maxWidth     The largest width the encoded image may have, in pixels.
+     * @param maxHeight    The largest height the encoded image may have, in pixels.
+     * @param byteBudget   The largest size the encoded image may have, in bytes.
+     * @param startQuality The quality (0 - 100) with which the first attempt is made.
+     * @param minQuality   The lowest quality the image may be written with.
+     * @param qualityStep  The amount by which the quality is reduced after every failed attempt.
+     */
+    public ImageEncoding(Bitmap.CompressFormat format, int maxWidth, int maxHeight, int byteBudget,
+                         int startQuality, int minQuality, int qualityStep) {
+        if (maxWidth <= 0 || maxHeight <= 0 || byteBudget <= 0 || qualityStep <= 0)
+            throw new IllegalArgumentException("Dimensions, budget and step should be positive");
+
+        if (minQuality < 0 || startQuality > 100 || minQuality > startQuality)
+            throw new IllegalArgumentException("Expected 0 <= minQuality <= startQuality <= 100, received "
+                    + minQuality + " and " + startQuality);
+
+        this.format = format;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.byteBudget = byteBudget;
+        this.startQuality = startQuality;
+        this.minQuality = minQuality;
+        this.qualityStep = qualityStep;
+    }
+
+    public Bitmap.CompressFormat getFormat() {
+        return format;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public int getByteBudget() {
+        return byteBudget;
+    }
+
+    public int getStartQuality() {
+        return startQuality;
+    }
+
+    public int getMinQuality() {
+        return minQuality;
+    }
+
+    public int getQualityStep() {
+        return qualityStep;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dx%d budget=%dB quality=%d..%d", format, maxWidth, maxHeight, byteBudget,
+                startQuality, minQuality);
+    }
+}
@@ -2,8 +2,14 @@ package com.tinyideas.wixby;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * A class made to deal with images. As the images cannot be inserted into the database directly, they
@@ -14,28 +20,317 @@ import java.io.ByteArrayOutputStream;
  */
 public class ImageHandler {
 
+    // An image is never made smaller than this while trying to fit it in the budget. If it still
+    // doesn't fit, the smallest attempt is returned as is.
+    private static final int MIN_DIMENSION = 64;
+
+    // The number of bytes read from a stream to learn the size of the image. Covers the header of
+    // every format in use, including the large EXIF blocks written by some cameras.
+    private static final int HEADER_READ_LIMIT = 1024 * 1024;
+
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
     /**
      * This method will take the image in the form of a bitmap, convert the image into a byte array
-     * and return the same as an output.
+     * and return the same as an output. The image is encoded using `ImageEncoding.PROFILE`.
      *
      * @param imageBitmap The image selected by the user. Should be supplied as a `Bitmap`.
      * @return An array of `byte` that represent the image given to the method
      */
     public static byte[] getBytes(Bitmap imageBitmap) {
-        ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
-        imageBitmap.compress(Bitmap.CompressFormat.PNG, 0, arrayOutputStream);
+        return getBytes(imageBitmap, ImageEncoding.PROFILE);
+    }
+
+    /**
+     * This method will take the image in the form of a bitmap, convert the image into a byte array
+     * as described by `encoding` and return the same as an output.
+     * <p>
+     * The image is first scaled down to fit within the maximum dimensions. It's then encoded with
+     * the starting quality, and the quality is stepped down till the encoded image fits in the
+     * budget. If even the lowest quality doesn't fit, the image is made smaller by a quarter and the
+     * whole thing is repeated. The bitmap that is passed in is never modified.
+     *
+     * @param imageBitmap The image selected by the user. Should be supplied as a `Bitmap`.
+     * @param encoding    The format, maximum dimensions and byte budget for the encoded image.
+     * @return An array of `byte` that represent the image given to the method
+     */
+    public static byte[] getBytes(Bitmap imageBitmap, ImageEncoding encoding) {
+        Bitmap scaled = scaleToFit(imageBitmap, encoding.getMaxWidth(), encoding.getMaxHeight());
+
+        // The same buffer is reused by every attempt, and it's sized for an image that just fits.
+        ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream(encoding.getByteBudget());
+        try {
+            while (true) {
+                // PNG ignores the quality, thus a single attempt is enough at every size.
+                int quality = encoding.getStartQuality();
+                while (true) {
+                    arrayOutputStream.reset();
+                    scaled.compress(encoding.getFormat(), quality, arrayOutputStream);
+
+                    if (arrayOutputStream.size() <= encoding.getByteBudget()
+                            || encoding.getFormat() == Bitmap.CompressFormat.PNG
+                            || quality == encoding.getMinQuality())
+                        break;
+
+                    quality = Math.max(quality - encoding.getQualityStep(), encoding.getMinQuality());
+                }
+
+                int width = scaled.getWidth() * 3 / 4;
+                int height = scaled.getHeight() * 3 / 4;
+                if (arrayOutputStream.size() <= encoding.getByteBudget() || width < MIN_DIMENSION
+                        || height < MIN_DIMENSION)
+                    return arrayOutputStream.toByteArray();
+
+                // Even the lowest quality is too large. Making the image smaller and trying again.
+                Bitmap smaller = Bitmap.createScaledBitmap(scaled, width, height, true);
+                if (scaled != imageBitmap)
+                    BitmapPool.getInstance().put(scaled);
+
+                scaled = smaller;
+            }
+        } finally {
+            // The scaled copies are never seen outside this method, thus they can be reused.
+            if (scaled != imageBitmap)
+                BitmapPool.getInstance().put(scaled);
+        }
+    }
+
+    /**
+     * Scales an image down (keeping its aspect ratio) so that it fits within the given dimensions.
+     * Returns the same bitmap if it already fits.
+     */
+    private static Bitmap scaleToFit(Bitmap imageBitmap, int maxWidth, int maxHeight) {
+        int width = imageBitmap.getWidth();
+        int height = imageBitmap.getHeight();
+        if (width <= maxWidth && height <= maxHeight)
+            return imageBitmap;
 
-        return arrayOutputStream.toByteArray();
+        float scale = Math.min((float) maxWidth / width, (float) maxHeight / height);
+        return Bitmap.createScaledBitmap(imageBitmap, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
     }
 
     /**
      * This method will take the image in the form of an array of bytes, convert the data into a bitmap
-     * containing the image and return the same as an output.
+     * containing the image and return the same as an output. Decoded using `DecodePolicy.DEFAULT`.
      *
      * @param imageBytes The image in the form of an array of bytes.
      * @return The bitmap of the image that was supplied as bytes to the method.
      */
     public static Bitmap getImage(byte[] imageBytes) {
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+        return getImage(imageBytes, DecodePolicy.DEFAULT);
+    }
+
+    /**
+     * This method will take the image in the form of an array of bytes, convert the data into a bitmap
+     * containing the image as allowed by `policy`, and return the same as an output. The size of the
+     * image is read first, which is then used to pick the configuration and a pooled bitmap to
+     * decode into.
+     *
+     * @param imageBytes The image in the form of an array of bytes.
+     * @param policy     What the image will be used for, decides how it may be decoded.
+     * @return The bitmap of the image that was supplied as bytes to the method.
+     */
+    public static Bitmap getImage(byte[] imageBytes, DecodePolicy policy) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+
+        prepareDecode(options, policy);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+
+            // A corrupt image decodes to null, in which case the pooled bitmap was never used.
+            if (bitmap == null && options.inBitmap != null)
+                releaseReusedBitmap(options);
+
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap turned out to be unsuitable after all. Giving it back to the pool and
+            // letting the decoder allocate a new one.
+            return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, releaseReusedBitmap(options));
+        }
+    }
+
+    /**
+     * A source an image can be read from more than once, for example a file. Decoding an image the
+     * way `getImage(ImageSource, DecodePolicy)` does may take more than a single pass over it.
+     */
+    public interface ImageSource {
+        /**
+         * Opens a new stream over the image.
+         *
+         * @return A stream over the image, to be closed by the caller. Null if the image is gone.
+         * @throws IOException If the image exists but could not be opened.
+         */
+        @Nullable
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * This method will read an image from a source, decode it into a bitmap and return the same as an
+     * output. Decoded using `DecodePolicy.DEFAULT`.
+     *
+     * @param source The image, for example a user's image in the `ImageStore`.
+     * @return The bitmap of the image that was read, or null if it could not be read or decoded.
+     */
+    @Nullable
+    public static Bitmap getImage(ImageSource source) {
+        return getImage(source, DecodePolicy.DEFAULT);
+    }
+
+    /**
+     * This method will read an image from a source, decode it into a bitmap as allowed by `policy`,
+     * and return the same as an output. Every stream opened is closed before returning.
+     * <p>
+     * The header of the image is read first to learn its size, and the stream is then rewound to
+     * decode the image itself. If the header turns out to be too large to rewind over, the image is
+     * opened a second time instead. The same goes for a pooled bitmap that the decoder turns out not
+     * to accept, the image is then read again and decoded into a bitmap of its own.
+     *
+     * @param source The image, for example a user's image in the `ImageStore`.
+     * @param policy What the image will be used for, decides how it may be decoded.
+     * @return The bitmap of the image that was read, or null if it could not be read or decoded.
+     */
+    @Nullable
+    public static Bitmap getImage(ImageSource source, DecodePolicy policy) {
+        InputStream imageStream = openMarkable(source);
+        if (imageStream == null)
+            return null;
+
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+
+            imageStream.mark(HEADER_READ_LIMIT);
+            BitmapFactory.decodeStream(imageStream, null, options);
+            try {
+                imageStream.reset();
+            } catch (IOException e) {
+                closeQuietly(imageStream);
+                imageStream = openMarkable(source);
+                if (imageStream == null)
+                    return null;
+            }
+
+            prepareDecode(options, policy);
+            try {
+                // Gives the pooled bitmap back if the image turns out to be corrupt.
+                return decode(imageStream, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap turned out to be unsuitable after all. Giving it back to the pool
+                // and letting the decoder allocate a new one, from the beginning of the image as part
+                // of it has been read already.
+                releaseReusedBitmap(options);
+                closeQuietly(imageStream);
+                imageStream = openMarkable(source);
+                return (imageStream == null) ? null : BitmapFactory.decodeStream(imageStream, null, options);
+            }
+        } finally {
+            closeQuietly(imageStream);
+        }
+    }
+
+    /**
+     * Opens a source, making sure that the stream can be rewound.
+     *
+     * @return The stream, or null if the image is gone or could not be opened.
+     */
+    @Nullable
+    private static InputStream openMarkable(ImageSource source) {
+        InputStream imageStream;
+        try {
+            imageStream = source.open();
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (imageStream == null || imageStream.markSupported())
+            return imageStream;
+
+        return new BufferedInputStream(imageStream);
+    }
+
+    private static void closeQuietly(@Nullable InputStream imageStream) {
+        if (imageStream == null)
+            return;
+
+        try {
+            imageStream.close();
+        } catch (IOException ignored) {
+            // Nothing left to read from the stream anyway.
+        }
+    }
+
+    /**
+     * Gets a set of options, which already holds the size of an image (from a decode with
+     * `inJustDecodeBounds`), ready for decoding the image itself as allowed by `policy`. The
+     * configuration is picked, and a bitmap from the `BitmapPool` is attached for the decoder to
+     * reuse. `inSampleSize`, if set, is left as is.
+     *
+     * @param options The options used to read the size of the image.
+     * @param policy  What the image will be used for, decides how it may be decoded.
+     */
+    static void prepareDecode(BitmapFactory.Options options, DecodePolicy policy) {
+        options.inJustDecodeBounds = false;
+
+        // Hardware bitmaps are decoded straight into graphics memory, thus there's nothing to reuse.
+        if (policy.allowsHardware() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            options.inPreferredConfig = Bitmap.Config.HARDWARE;
+            return;
+        }
+
+        // JPEG has no transparency, thus dropping the alpha channel loses nothing but a bit of colour.
+        Bitmap.Config config = (policy.allowsRgb565() && JPEG_MIME_TYPE.equals(options.outMimeType))
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inPreferredConfig = config;
+
+        // Only mutable bitmaps can be reused later on.
+        options.inMutable = true;
+
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            int sampleSize = Math.max(1, options.inSampleSize);
+            options.inBitmap = BitmapPool.getInstance().get((options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize, config);
+        }
+    }
+
+    /**
+     * Decodes an image from a stream using the given options, and closes the stream. If nothing
+     * could be decoded, the pooled bitmap attached to the options (if any) goes back to the pool.
+     *
+     * @param imageStream A stream over the image.
+     * @param options     The options to decode with, usually prepared using `prepareDecode()`.
+     * @return The decoded image, or null if there was nothing to decode (which is always the case
+     * when only the size of the image is asked for).
+     */
+    @Nullable
+    static Bitmap decode(InputStream imageStream, BitmapFactory.Options options) {
+        Tracer.beginSection("ImageHandler.decode");
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(imageStream, null, options);
+            if (bitmap == null && options.inBitmap != null)
+                releaseReusedBitmap(options);
+
+            return bitmap;
+        } finally {
+            try {
+                imageStream.close();
+            } catch (IOException ignored) {
+                // Nothing left to read from the stream anyway.
+            }
+
+            Tracer.endSection();
+        }
+    }
+
+    /**
+     * Gives the pooled bitmap attached to a set of options back to the pool, and returns the
+     * options without it.
+     */
+    static BitmapFactory.Options releaseReusedBitmap(BitmapFactory.Options options) {
+        BitmapPool.getInstance().put(options.inBitmap);
+        options.inBitmap = null;
+        return options;
     }
 }
@@ -0,0 +1,61 @@
+package com.tinyideas.wixby;
+
+import java.io.InputStream;
+
+/**
+ * A pointer to the image of a user that is yet to be read. Objects like `Data` hold on to one of
+ * these instead of the image itself, thus the image is read from the database only if (and when)
+ * something actually wants to show it.
+ */
+public class ImageReference implements ImageHandler.ImageSource {
+    private final DatabaseHelper databaseHelper;
+    private final long userIndex;
+
+    /**
+     * The class constructor.
+     *
+     * @param databaseHelper The helper that will be used to read the image.
+     * @param userIndex      The `AutoIndex` of the user the image belongs to.
+     */
+    ImageReference(DatabaseHelper databaseHelper, long userIndex) {
+        this.databaseHelper = databaseHelper;
+        this.userIndex = userIndex;
+    }
+
+    public long getUserIndex() {
+        return userIndex;
+    }
+
+    /**
+     * Opens the image for reading, without reading it into memory. Preferred over `load()` for
+     * decoding, as the image can be decoded directly from the stream.
+     *
+     * @return A stream over the image (to be closed by the caller), or null if the user has no image.
+     */
+    @Override
+    public InputStream open() {
+        return databaseHelper.openUserImage(userIndex);
+    }
+
+    /**
+     * Opens the smallest rendition of the image that is at least as large as the given size. See
+     * `DatabaseHelper.openUserImage(long, int, int)`.
+     *
+     * @param targetWidth  The width of the view in which the image will be shown, in pixels.
+     * @param targetHeight The height of the view in which the image will be shown, in pixels.
+     * @return A stream over the image (to be closed by the caller), or null if the user has no image.
+     */
+    public InputStream open(int targetWidth, int targetHeight) {
+        return databaseHelper.openUserImage(userIndex, targetWidth, targetHeight);
+    }
+
+    /**
+     * Reads the entire image into memory. Every call results in a read, thus the caller is expected
+     * to hold on to the result if it needs it more than once.
+     *
+     * @return The image as an array of bytes, or null if the user has no image.
+     */
+    public byte[] load() {
+        return databaseHelper.getUserImageBytes(userIndex);
+    }
+}
@@ -0,0 +1,126 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The image registered by a user along with the smaller copies (renditions) made from it. Every
+ * screen reads the smallest copy that is at least as large as the view it's shown in, thus a list
+ * of users decodes a few kilobytes per row instead of the entire original.
+ * <p>
+ * The original is kept in `ImageTable`, and the renditions in `ImageRenditions`, all of them in the
+ * `ImageStore`.
+ */
+public class ImageRenditions {
+
+    /**
+     * The renditions made for every image, smallest first.
+     */
+    static final ImageEncoding[] RENDITIONS = {ImageEncoding.THUMBNAIL, ImageEncoding.DISPLAY};
+
+    private final StoredImage original;
+    private final List<Rendition> renditions;
+    private final long perceptualHash;
+
+    private ImageRenditions(@Nullable StoredImage original, List<Rendition> renditions, long perceptualHash) {
+        this.original = original;
+        this.renditions = Collections.unmodifiableList(renditions);
+        this.perceptualHash = perceptualHash;
+    }
+
+    /**
+     * Encodes an image along with every one of its renditions, and writes all of them into the
+     * store. The perceptual hash of the image is computed along the way. Encoding is by far the
+     * slowest part of registering a user, thus this should never be called from the main thread.
+     *
+     * @param image      The image picked by the user.
+     * @param imageStore The store in which the images are to be written.
+     * @return The stored original and renditions.
+     * @throws IOException If one of the images could not be written.
+     */
+    public static ImageRenditions create(Bitmap image, ImageStore imageStore) throws IOException {
+        StoredImage original = imageStore.put(ImageHandler.getBytes(image, ImageEncoding.PROFILE));
+        return new ImageRenditions(original, createRenditions(image, imageStore), PerceptualHash.of(image));
+    }
+
+    /**
+     * Encodes just the renditions of an image and writes them into the store. Used for the images
+     * registered before the renditions existed, which already have their original in the store.
+     *
+     * @param image      The original image.
+     * @param imageStore The store in which the renditions are to be written.
+     * @return The stored renditions, smallest first.
+     * @throws IOException If one of the images could not be written.
+     */
+    static List<Rendition> createRenditions(Bitmap image, ImageStore imageStore) throws IOException {
+        List<Rendition> renditions = new ArrayList<>(RENDITIONS.length);
+        int largestSide = Math.max(image.getWidth(), image.getHeight());
+
+        for (ImageEncoding encoding : RENDITIONS) {
+            int maxSize = Math.max(encoding.getMaxWidth(), encoding.getMaxHeight());
+            renditions.add(new Rendition(maxSize, imageStore.put(ImageHandler.getBytes(image, encoding))));
+
+            // A rendition that wasn't scaled down is as large as the image itself, thus every larger
+            // rendition would just be another copy of it.
+            if (largestSide <= maxSize)
+                break;
+        }
+
+        return renditions;
+    }
+
+    /**
+     * @return The stored original, or null if only the renditions were made.
+     */
+    @Nullable
+    public StoredImage getOriginal() {
+        return original;
+    }
+
+    /**
+     * @return The stored renditions, smallest first.
+     */
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    /**
+     * @return The perceptual hash of the image, see `PerceptualHash`.
+     */
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+}
+
+/**
+ * A single rendition of an image, i.e. the image scaled down to fit in a square of `maxSize`.
+ */
+class Rendition {
+    private final int maxSize;
+    private final StoredImage image;
+
+    /**
+     * The class constructor.
+     *
+     * @param maxSize The side of the square the rendition was made to fit in, in pixels.
+     * @param image   The rendition, as stored in the `ImageStore`.
+     */
+    Rendition(int maxSize, StoredImage image) {
+        this.maxSize = maxSize;
+        this.image = image;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public StoredImage getImage() {
+        return image;
+    }
+}
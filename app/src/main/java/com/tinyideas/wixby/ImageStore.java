@@ -0,0 +1,286 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps the images of the users as plain files, outside of the database. Every file is named after
+ * the SHA-256 hash of its contents, thus the same photo registered twice is stored only once and the
+ * database only needs to remember the hash of the image (see `ImageTable`).
+ * <p>
+ * Keeping the images out of the database keeps the database file small, thus the pages holding the
+ * users stay in the cache, and an image is never pushed through a `CursorWindow` (which can't hold
+ * anything larger than 2 MB). Files are written once and never modified, thus they can be read from
+ * any thread without any locking.
+ */
+public class ImageStore {
+
+    // The files are spread across sub-directories named after the first two characters of their
+    // hash, thus no single directory ends up with an enormous number of files.
+    private static final int FAN_OUT_LENGTH = 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+
+    /**
+     * The class constructor.
+     *
+     * @param directory The directory in which the images are to be kept. Created if it doesn't exist.
+     */
+    ImageStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writes an image into the store, unless an identical image is already present. The file is
+     * first written under a temporary name and then renamed, thus a crash halfway through the write
+     * never leaves a partial image behind under a valid hash.
+     * <p>
+     * Should be called before the transaction writing the user begins, thus the database is never
+     * kept locked while the disk is busy with the image.
+     *
+     * @param imageBytes The encoded image, as returned by `ImageHandler.getBytes()`.
+     * @return The hash and details of the stored image, to be written into `ImageTable`.
+     * @throws IOException If the image could not be written.
+     */
+    public StoredImage put(byte[] imageBytes) throws IOException {
+        String hash = hash(imageBytes);
+        File file = fileFor(hash);
+
+        // Reading just the header of the image to note down its size, nothing is decoded.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+
+        StoredImage image = new StoredImage(hash, imageBytes.length, options.outWidth, options.outHeight,
+                options.outMimeType);
+
+        // The name is derived from the contents, thus a file of the same name and size already holds
+        // this exact image.
+        if (file.length() == imageBytes.length)
+            return image;
+
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Unable to create " + parent);
+
+        File temporary = File.createTempFile(hash, ".tmp", parent);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temporary);
+            try {
+                outputStream.write(imageBytes);
+
+                // Making sure the contents are on the disk before the file shows up under its
+                // final name (and before the database starts pointing at it).
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+
+            if (!temporary.renameTo(file))
+                throw new IOException("Unable to move the image to " + file);
+        } finally {
+            // Only exists at this point if something went wrong.
+            temporary.delete();
+        }
+
+        return image;
+    }
+
+    /**
+     * Opens an image for reading. The image is streamed from the disk, thus it can be handed directly
+     * to `BitmapFactory.decodeStream()` without ever holding the encoded image in memory.
+     *
+     * @param hash The hash of the image, as returned by `put()`.
+     * @return A stream over the image, to be closed by the caller. Null if the image doesn't exist.
+     */
+    @Nullable
+    public InputStream open(String hash) {
+        try {
+            return new BufferedInputStream(new FileInputStream(fileFor(hash)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an image at (close to) the given size, without ever decoding it at its full size. The
+     * file is read twice, the first time just for the size of the image.
+     *
+     * @param hash    The hash of the image, as returned by `put()`.
+     * @param minSize The size the smaller side of the decoded image should at least have, unless
+     *                the image itself is smaller.
+     * @return The decoded image, or null if the image doesn't exist or can't be decoded.
+     */
+    @Nullable
+    public Bitmap decode(String hash, int minSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream imageStream = open(hash);
+        if (imageStream == null)
+            return null;
+
+        ImageHandler.decode(imageStream, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        imageStream = open(hash);
+        if (imageStream == null)
+            return null;
+
+        options.inSampleSize = SampledBitmapLoader.calculateInSampleSize(options.outWidth, options.outHeight,
+                minSize, minSize);
+        ImageHandler.prepareDecode(options, DecodePolicy.DEFAULT);
+        return ImageHandler.decode(imageStream, options);
+    }
+
+    /**
+     * Maps an image into memory. The pages of the file are loaded by the kernel as they are read,
+     * and are shared with every other mapping of the same file.
+     *
+     * @param hash The hash of the image, as returned by `put()`.
+     * @return A read-only buffer over the image, or null if the image doesn't exist.
+     * @throws IOException If the file exists but could not be mapped.
+     */
+    @Nullable
+    public ByteBuffer map(String hash) throws IOException {
+        File file = fileFor(hash);
+        if (!file.isFile())
+            return null;
+
+        // The mapping stays valid after the file (and its channel) has been closed.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads an entire image into an array of bytes. Prefer `open()` wherever a stream will do.
+     *
+     * @param hash The hash of the image, as returned by `put()`.
+     * @return The image as an array of bytes, or null if the image doesn't exist or can't be read.
+     */
+    @Nullable
+    public byte[] read(String hash) {
+        try {
+            ByteBuffer buffer = map(hash);
+            if (buffer == null)
+                return null;
+
+            byte[] imageBytes = new byte[buffer.remaining()];
+            buffer.get(imageBytes);
+            return imageBytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes an image from the store. Identical images are only kept once, thus the caller has to
+     * make sure that no row refers to the hash anymore, see `DatabaseHelper.discardImages()`.
+     *
+     * @param hash The hash of the image, as returned by `put()`.
+     * @return True if the image was removed, false if it didn't exist (or couldn't be removed).
+     */
+    boolean delete(String hash) {
+        return fileFor(hash).delete();
+    }
+
+    /**
+     * Returns the file in which the image with the given hash is (or would be) kept.
+     */
+    File fileFor(String hash) {
+        return new File(new File(directory, hash.substring(0, FAN_OUT_LENGTH)), hash);
+    }
+
+    /**
+     * Returns the SHA-256 hash of an image, as a lowercase hexadecimal string.
+     */
+    static String hash(byte[] imageBytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(imageBytes);
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+
+        return new String(hex);
+    }
+}
+
+/**
+ * The details of an image kept in the `ImageStore`. This is what `ImageTable` holds for every user
+ * in place of the image itself.
+ */
+class StoredImage {
+    private final String hash;
+    private final long byteCount;
+    private final int width;
+    private final int height;
+    private final String mimeType;
+
+    /**
+     * The class constructor.
+     *
+     * @param hash      The hash of the image, which is also the name of its file.
+     * @param byteCount The size of the encoded image, in bytes.
+     * @param width     The width of the image in pixels, -1 if the image couldn't be read.
+     * @param height    The height of the image in pixels, -1 if the image couldn't be read.
+     * @param mimeType  The format of the image (for example "image/png"), null if unknown.
+     */
+    StoredImage(String hash, long byteCount, int width, int height, String mimeType) {
+        this.hash = hash;
+        this.byteCount = byteCount;
+        this.width = width;
+        this.height = height;
+        this.mimeType = mimeType;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+}
@@ -0,0 +1,892 @@
+package com.tinyideas.wixby;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.tinyideas.wixby.core.PasswordHasher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_COUNTRY;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_DOB;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_DOB_EPOCH_DAY;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_FIRST_NAME;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_GENDER;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_HASH;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_HEIGHT;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_PERCEPTUAL_HASH;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_SIZE;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_TYPE;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_IMAGE_WIDTH;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_INDEX;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_LAST_NAME;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_PASSWORD;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_PLACE;
+import static com.tinyideas.wixby.DatabaseHelper.COLUMN_STATE;
+import static com.tinyideas.wixby.DatabaseHelper.IMAGE_TABLE;
+import static com.tinyideas.wixby.DatabaseHelper.RENDITION_TABLE;
+import static com.tinyideas.wixby.DatabaseHelper.SEARCH_TABLE;
+import static com.tinyideas.wixby.DatabaseHelper.TABLE_NAME;
+
+/**
+ * Every change ever made to the schema of the database, along with the code that moves an existing
+ * database from one version to the next.
+ * <p>
+ * A change is made up of two parts. The `Migration` itself is executed from `onUpgrade()` and is
+ * meant for the quick structural changes (new tables, new columns, new indexes). Anything that has to
+ * rewrite the existing rows one by one (re-encoding images, filling in a new column, etc.) would
+ * stall the first launch after an update on a device with a large database, thus such rewrites are
+ * done by a `BackgroundMigration` instead. The migration only schedules it, and it's then executed in
+ * small batches on a background thread once the database is open. The progress is saved after every
+ * batch, thus if the app is killed halfway through, the rewrite continues from where it stopped the
+ * next time the app starts.
+ */
+final class Migrations {
+
+    private static final String TAG = "Migrations";
+
+    // The table that keeps track of the background migrations that are yet to finish. Every row is
+    // a single job, with the range of keys that are still left to be processed.
+    static final String JOBS_TABLE = "MigrationJobs";
+    static final String COLUMN_JOB_NAME = "Name";
+    static final String COLUMN_JOB_LAST_KEY = "LastKey";
+    static final String COLUMN_JOB_END_KEY = "EndKey";
+
+    // The number of rows rewritten per transaction by a background migration.
+    static final int BACKGROUND_BATCH_SIZE = 200;
+
+    // The background migrations known to this version of the app, by name.
+    private static final Map<String, BackgroundMigration> BACKGROUND_MIGRATIONS = new HashMap<>();
+
+    // The background migrations are run one after the other on a single low priority thread.
+    private static final ExecutorService backgroundRunner = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "BackgroundMigrations");
+                }
+            });
+
+    private Migrations() {
+    }
+
+    /**
+     * Fills in the full-text search table for the users that were already present when the table
+     * was created. The users registered after that are indexed by the triggers.
+     */
+    private static final BackgroundMigration SEARCH_INDEX = register(new BackgroundMigration("search-index") {
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            String range = String.format("FROM %s WHERE %s > %d AND %s <= %d ORDER BY %s LIMIT %d",
+                    TABLE_NAME, COLUMN_INDEX, afterKey, COLUMN_INDEX, endKey, COLUMN_INDEX, batchSize);
+
+            // Replacing, rather than adding, thus a batch that runs a second time leaves a single
+            // entry per user behind.
+            database.execSQL(String.format("INSERT OR REPLACE INTO %s (docid, %s, %s, %s, %s) " +
+                            "SELECT %s, %s, %s, %s, %s %s", SEARCH_TABLE, COLUMN_FIRST_NAME, COLUMN_LAST_NAME,
+                    COLUMN_PLACE, COLUMN_STATE, COLUMN_INDEX, COLUMN_FIRST_NAME, COLUMN_LAST_NAME, COLUMN_PLACE, COLUMN_STATE, range));
+
+            return lastKeyOf(database, range, endKey);
+        }
+    });
+
+    /**
+     * Moves the images written before version 5 out of `ImageTable` and into the `ImageStore`. The
+     * images are read one at a time (and in pieces), thus even the ones too large for a
+     * `CursorWindow` make it across.
+     */
+    private static final BackgroundMigration IMAGE_STORE = register(new BackgroundMigration("image-store") {
+        // Every image is read, written and synced to the disk before its batch begins, which takes
+        // far longer than rewriting a row, thus the progress is saved every few images.
+        private static final int IMAGES_PER_BATCH = 16;
+
+        // The database is rebuilt once done if at least this fraction of its pages is left unused.
+        private static final int VACUUM_FREE_PAGES_FRACTION = 4;
+
+        // The images written into the store by `prepareBatch()`, along with the keys of their users.
+        private long[] keys = new long[0];
+        private StoredImage[] images = new StoredImage[0];
+        private int count = 0;
+
+        @Override
+        void prepareBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            // Reading just the keys of the rows that still hold an image, the images themselves
+            // are read one by one below.
+            int limit = Math.min(batchSize, IMAGES_PER_BATCH);
+            keys = new long[limit];
+            images = new StoredImage[limit];
+            count = 0;
+
+            Cursor cursor = database.rawQuery(String.format("SELECT %s FROM %s WHERE %s > ? AND %s <= ? AND " +
+                            "%s IS NOT NULL ORDER BY %s LIMIT ?", COLUMN_INDEX, IMAGE_TABLE, COLUMN_INDEX,
+                    COLUMN_INDEX, COLUMN_IMAGE, COLUMN_INDEX), new String[]{String.valueOf(afterKey),
+                    String.valueOf(endKey), String.valueOf(limit)});
+            try {
+                while (cursor.moveToNext())
+                    keys[count++] = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+
+            // The files are written with no transaction open. A file whose row is gone by the time
+            // the batch runs is left for the next user with the same image.
+            for (int i = 0; i < count; i++) {
+                byte[] imageBytes = DatabaseHelper.readImageColumn(database, keys[i]);
+                if (imageBytes == null)
+                    continue;
+
+                try {
+                    images[i] = databaseHelper.getImageStore().put(imageBytes);
+                } catch (IOException e) {
+                    throw new SQLException("Unable to move the image of user " + keys[i], e);
+                }
+            }
+        }
+
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            // Only the rows that still hold their image are updated, in case anything changed since
+            // the images were written.
+            SQLiteStatement update = database.compileStatement(String.format("UPDATE %s SET %s = ?, %s = ?, " +
+                            "%s = ?, %s = ?, %s = ?, %s = NULL WHERE %s = ? AND %s IS NOT NULL", IMAGE_TABLE,
+                    COLUMN_IMAGE_HASH, COLUMN_IMAGE_SIZE, COLUMN_IMAGE_WIDTH, COLUMN_IMAGE_HEIGHT, COLUMN_IMAGE_TYPE,
+                    COLUMN_IMAGE, COLUMN_INDEX, COLUMN_IMAGE));
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (images[i] == null)
+                        continue;
+
+                    DatabaseHelper.bindImage(update, 1, images[i]);
+                    update.bindLong(6, keys[i]);
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            } finally {
+                update.close();
+            }
+
+            return (count == 0) ? endKey : keys[count - 1];
+        }
+
+        @Override
+        void onFinished(DatabaseHelper databaseHelper, SQLiteDatabase database) {
+            // The images are gone from the database, but the file doesn't shrink on its own. Only
+            // worth rebuilding the database if the images took up a good part of it, and then the
+            // database is small by now, thus rebuilding it doesn't take long.
+            long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            long pages = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+            if (freePages > 0 && freePages >= pages / VACUUM_FREE_PAGES_FRACTION)
+                database.execSQL("VACUUM");
+        }
+    });
+
+    /**
+     * Makes the thumbnail and display renditions for the images registered before version 6. The
+     * originals are decoded at the size of the largest rendition, never at their full size.
+     */
+    private static final BackgroundMigration RENDITIONS = register(new BackgroundMigration("renditions") {
+        // Every image is decoded, and encoded once per rendition, before its batch begins, which
+        // takes far longer than inserting the rows, thus the progress is saved every few images.
+        private static final int IMAGES_PER_BATCH = 4;
+
+        // The users read by `prepareBatch()`, the hash of the original each one had at the time and
+        // the renditions written into the store for it (null if the original couldn't be decoded).
+        // `inserted` tells which of the renditions were inserted by `migrateBatch()`.
+        private long[] keys = new long[0];
+        private String[] hashes = new String[0];
+        private List<List<Rendition>> renditions = new ArrayList<>();
+        private boolean[] inserted = new boolean[0];
+        private int count = 0;
+
+        @Override
+        void prepareBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            int limit = Math.min(batchSize, IMAGES_PER_BATCH);
+            keys = new long[limit];
+            hashes = new String[limit];
+            renditions = new ArrayList<>(limit);
+            inserted = new boolean[limit];
+            count = 0;
+
+            // Skipping the users whose renditions were already made, i.e. the ones registered after
+            // the migration was scheduled.
+            Cursor cursor = database.rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s > ? AND %s <= ? AND " +
+                            "%s IS NOT NULL AND %s NOT IN (SELECT %s FROM %s) ORDER BY %s LIMIT ?", COLUMN_INDEX,
+                    COLUMN_IMAGE_HASH, IMAGE_TABLE, COLUMN_INDEX, COLUMN_INDEX, COLUMN_IMAGE_HASH, COLUMN_INDEX,
+                    COLUMN_INDEX, RENDITION_TABLE, COLUMN_INDEX), new String[]{String.valueOf(afterKey),
+                    String.valueOf(endKey), String.valueOf(limit)});
+            try {
+                while (cursor.moveToNext()) {
+                    keys[count] = cursor.getLong(0);
+                    hashes[count++] = cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // The images are decoded and the renditions written with no transaction open. What was
+            // written for a row that changed by the time the batch runs is discarded by
+            // `finishBatch()`.
+            int largestRendition = Math.max(ImageEncoding.DISPLAY.getMaxWidth(), ImageEncoding.DISPLAY.getMaxHeight());
+            for (int i = 0; i < count; i++) {
+                Bitmap image = databaseHelper.getImageStore().decode(hashes[i], largestRendition);
+                if (image == null) {
+                    // A missing or broken original is left alone, the original is what is read
+                    // for such a user anyway.
+                    Log.w(TAG, "Unable to decode the image of user " + keys[i]);
+                    renditions.add(null);
+                    continue;
+                }
+
+                try {
+                    renditions.add(ImageRenditions.createRenditions(image, databaseHelper.getImageStore()));
+                } catch (IOException e) {
+                    throw new SQLException("Unable to write the renditions of user " + keys[i], e);
+                } finally {
+                    // Nothing else has seen the decoded original.
+                    BitmapPool.getInstance().put(image);
+                }
+            }
+        }
+
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            // Only the users that still have the same original, and still have no renditions, get
+            // the renditions made from it.
+            SQLiteStatement check = database.compileStatement(String.format("SELECT COUNT(*) FROM %s " +
+                            "WHERE %s = ? AND %s = ? AND %s NOT IN (SELECT %s FROM %s)", IMAGE_TABLE, COLUMN_INDEX,
+                    COLUMN_IMAGE_HASH, COLUMN_INDEX, COLUMN_INDEX, RENDITION_TABLE));
+            SQLiteStatement insert = database.compileStatement(DatabaseHelper.INSERT_RENDITION);
+            try {
+                for (int i = 0; i < renditions.size(); i++) {
+                    if (renditions.get(i) == null)
+                        continue;
+
+                    check.bindLong(1, keys[i]);
+                    check.bindString(2, hashes[i]);
+                    boolean unchanged = check.simpleQueryForLong() > 0;
+                    check.clearBindings();
+                    if (!unchanged)
+                        continue;
+
+                    for (Rendition rendition : renditions.get(i)) {
+                        insert.bindLong(1, keys[i]);
+                        insert.bindLong(2, rendition.getMaxSize());
+                        DatabaseHelper.bindImage(insert, 3, rendition.getImage());
+                        insert.executeInsert();
+                        insert.clearBindings();
+                    }
+                    inserted[i] = true;
+                }
+            } finally {
+                insert.close();
+                check.close();
+            }
+
+            return (count == 0) ? endKey : keys[count - 1];
+        }
+
+        @Override
+        void finishBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, boolean committed) {
+            // The renditions of a batch that was rolled back, or of a user that changed in the
+            // meantime, are referred to by no row.
+            for (int i = 0; i < renditions.size(); i++) {
+                if (renditions.get(i) != null && (!committed || !inserted[i]))
+                    databaseHelper.discardRenditions(renditions.get(i));
+            }
+
+            renditions = new ArrayList<>();
+        }
+    });
+
+    /**
+     * Computes the perceptual hash of the images registered before version 7. Only a small copy of
+     * every image is decoded, the hash itself is computed from 72 x 64 pixels.
+     */
+    private static final BackgroundMigration PERCEPTUAL_HASH = register(new BackgroundMigration("perceptual-hash") {
+        // Decoding a heavily sampled image is quick, but it's still far slower than rewriting a row.
+        private static final int IMAGES_PER_BATCH = 32;
+
+        // The smaller side of the decoded image, just enough for every pixel of the hash.
+        private static final int DECODE_SIZE = 72;
+
+        // The users read by `prepareBatch()`, the hash of the image each one had at the time, and
+        // its perceptual hash (if the image could be decoded).
+        private long[] keys = new long[0];
+        private String[] hashes = new String[0];
+        private long[] perceptualHashes = new long[0];
+        private boolean[] decoded = new boolean[0];
+        private int count = 0;
+
+        @Override
+        void prepareBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            int limit = Math.min(batchSize, IMAGES_PER_BATCH);
+            keys = new long[limit];
+            hashes = new String[limit];
+            perceptualHashes = new long[limit];
+            decoded = new boolean[limit];
+            count = 0;
+
+            Cursor cursor = database.rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s > ? AND %s <= ? AND " +
+                            "%s IS NOT NULL AND %s IS NULL ORDER BY %s LIMIT ?", COLUMN_INDEX, COLUMN_IMAGE_HASH,
+                    IMAGE_TABLE, COLUMN_INDEX, COLUMN_INDEX, COLUMN_IMAGE_HASH, COLUMN_IMAGE_PERCEPTUAL_HASH,
+                    COLUMN_INDEX), new String[]{String.valueOf(afterKey), String.valueOf(endKey),
+                    String.valueOf(limit)});
+            try {
+                while (cursor.moveToNext()) {
+                    keys[count] = cursor.getLong(0);
+                    hashes[count++] = cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // The images are decoded and hashed with no transaction open.
+            for (int i = 0; i < count; i++) {
+                Bitmap image = databaseHelper.getImageStore().decode(hashes[i], DECODE_SIZE);
+                if (image == null) {
+                    Log.w(TAG, "Unable to decode the image of user " + keys[i]);
+                    continue;
+                }
+
+                try {
+                    perceptualHashes[i] = PerceptualHash.of(image);
+                    decoded[i] = true;
+                } finally {
+                    BitmapPool.getInstance().put(image);
+                }
+            }
+        }
+
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            // Only the rows that still have the same image, and still have no perceptual hash, are
+            // updated, in case anything changed since the images were decoded.
+            SQLiteStatement update = database.compileStatement(String.format("UPDATE %s SET %s = ? WHERE %s = ? " +
+                            "AND %s = ? AND %s IS NULL", IMAGE_TABLE, COLUMN_IMAGE_PERCEPTUAL_HASH, COLUMN_INDEX,
+                    COLUMN_IMAGE_HASH, COLUMN_IMAGE_PERCEPTUAL_HASH));
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (!decoded[i])
+                        continue;
+
+                    update.bindLong(1, perceptualHashes[i]);
+                    update.bindLong(2, keys[i]);
+                    update.bindString(3, hashes[i]);
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            } finally {
+                update.close();
+            }
+
+            return (count == 0) ? endKey : keys[count - 1];
+        }
+
+        @Override
+        void onFinished(DatabaseHelper databaseHelper, SQLiteDatabase database) {
+            // An index loaded while the migration was running is missing the hashes written since.
+            databaseHelper.invalidatePerceptualHashIndex();
+        }
+    });
+
+    /**
+     * Fills in the epoch day of the dates of birth of the users registered before version 8. The
+     * text is parsed in Java rather than in SQL, as SQLite has no way of reading the names of the
+     * months. Dates that can't be parsed are left as null.
+     */
+    private static final BackgroundMigration DATE_OF_BIRTH = register(new BackgroundMigration("date-of-birth") {
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            long lastKey = afterKey;
+
+            Cursor cursor = database.rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s > ? AND %s <= ? " +
+                            "ORDER BY %s LIMIT ?", COLUMN_INDEX, COLUMN_DOB, TABLE_NAME, COLUMN_INDEX, COLUMN_INDEX,
+                    COLUMN_INDEX), new String[]{String.valueOf(afterKey), String.valueOf(endKey),
+                    String.valueOf(batchSize)});
+            SQLiteStatement update = database.compileStatement(String.format("UPDATE %s SET %s = ? WHERE %s = ?",
+                    TABLE_NAME, COLUMN_DOB_EPOCH_DAY, COLUMN_INDEX));
+            try {
+                while (cursor.moveToNext()) {
+                    lastKey = cursor.getLong(0);
+
+                    DatabaseHelper.bindEpochDay(update, 1, cursor.getString(1));
+                    update.bindLong(2, lastKey);
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            } finally {
+                update.close();
+                cursor.close();
+            }
+
+            return (lastKey == afterKey) ? endKey : lastKey;
+        }
+    });
+
+    /**
+     * Hashes the passwords of the users registered before version 9, which were stored as typed.
+     */
+    private static final BackgroundMigration PASSWORD_HASH = register(new BackgroundMigration("password-hash") {
+        // Every hash takes `DatabaseHelper.PASSWORD_HASH_TARGET_MILLIS`, thus the progress is saved
+        // every few passwords.
+        private static final int PASSWORDS_PER_BATCH = 8;
+
+        // The keys of the rows read by `prepareBatch()`, with the password each row held and its
+        // hash. The hash is null for a row that needs nothing done.
+        private long[] keys = new long[0];
+        private String[] passwords = new String[0];
+        private String[] hashes = new String[0];
+        private int count = 0;
+
+        @Override
+        void prepareBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            int limit = Math.min(batchSize, PASSWORDS_PER_BATCH);
+            keys = new long[limit];
+            passwords = new String[limit];
+            hashes = new String[limit];
+            count = 0;
+
+            Cursor cursor = database.rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s > ? AND %s <= ? " +
+                            "ORDER BY %s LIMIT ?", COLUMN_INDEX, COLUMN_PASSWORD, TABLE_NAME, COLUMN_INDEX, COLUMN_INDEX,
+                    COLUMN_INDEX), new String[]{String.valueOf(afterKey), String.valueOf(endKey),
+                    String.valueOf(limit)});
+            try {
+                while (cursor.moveToNext()) {
+                    keys[count] = cursor.getLong(0);
+                    passwords[count] = cursor.getString(1);
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // The passwords are hashed with no transaction open. A password that is already a hash
+            // was written by this version, or by an earlier run of this batch.
+            PasswordHasher hasher = databaseHelper.getPasswordHasher();
+            for (int i = 0; i < count; i++) {
+                if (passwords[i] != null && !PasswordHasher.isHash(passwords[i]))
+                    hashes[i] = hasher.hash(passwords[i]);
+            }
+        }
+
+        @Override
+        long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                          int batchSize) {
+            // Only the rows that still hold the password that was hashed are updated, in case anything
+            // changed since.
+            SQLiteStatement update = database.compileStatement(String.format("UPDATE %s SET %s = ? " +
+                    "WHERE %s = ? AND %s = ?", TABLE_NAME, COLUMN_PASSWORD, COLUMN_INDEX, COLUMN_PASSWORD));
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (hashes[i] == null)
+                        continue;
+
+                    update.bindString(1, hashes[i]);
+                    update.bindLong(2, keys[i]);
+                    update.bindString(3, passwords[i]);
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            } finally {
+                update.close();
+            }
+
+            return (count == 0) ? endKey : keys[count - 1];
+        }
+    });
+
+    /**
+     * The steps for moving the database from one version to the next, in order. A new version of
+     * the schema is added by incrementing `DatabaseHelper.DATABASE_VERSION` and adding its step at
+     * the end of this list. Existing steps should never be changed, as some device out there is
+     * still waiting to run them.
+     */
+    static final List<Migration> STEPS = Collections.unmodifiableList(Arrays.asList(
+            new Migration(2, "Key images by the index of their user") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    // The first release wrote the text columns in a shuffled order (and un-shuffled
+                    // them while reading). SQLite reads the old values for every column on the right
+                    // hand side, thus all the columns can be put back in a single statement.
+                    database.execSQL(String.format("UPDATE %s SET %s = %s, %s = %s, %s = %s, %s = %s, %s = %s",
+                            TABLE_NAME, COLUMN_DOB, COLUMN_PLACE, COLUMN_GENDER, COLUMN_STATE,
+                            COLUMN_PLACE, COLUMN_COUNTRY, COLUMN_STATE, COLUMN_DOB, COLUMN_COUNTRY, COLUMN_GENDER));
+
+                    // SQLite can't change the key of an existing table, thus creating the new table,
+                    // copying the images that still have a matching user, and swapping the tables.
+                    String newImageTable = IMAGE_TABLE + "_v2";
+                    DatabaseHelper.createImageTable(database, newImageTable);
+
+                    database.execSQL(String.format("INSERT INTO %s (%s, %s) SELECT %s, %s FROM %s WHERE %s IN " +
+                                    "(SELECT %s FROM %s)", newImageTable, COLUMN_INDEX, COLUMN_IMAGE, COLUMN_INDEX,
+                            COLUMN_IMAGE, IMAGE_TABLE, COLUMN_INDEX, COLUMN_INDEX, TABLE_NAME));
+
+                    database.execSQL(String.format("DROP TABLE %s", IMAGE_TABLE));
+                    database.execSQL(String.format("ALTER TABLE %s RENAME TO %s", newImageTable, IMAGE_TABLE));
+                }
+            },
+
+            new Migration(3, "Secondary indexes on IndexTable") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.createIndexes(database);
+                }
+            },
+
+            new Migration(4, "Full-text search over the users") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.createSearchTable(database);
+                    schedule(database, SEARCH_INDEX);
+                }
+            },
+
+            new Migration(5, "Move the images into the image store") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.addImageStoreColumns(database);
+                    schedule(database, IMAGE_STORE);
+                }
+            },
+
+            new Migration(6, "Smaller renditions of every image") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.createRenditionTable(database);
+
+                    // Scheduled after the image store, thus when both are pending, the images have
+                    // been moved into the store by the time their renditions are made.
+                    schedule(database, RENDITIONS);
+                }
+            },
+
+            new Migration(7, "Perceptual hashes of the images") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.addPerceptualHashColumn(database);
+                    schedule(database, PERCEPTUAL_HASH);
+                }
+            },
+
+            new Migration(8, "Dates of birth as indexed epoch days") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    DatabaseHelper.addDateOfBirthEpochDayColumn(database);
+                    schedule(database, DATE_OF_BIRTH);
+                }
+            },
+
+            new Migration(9, "Hash the passwords") {
+                @Override
+                void migrate(SQLiteDatabase database) {
+                    // Nothing changes in the structure, the column keeps the hash in place of the
+                    // password.
+                    schedule(database, PASSWORD_HASH);
+                }
+            }
+    ));
+
+    /**
+     * Creates the table that keeps track of the background migrations, if it doesn't exist already.
+     *
+     * @param database The database in which the table is to be created.
+     */
+    static void createJobsTable(SQLiteDatabase database) {
+        database.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s (%s TEXT PRIMARY KEY, %s INTEGER, %s INTEGER)",
+                JOBS_TABLE, COLUMN_JOB_NAME, COLUMN_JOB_LAST_KEY, COLUMN_JOB_END_KEY));
+    }
+
+    /**
+     * Moves the database from `oldVersion` to `newVersion`, running every step in between in order.
+     * Each step runs inside a transaction of its own. Since `onUpgrade()` is itself one transaction,
+     * a failing step leaves the database untouched at `oldVersion`, and the upgrade is attempted
+     * again the next time the database is opened.
+     *
+     * @param database   The database that is to be upgraded.
+     * @param oldVersion The version the database is at.
+     * @param newVersion The version the database is to be moved to.
+     */
+    static void upgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        createJobsTable(database);
+
+        for (Migration migration : STEPS) {
+            if (migration.version <= oldVersion || migration.version > newVersion)
+                continue;
+
+            Log.i(TAG, "Migrating to version " + migration.version + ": " + migration.description);
+
+            database.beginTransaction();
+            try {
+                migration.migrate(database);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Schedules a background migration. The migration will cover every user that exists at this
+     * moment, users added later are expected to be taken care of by the code that adds them.
+     * Meant to be called from inside `Migration.migrate()`.
+     *
+     * @param database  The database that is being upgraded.
+     * @param migration The background migration that is to be scheduled.
+     */
+    static void schedule(SQLiteDatabase database, BackgroundMigration migration) {
+        database.execSQL(String.format("INSERT OR REPLACE INTO %s (%s, %s, %s) VALUES (?, 0, " +
+                        "(SELECT IFNULL(MAX(%s), 0) FROM %s))", JOBS_TABLE, COLUMN_JOB_NAME, COLUMN_JOB_LAST_KEY,
+                COLUMN_JOB_END_KEY, COLUMN_INDEX, TABLE_NAME), new Object[]{migration.name});
+    }
+
+    /**
+     * Starts executing the background migrations that are yet to finish, if any. Returns immediately,
+     * the migrations are executed on a background thread.
+     *
+     * @param databaseHelper The helper that will be used to open the database.
+     */
+    static void startBackgroundMigrations(final DatabaseHelper databaseHelper) {
+        backgroundRunner.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runBackgroundMigrations(databaseHelper, databaseHelper.getWritableDatabase(),
+                            BACKGROUND_BATCH_SIZE, Integer.MAX_VALUE);
+                } catch (RuntimeException e) {
+                    // The progress made till now has been saved, the rest will be attempted again
+                    // the next time the app starts.
+                    Log.e(TAG, "Background migration failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes every pending background migration till it's done, one batch per transaction. The
+     * migrations are executed in the order they were scheduled, as a migration may depend on the
+     * ones scheduled before it.
+     *
+     * @param databaseHelper The helper that owns the database.
+     * @param database       The database that is being migrated.
+     * @param batchSize      The maximum number of rows handed to every batch.
+     * @param maxBatches     The number of batches after which to stop, as if the app had been killed
+     *                       right after committing the last of them. Only ever limited by tests.
+     * @return True if every migration has finished, false if it stopped after `maxBatches`.
+     */
+    @VisibleForTesting
+    static boolean runBackgroundMigrations(DatabaseHelper databaseHelper, SQLiteDatabase database, int batchSize,
+                                           int maxBatches) {
+        int batches = 0;
+
+        Cursor cursor = database.rawQuery(String.format("SELECT %s, %s, %s FROM %s ORDER BY rowid",
+                COLUMN_JOB_NAME, COLUMN_JOB_LAST_KEY, COLUMN_JOB_END_KEY, JOBS_TABLE), null);
+
+        String[] names = new String[cursor.getCount()];
+        long[] lastKeys = new long[names.length];
+        long[] endKeys = new long[names.length];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                names[i] = cursor.getString(0);
+                lastKeys[i] = cursor.getLong(1);
+                endKeys[i] = cursor.getLong(2);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            BackgroundMigration migration = BACKGROUND_MIGRATIONS.get(names[i]);
+            if (migration == null) {
+                Log.w(TAG, "Skipping unknown background migration " + names[i]);
+                continue;
+            }
+
+            long lastKey = lastKeys[i];
+            long endKey = endKeys[i];
+            while (lastKey < endKey) {
+                if (batches == maxBatches)
+                    return false;
+
+                // Every batch, along with the progress it made, is committed on its own. Thus the
+                // database is never locked for long, and the registrations made while the migration
+                // is running are written in between the batches.
+                long start = DbMetrics.start();
+                boolean committed = false;
+                try {
+                    migration.prepareBatch(databaseHelper, database, lastKey, endKey, batchSize);
+
+                    database.beginTransaction();
+                    try {
+                        long nextKey = migration.migrateBatch(databaseHelper, database, lastKey, endKey, batchSize);
+
+                        // A batch that made no progress means that nothing is left in the range.
+                        lastKey = (nextKey > lastKey) ? nextKey : endKey;
+                        database.execSQL(String.format("UPDATE %s SET %s = ? WHERE %s = ?", JOBS_TABLE,
+                                COLUMN_JOB_LAST_KEY, COLUMN_JOB_NAME), new Object[]{lastKey, migration.name});
+
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    committed = true;
+                } finally {
+                    migration.finishBatch(databaseHelper, database, committed);
+                }
+                databaseHelper.getMetrics().record(DbMetrics.Operation.MIGRATION_BATCH, start, 0, 0);
+                batches++;
+            }
+
+            database.execSQL(String.format("DELETE FROM %s WHERE %s = ?", JOBS_TABLE, COLUMN_JOB_NAME),
+                    new Object[]{migration.name});
+            migration.onFinished(databaseHelper, database);
+            Log.i(TAG, "Background migration " + migration.name + " finished");
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the last key covered by a batch, i.e. the largest `AutoIndex` among the rows selected
+     * by `range`. Returns `endKey` if the range is empty.
+     *
+     * @param database The database the batch was executed on.
+     * @param range    The FROM ... LIMIT part of the query that selected the rows of the batch.
+     * @param endKey   The last key of the entire migration.
+     */
+    static long lastKeyOf(SQLiteDatabase database, String range, long endKey) {
+        Cursor cursor = database.rawQuery(String.format("SELECT MAX(%s) FROM (SELECT %s %s)",
+                COLUMN_INDEX, COLUMN_INDEX, range), null);
+        try {
+            return (cursor.moveToFirst() && !cursor.isNull(0)) ? cursor.getLong(0) : endKey;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static BackgroundMigration register(BackgroundMigration migration) {
+        BACKGROUND_MIGRATIONS.put(migration.name, migration);
+        return migration;
+    }
+}
+
+/**
+ * A single step in the history of the schema, moving the database to `version` from the version
+ * right before it. Executed inside `onUpgrade()`, thus it should be quick.
+ */
+abstract class Migration {
+    final int version;
+    final String description;
+
+    Migration(int version, String description) {
+        this.version = version;
+        this.description = description;
+    }
+
+    /**
+     * Makes the changes required to move the database to `version`. Executed inside a transaction.
+     *
+     * @param database The database that is being upgraded.
+     */
+    abstract void migrate(SQLiteDatabase database);
+}
+
+/**
+ * A rewrite of existing rows that's too heavy to be made inside `onUpgrade()`. Executed on a
+ * background thread in batches of users, walking through them in the order of their `AutoIndex`.
+ */
+abstract class BackgroundMigration {
+    final String name;
+
+    BackgroundMigration(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Does the slow part of the next batch (writing files, hashing, ...) before its transaction
+     * begins, thus the database isn't locked while it runs. The rows may change before the batch
+     * runs, thus `migrateBatch()` has to make sure that they are still as they were read. What was
+     * prepared is kept by the migration itself, the batches run one after the other on a single
+     * thread. Does nothing unless overridden.
+     *
+     * @param databaseHelper The helper that owns the database.
+     * @param database       The database that is being migrated.
+     * @param afterKey       The rows with an `AutoIndex` up to this key are already done.
+     * @param endKey         The `AutoIndex` of the last row to be rewritten by this migration.
+     * @param batchSize      The maximum number of rows to be rewritten in the next batch.
+     */
+    void prepareBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey, long endKey,
+                      int batchSize) {
+    }
+
+    /**
+     * Rewrites the next batch of rows. Executed inside a transaction, which also saves the key that
+     * is returned, thus the method should only make changes to the database (and no other state).
+     * Executed right after `prepareBatch()`, with the same arguments.
+     *
+     * @param databaseHelper The helper that owns the database.
+     * @param database       The database that is being migrated.
+     * @param afterKey       The rows with an `AutoIndex` up to this key are already done.
+     * @param endKey         The `AutoIndex` of the last row to be rewritten by this migration.
+     * @param batchSize      The maximum number of rows to be rewritten in this batch.
+     * @return The `AutoIndex` of the last row rewritten by this batch, or `endKey` if there was
+     * nothing left to rewrite.
+     */
+    abstract long migrateBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, long afterKey,
+                               long endKey, int batchSize);
+
+    /**
+     * Executed once the transaction of a batch is over, outside of any transaction, whether the
+     * batch was committed or not (including when `prepareBatch()` itself failed). Meant for cleaning
+     * up what `prepareBatch()` left outside of the database, for example files that no row ended up
+     * referring to. Does nothing unless overridden.
+     *
+     * @param databaseHelper The helper that owns the database.
+     * @param database       The database that is being migrated.
+     * @param committed      Whether the batch, and the progress it made, was committed.
+     */
+    void finishBatch(DatabaseHelper databaseHelper, SQLiteDatabase database, boolean committed) {
+    }
+
+    /**
+     * Executed once every batch has been migrated, outside of any transaction. Does nothing unless
+     * overridden.
+     *
+     * @param databaseHelper The helper that owns the database.
+     * @param database       The database that was migrated.
+     */
+    void onFinished(DatabaseHelper databaseHelper, SQLiteDatabase database) {
+    }
+}
@@ -0,0 +1,191 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.tinyideas.wixby.core.UserRecord;
+
+import java.util.concurrent.Future;
+
+/**
+ * A registration submitted from `SignUp02` that hasn't finished yet: the image being decoded, then
+ * the user waiting in the `RegistrationQueue`. It outlives the activity that started it, thus an
+ * activity recreated after a rotation picks the same registration back up instead of letting the
+ * user submit it a second time (see `SignUp02.onRetainCustomNonConfigurationInstance()`).
+ * <p>
+ * Only holds on to the activity while it's attached, thus a registration that finishes after the
+ * activity is gone never touches it (or keeps it from being collected). The outcome is kept until
+ * an activity attaches to receive it. Every method is to be called on the main thread.
+ */
+class PendingRegistration {
+
+    /**
+     * Receives the outcome of the registration, on the main thread. At most one of the methods is
+     * executed, once.
+     */
+    interface Listener {
+        /**
+         * Executed once the user has been committed to the database.
+         *
+         * @param rowId  The row ID of the newly inserted user.
+         * @param record The details of the user.
+         */
+        void onRegistered(long rowId, UserRecord record);
+
+        /**
+         * Executed if the image picked by the user could not be read or decoded.
+         *
+         * @param e The exception that caused the failure.
+         */
+        void onImageFailed(Exception e);
+
+        /**
+         * Executed if the user could not be written into the database.
+         *
+         * @param e The exception that caused the failure.
+         */
+        void onFailed(Exception e);
+    }
+
+    private final Context context;
+    private final UserRecord record;
+
+    // The decode of the image, then the write of the user. Only one of them is running at any time.
+    private Future<Bitmap> imageLoading;
+    private Future<Long> registration;
+
+    @Nullable
+    private Listener listener;
+
+    // The outcome, kept till a listener is attached. Only one of the errors is ever set.
+    private boolean finished = false;
+    private long rowId;
+    private Exception imageError;
+    private Exception error;
+
+    // Set once the outcome has been handed to a listener, or once nobody wants it any longer.
+    private boolean delivered = false;
+
+    /**
+     * Starts decoding the image and, once that's done, hands the user over to the registration
+     * queue.
+     *
+     * @param context  Any context, only the application context is kept.
+     * @param record   The details of the user.
+     * @param imageUri The image picked by the user.
+     * @param listener The listener to be attached right away.
+     */
+    PendingRegistration(Context context, UserRecord record, Uri imageUri, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.record = record;
+        this.listener = listener;
+
+        // The image is only decoded now, in the background and at roughly the size it will be
+        // stored at. It's handed straight over to the queue, which lets go of it as soon as it has
+        // been stored.
+        imageLoading = new SampledBitmapLoader(this.context.getContentResolver()).load(imageUri,
+                ImageEncoding.PROFILE.getMaxWidth(), ImageEncoding.PROFILE.getMaxHeight(),
+                new SampledBitmapLoader.Callback() {
+                    @Override
+                    public void onLoaded(Bitmap bitmap) {
+                        imageLoading = null;
+                        register(bitmap);
+                    }
+
+                    @Override
+                    public void onFailed(Exception e) {
+                        imageLoading = null;
+                        imageError = e;
+                        finish();
+                    }
+                });
+    }
+
+    /**
+     * Attaches the listener that is to receive the outcome. If the registration has already
+     * finished, the listener receives the outcome right away.
+     *
+     * @param listener The listener, replacing the one attached before (if any).
+     */
+    void attach(Listener listener) {
+        this.listener = listener;
+        if (finished && !delivered)
+            deliver();
+    }
+
+    /**
+     * Detaches the listener, thus it's no longer referenced. The registration keeps going.
+     */
+    void detach() {
+        listener = null;
+    }
+
+    /**
+     * Stops the registration, unless the user is already being written (in which case it's
+     * written, but nobody is told about it). Nothing is delivered to the listener afterwards.
+     */
+    void cancel() {
+        listener = null;
+        delivered = true;
+
+        if (imageLoading != null)
+            imageLoading.cancel(true);
+        if (registration != null)
+            registration.cancel(false);
+    }
+
+    /**
+     * @return True till the outcome has been delivered (or the registration was cancelled).
+     */
+    boolean isPending() {
+        return !delivered;
+    }
+
+    private void register(Bitmap image) {
+        // Cancelled while the image was being decoded. Nothing else refers to the image.
+        if (delivered) {
+            BitmapPool.getInstance().put(image);
+            return;
+        }
+
+        registration = RegistrationQueue.getInstance(context).enqueue(record, image,
+                new RegistrationQueue.Callback() {
+                    @Override
+                    public void onRegistered(long rowId) {
+                        PendingRegistration.this.rowId = rowId;
+                        finish();
+                    }
+
+                    @Override
+                    public void onFailed(Exception e) {
+                        error = e;
+                        finish();
+                    }
+                });
+    }
+
+    private void finish() {
+        if (finished)
+            return;
+
+        finished = true;
+        if (listener != null && !delivered)
+            deliver();
+    }
+
+    private void deliver() {
+        Listener receiver = listener;
+        listener = null;
+        delivered = true;
+
+        if (imageError != null)
+            receiver.onImageFailed(imageError);
+        else if (error != null)
+            receiver.onFailed(error);
+        else
+            receiver.onRegistered(rowId, record);
+    }
+}
@@ -0,0 +1,89 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Computes a perceptual hash (the "difference hash", or dHash) of an image. Unlike the SHA-256 hash
+ * used by the `ImageStore`, which changes completely if a single byte of the file changes, the
+ * perceptual hash of an image stays (nearly) the same when the image is scaled, re-encoded, or has
+ * its colours and brightness adjusted. Thus two images are near duplicates of each other if their
+ * hashes differ in only a few bits.
+ * <p>
+ * The image is shrunk down to 9 x 8 shades of grey, and every bit of the 64 bit hash tells whether
+ * a pixel is brighter than its neighbour on the right.
+ */
+public final class PerceptualHash {
+
+    /**
+     * The number of bits in which the hashes of two images may differ for the images to still be
+     * considered near duplicates of each other.
+     */
+    public static final int NEAR_DUPLICATE_DISTANCE = 8;
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+
+    // The image is first scaled to this many times the size of the hash, and every cell of the hash
+    // is then the average of a block of that many pixels. Scaling straight down to 9 x 8 would only
+    // look at a handful of the pixels of a large image.
+    private static final int BLOCK_SIZE = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Computes the perceptual hash of an image. The bitmap that is passed in is never modified.
+     *
+     * @param image The image to be hashed. Any size and configuration, except for hardware bitmaps.
+     * @return The 64 bit perceptual hash of the image.
+     */
+    public static long of(Bitmap image) {
+        int width = HASH_WIDTH * BLOCK_SIZE;
+        int height = HASH_HEIGHT * BLOCK_SIZE;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(image, width, height, true);
+        int[] pixels = new int[width * height];
+        try {
+            scaled.getPixels(pixels, 0, width, 0, 0, width, height);
+        } finally {
+            // The scaled copy is never seen outside this method, thus it can be reused.
+            if (scaled != image)
+                BitmapPool.getInstance().put(scaled);
+        }
+
+        // The brightness of every cell, as the sum of the brightness of the pixels in its block.
+        int[] cells = new int[HASH_WIDTH * HASH_HEIGHT];
+        for (int y = 0; y < height; y++) {
+            int row = (y / BLOCK_SIZE) * HASH_WIDTH;
+            for (int x = 0; x < width; x++)
+                cells[row + x / BLOCK_SIZE] += luminance(pixels[y * width + x]);
+        }
+
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (cells[y * HASH_WIDTH + x] > cells[y * HASH_WIDTH + x + 1])
+                    hash |= 1;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the number of bits in which two hashes differ, i.e. their Hamming distance. 0 for
+     * identical images, and around 32 for two unrelated ones.
+     */
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    /**
+     * Returns the brightness of a pixel (0 - 255), weighing the channels as the eye does.
+     */
+    private static int luminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+}
@@ -0,0 +1,172 @@
+package com.tinyideas.wixby;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An in-memory index over the perceptual hashes of the images of every user, for finding the images
+ * that are within a few bits of a given hash without comparing it against every image.
+ * <p>
+ * The index is a BK-tree. Every node holds a hash, and the children of a node are grouped by how far
+ * their hash is from that of the node. By the triangle inequality, the matches for a search are
+ * only ever under the children whose distance is within `maxDistance` of the distance between the
+ * node and the hash searched for, thus a search for near duplicates only visits a small part of
+ * the tree.
+ * <p>
+ * The nodes are kept in flat arrays instead of as objects, thus an index over a few hundred thousand
+ * images takes up a few megabytes and a single allocation per array. All methods are thread safe.
+ */
+class PerceptualHashIndex {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // The nodes of the tree, the root being the first. For every node, the hash, the `AutoIndex` of
+    // the user, the distance from its parent, its first child and its next sibling (-1 for none).
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] userIndexes = new long[INITIAL_CAPACITY];
+    private byte[] distances = new byte[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Adds the image of a user to the index. Adding the same user with the same hash again does
+     * nothing, thus it's safe to add a user that may already have been loaded from the database.
+     *
+     * @param userIndex The `AutoIndex` of the user the image belongs to.
+     * @param hash      The perceptual hash of the image.
+     */
+    synchronized void add(long userIndex, long hash) {
+        if (size == 0) {
+            append(userIndex, hash, 0);
+            return;
+        }
+
+        int node = 0;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, hashes[node]);
+            if (distance == 0 && userIndexes[node] == userIndex)
+                return;
+
+            int child = firstChildren[node];
+            while (child >= 0 && distances[child] != distance)
+                child = nextSiblings[child];
+
+            if (child < 0) {
+                int added = append(userIndex, hash, distance);
+                nextSiblings[added] = firstChildren[node];
+                firstChildren[node] = added;
+                return;
+            }
+
+            node = child;
+        }
+    }
+
+    /**
+     * Finds every user whose image is within `maxDistance` bits of the given hash.
+     *
+     * @param hash        The perceptual hash of the image to look for.
+     * @param maxDistance The largest number of bits in which a match may differ from `hash`.
+     * @return The matches, the closest ones first. Users at the same distance are ordered newest first.
+     */
+    synchronized List<HashMatch> find(long hash, int maxDistance) {
+        List<HashMatch> matches = new ArrayList<>();
+        if (size == 0)
+            return matches;
+
+        // Walking the tree without recursion, as a degenerate tree may be very deep.
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int distance = PerceptualHash.distance(hash, hashes[node]);
+            if (distance <= maxDistance)
+                matches.add(new HashMatch(userIndexes[node], distance));
+
+            for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+                if (Math.abs(distances[child] - distance) > maxDistance)
+                    continue;
+
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = child;
+            }
+        }
+
+        Collections.sort(matches, new Comparator<HashMatch>() {
+            @Override
+            public int compare(HashMatch first, HashMatch second) {
+                if (first.getDistance() != second.getDistance())
+                    return (first.getDistance() < second.getDistance()) ? -1 : 1;
+
+                return (first.getUserIndex() == second.getUserIndex()) ? 0
+                        : (first.getUserIndex() > second.getUserIndex()) ? -1 : 1;
+            }
+        });
+
+        return matches;
+    }
+
+    /**
+     * Returns the number of images in the index.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a node without any children to the end of the arrays, growing them if required.
+     *
+     * @return The position of the new node.
+     */
+    private int append(long userIndex, long hash, int distance) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            userIndexes = Arrays.copyOf(userIndexes, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        }
+
+        hashes[size] = hash;
+        userIndexes[size] = userIndex;
+        distances[size] = (byte) distance;
+        firstChildren[size] = -1;
+        nextSiblings[size] = -1;
+        return size++;
+    }
+}
+
+/**
+ * A single user found by `PerceptualHashIndex.find()`.
+ */
+class HashMatch {
+    private final long userIndex;
+    private final int distance;
+
+    /**
+     * The class constructor.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image matched.
+     * @param distance  The number of bits in which the hash of the image differs from the one searched for.
+     */
+    HashMatch(long userIndex, int distance) {
+        this.userIndex = userIndex;
+        this.distance = distance;
+    }
+
+    public long getUserIndex() {
+        return userIndex;
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+}
@@ -0,0 +1,112 @@
+package com.tinyideas.wixby;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.Nullable;
+
+import com.tinyideas.wixby.core.UserRecord;
+
+/**
+ * The details entered by the user while they go through the sign up pages, handed from one page to
+ * the next inside the intent and kept across configuration changes in the saved instance state.
+ * <p>
+ * The image picked by the user is held as the `Uri` it was picked from, never as a `Bitmap`. It is
+ * only decoded once the user submits the details, and only for as long as it takes to store it.
+ */
+public class RegistrationDraft implements Parcelable {
+
+    private final String firstName;
+    private final String lastName;
+    private final String password;
+    private final String dateOfBirth;
+    private final String gender;
+
+    @Nullable
+    private Uri imageUri;
+
+    /**
+     * The class constructor.
+     *
+     * @param firstName   The first name of the user.
+     * @param lastName    The last name of the user.
+     * @param password    The password that the user selects.
+     * @param dateOfBirth The date of birth for the user.
+     * @param gender      The gender of the user.
+     */
+    public RegistrationDraft(String firstName, String lastName, String password, String dateOfBirth,
+                             String gender) {
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.password = password;
+        this.dateOfBirth = dateOfBirth;
+        this.gender = gender;
+    }
+
+    private RegistrationDraft(Parcel source) {
+        // Read in the same order as written by `writeToParcel()`.
+        firstName = source.readString();
+        lastName = source.readString();
+        password = source.readString();
+        dateOfBirth = source.readString();
+        gender = source.readString();
+        imageUri = source.readParcelable(Uri.class.getClassLoader());
+    }
+
+    /**
+     * @return The image picked by the user, or null if none has been picked yet.
+     */
+    @Nullable
+    public Uri getImageUri() {
+        return imageUri;
+    }
+
+    /**
+     * @param imageUri The image picked by the user, null to forget the one picked earlier.
+     */
+    public void setImageUri(@Nullable Uri imageUri) {
+        this.imageUri = imageUri;
+    }
+
+    /**
+     * Combines the details in the draft with the ones entered on the second page into the record
+     * that is written into the database.
+     *
+     * @param location The location for the user.
+     * @param pin      The PIN code that the user entered.
+     * @param state    The state in which the user resides.
+     * @param country  The country of residence for the user.
+     * @return The record of the user.
+     */
+    public UserRecord toRecord(String location, String pin, String state, String country) {
+        return new UserRecord(firstName, lastName, password, dateOfBirth, gender, location, pin, state, country);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(firstName);
+        dest.writeString(lastName);
+        dest.writeString(password);
+        dest.writeString(dateOfBirth);
+        dest.writeString(gender);
+        dest.writeParcelable(imageUri, flags);
+    }
+
+    public static final Creator<RegistrationDraft> CREATOR = new Creator<RegistrationDraft>() {
+        @Override
+        public RegistrationDraft createFromParcel(Parcel source) {
+            return new RegistrationDraft(source);
+        }
+
+        @Override
+        public RegistrationDraft[] newArray(int size) {
+            return new RegistrationDraft[size];
+        }
+    };
+}
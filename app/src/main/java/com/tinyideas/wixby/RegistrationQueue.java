@@ -0,0 +1,405 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.tinyideas.wixby.core.UserRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A write-behind queue that takes care of writing new users into the database away from the UI
+ * thread. Writing a user involves opening the database, hashing the password, converting the image
+ * into an array of bytes and a couple of inserts, none of which should be done while the user is
+ * staring at a frozen submit button.
+ * <p>
+ * Registrations are handed over to a single writer thread. Whenever the writer wakes up, it takes
+ * all the registrations that are pending at that moment and writes them in one transaction, thus a
+ * burst of registrations ends up sharing a single commit (and a single sync to the disk).
+ */
+public class RegistrationQueue {
+
+    private static final String TAG = "RegistrationQueue";
+
+    private static RegistrationQueue instance;
+
+    private final DatabaseHelper databaseHelper;
+
+    // A single thread is used for all the writes, thus there will never be two writers fighting
+    // over the database at the same time.
+    private final Executor writer;
+
+    // Callbacks are always delivered on the main thread, so that the calling activity can directly
+    // touch its views from inside them.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The registrations that have been submitted but not yet picked up by the writer. Guarded by `this`.
+    private final List<Registration> pending = new ArrayList<>();
+    private boolean drainScheduled = false;
+
+    /**
+     * The callback that will be used to inform the caller once the registration has been written
+     * into the database (or if it fails). Both the methods are executed on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Executed once the user has been committed to the database.
+         *
+         * @param rowId The row ID of the newly inserted user.
+         */
+        void onRegistered(long rowId);
+
+        /**
+         * Executed if the user could not be written into the database.
+         *
+         * @param e The exception that caused the failure.
+         */
+        void onFailed(Exception e);
+    }
+
+    private RegistrationQueue(Context context) {
+        this(DatabaseHelper.getInstance(context), Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Creates a queue of its own, writing into the given database on the given executor. Tests use
+     * it to decide when the writer runs.
+     *
+     * @param databaseHelper The database the users are to be written into.
+     * @param writer         The executor the writes are made on. Must not run two tasks at once.
+     */
+    @VisibleForTesting
+    RegistrationQueue(DatabaseHelper databaseHelper, Executor writer) {
+        this.databaseHelper = databaseHelper;
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the queue shared by the entire application. The queue holds on to the application
+     * context only, thus it's safe to call this method from any activity.
+     *
+     * @param context Any context from the application.
+     * @return The process-wide instance of the queue.
+     */
+    public static synchronized RegistrationQueue getInstance(Context context) {
+        if (instance == null)
+            instance = new RegistrationQueue(context.getApplicationContext());
+
+        return instance;
+    }
+
+    /**
+     * Adds a new user to the queue. The method returns immediately, hashing the password, the image
+     * conversion and the actual write will happen on the writer thread.
+     *
+     * @param record   The details of the user that is to be registered.
+     * @param image    The image selected by the user.
+     * @param callback An optional callback, will be executed on the main thread once the write is done.
+     * @return A future that will complete with the row ID of the new user. Cancelling the future
+     * before the writer picks up the registration will prevent the user from being written.
+     */
+    public Future<Long> enqueue(UserRecord record, Bitmap image, @Nullable Callback callback) {
+        Registration registration = new Registration(record, image, callback);
+
+        synchronized (this) {
+            pending.add(registration);
+
+            // If the writer has already been asked to drain the queue, it'll pick up this
+            // registration along with the rest. No need to wake it up again.
+            if (!drainScheduled) {
+                drainScheduled = true;
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            }
+        }
+
+        return registration;
+    }
+
+    /**
+     * Executed on the writer thread. Takes every registration that is pending at the moment and
+     * writes all of them inside a single transaction. Whatever happens along the way, every
+     * registration in the batch has its outcome reported once this method returns.
+     */
+    private void drain() {
+        List<Registration> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            drainScheduled = false;
+        }
+
+        try {
+            write(batch);
+        } finally {
+            // An error (running out of memory while encoding an image, for example) may have left
+            // part of the batch without an outcome. Their callers are still waiting for one.
+            for (Registration registration : batch) {
+                if (!registration.isDone())
+                    registration.fail(new IllegalStateException("The registration was never written"));
+            }
+        }
+    }
+
+    private void write(List<Registration> batch) {
+        // Hashing the passwords, converting the images (along with their renditions) and writing
+        // them into the store before the transaction begins, thus keeping the time for which the
+        // database is locked as short as possible.
+        ImageStore imageStore = databaseHelper.getImageStore();
+        List<Registration> ready = new ArrayList<>(batch.size());
+        List<UserRecord> records = new ArrayList<>(batch.size());
+        List<ImageRenditions> images = new ArrayList<>(batch.size());
+        for (Registration registration : batch) {
+            // Claiming the registration first, from here on it can no longer be cancelled. The ones
+            // that already were are skipped without a trace.
+            if (registration.claim()) {
+                try {
+                    UserRecord record = databaseHelper.withHashedPassword(registration.record, false);
+                    ImageRenditions image = ImageRenditions.create(registration.image, imageStore);
+
+                    ready.add(registration);
+                    records.add(record);
+                    images.add(image);
+                } catch (IOException | RuntimeException e) {
+                    // Only this registration fails, the rest of the batch is written as usual.
+                    Log.e(TAG, "Unable to prepare a registration", e);
+                    registration.fail(e);
+                }
+            }
+
+            // Either way, the decoded image isn't needed anymore.
+            registration.image = null;
+        }
+
+        if (ready.isEmpty())
+            return;
+
+        SQLiteDatabase database;
+        try {
+            database = databaseHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Unable to open the database", e);
+            for (int i = 0; i < ready.size(); i++) {
+                databaseHelper.discardImages(images.get(i));
+                ready.get(i).fail(e);
+            }
+
+            return;
+        }
+
+        long[] results = new long[ready.size()];
+        Exception batchError = null;
+        int written = 0;
+
+        long transactionStart = DbMetrics.start();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ready.size(); i++) {
+                results[i] = databaseHelper.insertUser(records.get(i), images.get(i));
+                if (results[i] >= 0)
+                    written++;
+            }
+
+            database.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            // Something went wrong with the transaction itself (disk full, database locked, etc.)
+            // None of the rows from this batch have been committed.
+            Log.e(TAG, "Unable to write a batch of " + ready.size() + " registrations", e);
+            batchError = e;
+        } finally {
+            database.endTransaction();
+        }
+
+        if (batchError == null)
+            databaseHelper.getMetrics().recordTransaction(transactionStart, written);
+
+        // Informing everyone in the batch about the outcome.
+        for (int i = 0; i < ready.size(); i++) {
+            Registration registration = ready.get(i);
+            boolean committed = batchError == null && results[i] >= 0;
+
+            // The user is in the database from here on, even if the caller has lost interest. If
+            // not, the images that were stored for them are of no use to anyone.
+            if (committed)
+                databaseHelper.indexPerceptualHash(results[i], images.get(i).getPerceptualHash());
+            else
+                databaseHelper.discardImages(images.get(i));
+
+            if (batchError != null)
+                registration.fail(batchError);
+            else if (!committed)
+                registration.fail(new SQLiteException("Unable to insert the user"));
+            else
+                registration.complete(results[i]);
+        }
+    }
+
+    /**
+     * A single pending registration. Doubles as the future that is handed back to the caller, which
+     * completes once the writer has reported the outcome through `complete()` or `fail()`.
+     */
+    private final class Registration implements Future<Long> {
+        // Waiting for the writer, can still be cancelled.
+        private static final int PENDING = 0;
+        // Picked up by the writer, which is going to report the outcome.
+        private static final int CLAIMED = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
+
+        private final UserRecord record;
+        private final Callback callback;
+
+        // The moment the registration was submitted, thus the metrics cover the time spent waiting
+        // in the queue as well.
+        private final long submittedNanos = DbMetrics.start();
+
+        // Released once the outcome is known, i.e. when the state becomes `DONE` or `CANCELLED`.
+        private final CountDownLatch outcome = new CountDownLatch(1);
+
+        // All guarded by `this`.
+        private int state = PENDING;
+        private long rowId;
+        private Exception error;
+
+        // Dropped once the image has been stored, the caller may still be holding on to the future.
+        private Bitmap image;
+
+        Registration(UserRecord record, Bitmap image, Callback callback) {
+            this.record = record;
+            this.image = image;
+            this.callback = callback;
+        }
+
+        /**
+         * Executed by the writer before it starts on the registration.
+         *
+         * @return False if the registration was cancelled, and thus is not to be written.
+         */
+        synchronized boolean claim() {
+            if (state != PENDING)
+                return false;
+
+            state = CLAIMED;
+            return true;
+        }
+
+        void complete(final long rowId) {
+            synchronized (this) {
+                if (state != CLAIMED)
+                    return;
+
+                this.rowId = rowId;
+                state = DONE;
+            }
+
+            outcome.countDown();
+            databaseHelper.getMetrics().record(DbMetrics.Operation.QUEUED_REGISTRATION, submittedNanos, 1, 0);
+
+            if (callback != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRegistered(rowId);
+                    }
+                });
+            }
+        }
+
+        void fail(final Exception e) {
+            // Cancelled registrations were skipped on purpose, nothing to report for them.
+            synchronized (this) {
+                if (state == DONE || state == CANCELLED)
+                    return;
+
+                error = e;
+                state = DONE;
+            }
+
+            outcome.countDown();
+            databaseHelper.getMetrics().recordFailure(DbMetrics.Operation.QUEUED_REGISTRATION, submittedNanos);
+
+            if (callback != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailed(e);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Cancels the registration, as long as the writer hasn't picked it up yet. Once it has, the
+         * user is going to be written regardless. The writer never has to be interrupted, thus
+         * `mayInterruptIfRunning` makes no difference.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (state != PENDING)
+                    return false;
+
+                state = CANCELLED;
+            }
+
+            outcome.countDown();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return state == DONE || state == CANCELLED;
+        }
+
+        @Override
+        public Long get() throws InterruptedException, ExecutionException {
+            outcome.await();
+            return getOutcome();
+        }
+
+        @Override
+        public Long get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!outcome.await(timeout, unit))
+                throw new TimeoutException();
+
+            return getOutcome();
+        }
+
+        private synchronized Long getOutcome() throws ExecutionException {
+            if (state == CANCELLED)
+                throw new CancellationException();
+            if (error != null)
+                throw new ExecutionException(error);
+
+            return rowId;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.tinyideas.wixby;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Decodes images picked by the user (from the gallery, the camera, etc.) on a background thread,
+ * at a size close to the size they are actually needed at.
+ * <p>
+ * A photo from a phone camera is easily 12 MP, i.e. close to 50 MB once decoded. Instead of decoding
+ * all of it, the size of the image is read first (which only touches the header of the file), and
+ * the image is then decoded with the largest `inSampleSize` that still leaves it at least as large
+ * as required. Both the reads are streamed from the `ContentResolver`, thus the encoded image isn't
+ * held in memory either.
+ */
+public class SampledBitmapLoader {
+
+    private final ContentResolver contentResolver;
+
+    // Images are decoded one at a time. Decoding is limited by memory more than by the processor,
+    // thus running a few decodes side by side would only make running out of memory more likely.
+    private static final ExecutorService decoder = Executors.newSingleThreadExecutor();
+
+    // Callbacks are always delivered on the main thread, so that the calling activity can directly
+    // touch its views from inside them.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The callback that will be used to hand the decoded image back to the caller. Both the methods
+     * are executed on the main thread, and neither is executed if the load is cancelled.
+     */
+    public interface Callback {
+        /**
+         * Executed once the image has been decoded.
+         *
+         * @param bitmap The decoded image.
+         */
+        void onLoaded(Bitmap bitmap);
+
+        /**
+         * Executed if the image could not be read or decoded.
+         *
+         * @param e The exception that caused the failure.
+         */
+        void onFailed(Exception e);
+    }
+
+    /**
+     * The class constructor.
+     *
+     * @param contentResolver The resolver that will be used to open the images.
+     */
+    public SampledBitmapLoader(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Decodes an image in the background. The method returns immediately.
+     *
+     * @param uri       The image that is to be decoded.
+     * @param minWidth  The width the decoded image should at least have, unless the image is smaller.
+     * @param minHeight The height the decoded image should at least have, unless the image is smaller.
+     * @param callback  The callback that will receive the decoded image on the main thread.
+     * @return A future that completes with the decoded image. Cancelling the future stops the decode
+     * (if it hasn't finished yet) and prevents the callback from being executed.
+     */
+    public Future<Bitmap> load(final Uri uri, final int minWidth, final int minHeight, final Callback callback) {
+        LoadTask task = new LoadTask(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                Tracer.beginSection("SampledBitmapLoader.decode");
+                try {
+                    return decode(uri, minWidth, minHeight);
+                } finally {
+                    Tracer.endSection();
+                }
+            }
+        }, callback);
+
+        decoder.execute(task);
+        return task;
+    }
+
+    /**
+     * Decodes an image on the calling thread. See `load()`.
+     *
+     * @param uri       The image that is to be decoded.
+     * @param minWidth  The width the decoded image should at least have, unless the image is smaller.
+     * @param minHeight The height the decoded image should at least have, unless the image is smaller.
+     * @return The decoded image.
+     * @throws IOException If the image could not be read or decoded.
+     */
+    Bitmap decode(Uri uri, int minWidth, int minHeight) throws IOException {
+        // First pass, reading just the size of the image. Nothing is allocated for the pixels.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Unable to read the size of " + uri);
+
+        // The decode below is the expensive part. No point starting it if nobody wants the result.
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException();
+
+        // Second pass, decoding the image with every n-th pixel in either direction.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, minWidth, minHeight);
+
+        Bitmap bitmap = decodeStream(uri, options);
+        if (bitmap == null)
+            throw new IOException("Unable to decode " + uri);
+
+        return bitmap;
+    }
+
+    /**
+     * Returns the largest power of two by which an image can be sub-sampled while still being at
+     * least as large as required in both the directions. The decoder rounds the sample size down
+     * to a power of two anyway, thus nothing else is considered.
+     *
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param minWidth  The width the decoded image should at least have.
+     * @param minHeight The height the decoded image should at least have.
+     * @return The value to be used as `BitmapFactory.Options.inSampleSize`.
+     */
+    static int calculateInSampleSize(int width, int height, int minWidth, int minHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream inputStream = contentResolver.openInputStream(uri);
+        if (inputStream == null)
+            throw new FileNotFoundException("Unable to open " + uri);
+
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * A single load. Doubles as the future that is handed back to the caller, and hands the outcome
+     * over to the callback once it's done.
+     */
+    private final class LoadTask extends FutureTask<Bitmap> {
+        private final Callback callback;
+
+        // Set by `cancel()`, even once the decode has finished (at which point the future itself
+        // can no longer be cancelled and `isCancelled()` stays false).
+        private volatile boolean cancelled = false;
+
+        LoadTask(Callable<Bitmap> callable, Callback callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Checked on the main thread, thus a load cancelled from the main thread never
+                    // reaches the callback, even if it had already finished in the background. The
+                    // image nobody is going to receive is handed straight to the pool.
+                    if (cancelled) {
+                        if (!isCancelled()) {
+                            try {
+                                BitmapPool.getInstance().put(get());
+                            } catch (ExecutionException | InterruptedException e) {
+                                // Nothing was decoded, thus there's nothing to release.
+                            }
+                        }
+
+                        return;
+                    }
+
+                    try {
+                        callback.onLoaded(get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        callback.onFailed((cause instanceof Exception) ? (Exception) cause : e);
+                    } catch (InterruptedException | CancellationException e) {
+                        // Can't happen, the task is done and wasn't cancelled.
+                        callback.onFailed(e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -26,8 +26,10 @@ import android.widget.RadioGroup;
 
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
+import com.tinyideas.wixby.core.Date;
+import com.tinyideas.wixby.core.DateFormatter;
+import com.tinyideas.wixby.core.RegistrationValidator;
 
-import java.util.ArrayList;
 import java.util.Objects;
 
 public class SignUp01 extends AppCompatActivity {
@@ -48,6 +50,7 @@ public class SignUp01 extends AppCompatActivity {
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Tracer.beginSection("SignUp01.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -61,7 +64,9 @@ public class SignUp01 extends AppCompatActivity {
         // Getting the view stub and inflating it with the required layout.
         ViewStub viewStub = findViewById(R.id.mainViewStub);
         viewStub.setLayoutResource(R.layout.card_view01);
+        Tracer.beginSection("SignUp01.inflateStub");
         viewStub.inflate();
+        Tracer.endSection();
 
         // Fetching components from the main screen and initialing the global variables from here.
         firstNameField = findViewById(R.id.activity01_firstName);
@@ -154,42 +159,40 @@ public class SignUp01 extends AppCompatActivity {
                     return;
                 }
 
-                // Getting the gender selected from the radio buttons. If each of the radio buttons
-                // is selected or not. If neither is selected a snack bar will be displayed.
+                // Getting the gender selected from the radio buttons. If neither is selected, the
+                // gender is left empty and the validation below complains about it.
                 if (((RadioButton) findViewById(R.id.activity01_radioMale)).isChecked()) {
                     genderSelected = "Male";
                 } else if (((RadioButton) findViewById(R.id.activity01_radioFemale)).isChecked()) {
                     genderSelected = "Female";
-                } else {
-                    Snackbar.make(findViewById(R.id.activity_main_layout), "Please select a gender", Snackbar.LENGTH_LONG).show();
-                    return;
                 }
 
-                // If any of these field is empty, then displaying a SnackBar asking the user to fill
-                // the remaining data.
-                if (firstName.length() == 0 || lastName.length() == 0 || password.length() == 0 ||
-                        dateOfBirth.length() == 0) {
-                    Snackbar.make(findViewById(R.id.activity_main_layout), "Please fill all the details", Snackbar.LENGTH_LONG).show();
-                    return;
+                // If the gender isn't selected or any of these field is empty, then displaying a
+                // SnackBar asking the user to fill the remaining data.
+                switch (RegistrationValidator.validatePersonalDetails(firstName, lastName, password,
+                        dateOfBirth, genderSelected)) {
+                    case MISSING_GENDER:
+                        Snackbar.make(findViewById(R.id.activity_main_layout), "Please select a gender", Snackbar.LENGTH_LONG).show();
+                        return;
+
+                    case MISSING_DETAILS:
+                        Snackbar.make(findViewById(R.id.activity_main_layout), "Please fill all the details", Snackbar.LENGTH_LONG).show();
+                        return;
                 }
 
                 // If the flow of control reaches this point, then all the required input has been
                 // collected from the user. Thus sending the user to the next activity.
                 Intent intent = new Intent(SignUp01.this, SignUp02.class);
 
-                // Creating an ArrayList that will contain all the data that was selected by the user till now.
-                ArrayList<String> data = new ArrayList<>();
-                data.add(firstName);
-                data.add(lastName);
-                data.add(password);
-                data.add(dateOfBirth);
-                data.add(genderSelected);
-
                 // Adding all the data selected by the user up to this point to this intent.
-                intent.putExtra(getResources().getString(R.string.intentTag), data);
+                RegistrationDraft draft = new RegistrationDraft(firstName, lastName, password, dateOfBirth,
+                        genderSelected);
+                intent.putExtra(getResources().getString(R.string.intentTag), draft);
                 startActivityForResult(intent, REQUEST_CODE);
             }
         });
+
+        Tracer.endSection();
     }
 
     /**
@@ -203,70 +206,8 @@ public class SignUp01 extends AppCompatActivity {
      *                     Will be used to read the stored information from and then write date.
      */
     void applyDate(Date selectedDate) {
-        // Creating a string that will be used to store the text that is to be written to the text field.
-        String date = "";
-
         // The date selected will be displayed in the form of: 14 September, 2019 (example).
-        date += selectedDate.getDate() + " ";
-
-        // Since the month selected is 0-indexed, the values will lie between [0, 11]
-        // Using switch-case to get the strings instead of importing another stupid library and
-        // increasing the load :)
-        switch (selectedDate.getMonthOfYear()) {
-            case 0:
-                date += "January, ";
-                break;
-
-            case 1:
-                date += "February, ";
-                break;
-
-            case 2:
-                date += "March, ";
-                break;
-
-            case 3:
-                date += "April, ";
-                break;
-
-            case 4:
-                date += "May, ";
-                break;
-
-            case 5:
-                date += "June, ";
-                break;
-
-            case 6:
-                date += "July, ";
-                break;
-
-            case 7:
-                date += "August, ";
-                break;
-
-            case 8:
-                date += "September, ";
-                break;
-
-            case 9:
-                date += "October, ";
-                break;
-
-            case 10:
-                date += "November, ";
-                break;
-
-            case 11:
-                date += "December, ";
-                break;
-        }
-
-        // Adding the year to the selected date string.
-        date += selectedDate.getYear();
-
-        // Now, using this finalized date string setting it as the main text of the edit text box.
-        dateOfBirthField.setText(date);
+        dateOfBirthField.setText(DateFormatter.format(selectedDate));
     }
 
     /**
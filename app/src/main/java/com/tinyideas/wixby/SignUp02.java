@@ -11,13 +11,11 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.view.View;
@@ -33,9 +31,13 @@ import android.widget.Spinner;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
+import com.tinyideas.wixby.core.CountryIndex;
+import com.tinyideas.wixby.core.RegistrationValidator;
+import com.tinyideas.wixby.core.UserRecord;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 
@@ -45,15 +47,16 @@ public class SignUp02 extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE = 15;
     private ImageView gpsIcon;
 
-    // Creating these strings here as they are to be accessed from inner classes for reading and writing.
-    // Thus, they either need to be global or final :(
-    private static String firstName = "";
-    private static String lastName = "";
-    private static String password = "";
-    private static String dateOfBirth = "";
-    private static String gender = "";
+    // The key under which the draft is kept in the saved instance state.
+    private static final String DRAFT_STATE_KEY = "registrationDraft";
 
-    private static Bitmap imageSelected;
+    // The details entered on the previous page, along with the image picked on this one. Belongs to
+    // this instance of the activity, thus nothing is left behind once it's gone.
+    private RegistrationDraft draft;
+
+    // The registration submitted from this page that hasn't finished yet, if any. Handed over to
+    // the activity recreated after a rotation, thus the user can't submit it a second time.
+    private PendingRegistration registration;
 
     private static final int SELECT_IMAGE_REQUEST_CODE = 48;
     private Spinner countrySpinner;
@@ -62,6 +65,7 @@ public class SignUp02 extends AppCompatActivity {
     @SuppressLint("SetTextI18n")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        Tracer.beginSection("SignUp02.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -72,23 +76,21 @@ public class SignUp02 extends AppCompatActivity {
         // Getting the view stub and inflating it with the required layout.
         ViewStub viewStub = findViewById(R.id.mainViewStub);
         viewStub.setLayoutResource(R.layout.card_view02);
+        Tracer.beginSection("SignUp02.inflateStub");
         viewStub.inflate();
+        Tracer.endSection();
 
         // Trying to get the data that should be sent to this activity from the previous activity.
         // If this data extraction process fails, the user will be informed of the same using a SnackBar
         // and then the app will be closed.
         try {
-            Bundle passedData = getIntent().getExtras();
-            ArrayList<String> resultArray = Objects.requireNonNull(passedData).getStringArrayList(getResources().getString(R.string.intentTag));
-
-            // Getting the results one by one from the list. They are to be retrieved in the order
-            // they were inserted in the list.
-            assert resultArray != null;
-            firstName = resultArray.get(0);
-            lastName = resultArray.get(1);
-            password = resultArray.get(2);
-            dateOfBirth = resultArray.get(3);
-            gender = resultArray.get(4);
+            // If the activity is being recreated, the draft saved earlier also has the image that
+            // was picked before. Otherwise, starting from the one handed over by the previous page.
+            if (savedInstanceState != null)
+                draft = savedInstanceState.getParcelable(DRAFT_STATE_KEY);
+            if (draft == null)
+                draft = Objects.requireNonNull(getIntent().<RegistrationDraft>getParcelableExtra(
+                        getResources().getString(R.string.intentTag)));
         } catch (Exception e) {
             viewStub.setClickable(false);
 
@@ -139,25 +141,24 @@ public class SignUp02 extends AppCompatActivity {
         // Changing the text of the submit button.
         submitButton.setText("Submit");
 
+        // Picking up the registration submitted before the activity was recreated, if it's still
+        // going. The submit button stays disabled till it's done, just as it was before.
+        registration = (PendingRegistration) getLastCustomNonConfigurationInstance();
+        if (registration != null) {
+            submitButton.setEnabled(false);
+            registration.attach(new RegistrationListener(submitButton));
+        }
+
         // Getting the GPS icon, when the user clicks this icon, the position of the device will be
         // taken using GPS and will be filled into the location text field.
         gpsIcon = findViewById(R.id.gpsIcon);
 
-        // Getting a list of all the country names and storing them in an ArrayList, this list will
-        // then be used to populate the country spinner.
-        String[] isoCountryCodes = Locale.getISOCountries();
-        final ArrayList<String> countries = new ArrayList<>();
-
-        for (String countryCode : isoCountryCodes) {
-            Locale locale = new Locale("", countryCode);
-            String countryName = locale.getDisplayName().trim();
-            if (!countries.contains(countryName))
-                countries.add(countryName);
-        }
-
-        // In order to sort the entries of the ArrayList in alphabetical order, using a custom
-        // comparator to do the same.
-        Collections.sort(countries, String.CASE_INSENSITIVE_ORDER);
+        // Getting a list of all the country names, in alphabetical order. This list will then be
+        // used to populate the country spinner. The list is built once for the whole process, in the
+        // background as soon as the app starts, see `WixbyApplication`.
+        Tracer.beginSection("SignUp02.countryList");
+        List<String> countries = CountryIndex.forLocale(Locale.getDefault()).getNames();
+        Tracer.endSection();
 
         // Once the array list containing all countries is prepared, using the same to populate the
         // spinner too. To do so, creating an ArrayAdapter that will populate data from this list and
@@ -189,7 +190,7 @@ public class SignUp02 extends AppCompatActivity {
 
                 // If `selection` is 'India', will display the state spinner as it is populated with
                 // just Indian states. If `selection` is something else, will display the state text view.
-                if (selection.equalsIgnoreCase("India")) {
+                if (RegistrationValidator.usesStateList(selection)) {
                     // Hiding the state text view
                     stateTextParentView.setVisibility(View.GONE);
 
@@ -301,58 +302,54 @@ public class SignUp02 extends AppCompatActivity {
                 String pin = Objects.requireNonNull(pinCode.getText()).toString().trim();
                 String country = countrySpinner.getSelectedItem().toString().trim();
 
-                // Creating a blank string for the state now. Will populate it later.
-                String state = "";
-
-                // Checking if any of these values are null. Not checking for `country` as one item
-                // from the spinner will always be selected.
-                if (location.length() == 0 || pin.length() == 0) {
-                    Snackbar.make(findViewById(R.id.activity_main_layout),
-                            "Please fill all the required details.", Snackbar.LENGTH_LONG).show();
-
-                    // Returning the flow of control from here.
-                    return;
-                }
-
                 // Just like how an element of the country spinner is always selected, similarly an
                 // element from the state spinner will always be selected. Thus, instead of directly
                 // taking its value as the result, first checking if the country selected is India.
-                if (country.equalsIgnoreCase("India")) {
+                String state;
+                if (RegistrationValidator.usesStateList(country)) {
                     // If the country is India, then the user will chose their state from the state
                     // spinner. Thus, getting the value from spinner.
                     state = stateSpinner.getSelectedItem().toString().trim();
                 } else {
                     // If the country selected by the user is not India, then they will have to enter
-                    // their state manually. Thus, taking data from the text edit and checking if this
-                    // is valid data or not.
+                    // their state manually. Thus, taking data from the text edit.
                     state = Objects.requireNonNull(stateTextView.getText()).toString().trim();
+                }
 
-                    // Creating a temporary variable just for fun :p
-                    String tempState = state.toLowerCase();
+                // Checking if any of these values are empty. Not checking for `country` as one item
+                // from the spinner will always be selected.
+                switch (RegistrationValidator.validateAddress(location, pin, state, country)) {
+                    case MISSING_DETAILS:
+                        Snackbar.make(findViewById(R.id.activity_main_layout),
+                                "Please fill all the required details.", Snackbar.LENGTH_LONG).show();
+
+                        // Returning the flow of control from here.
+                        return;
 
-                    // Checking if the user entered some data or not
-                    if (state.length() == 0) {
+                    case MISSING_STATE:
                         Snackbar.make(findViewById(R.id.activity_main_layout),
                                 "Please enter the state where you reside", Snackbar.LENGTH_LONG).show();
 
                         // Returning the flow of control
                         return;
-                    } else if (tempState.equals("solid") || tempState.equals("liquid") || tempState.equals("gas")) {
+
+                    case STATE_OF_MATTER:
                         Snackbar.make(findViewById(R.id.activity_main_layout),
                                 "Are you that eager to die\t\t-___-", Snackbar.LENGTH_LONG).show();
 
                         // Returning the flow of control.
                         return;
-                    } else if (tempState.equals("plasma") || tempState.equals("bec")) {
+
+                    case OBSCURE_STATE_OF_MATTER:
                         Snackbar.make(findViewById(R.id.activity_main_layout),
                                 "You sir, earn a pass for being literate ;)", Snackbar.LENGTH_LONG).show();
 
                         // Not returning the flow of control ;)
-                    }
+                        break;
                 }
 
                 // Checking if an image is supplied or not.
-                if (imageSelected == null) {
+                if (draft.getImageUri() == null) {
                     Snackbar.make(findViewById(R.id.activity_main_layout),
                             "Please select an image before proceeding", Snackbar.LENGTH_LONG).show();
 
@@ -371,23 +368,74 @@ public class SignUp02 extends AppCompatActivity {
                 }
 
                 // If the flow-of-control reaches this point, then the user has entered all the data
-                // in the required format. So, creating an instance of the database helper class to
-                // insert data into the database.
-                DatabaseHelper databaseHelper = new DatabaseHelper(SignUp02.this);
-                databaseHelper.registerUser(firstName, lastName, password, dateOfBirth, gender, location,
-                        pin, state, country, imageSelected);
-
-                // Once the data has been added, pausing the app for a couple of seconds and then
-                // launching the next activity.
-                Handler handler = new Handler();
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        startActivity(new Intent(SignUp02.this, DisplayData.class));
-                    }
-                }, 1000);
+                // in the required format. So, handing the user over to the registration queue which
+                // will write the data into the database in the background.
+                UserRecord record = draft.toRecord(location, pin, state, country);
+
+                // Disabling the submit button till the write is done, thus a double tap won't end up
+                // registering the same user twice.
+                submitButton.setEnabled(false);
+                registration = new PendingRegistration(SignUp02.this, record, draft.getImageUri(),
+                        new RegistrationListener(submitButton));
             }
         });
+
+        Tracer.endSection();
+    }
+
+    /**
+     * Receives the outcome of the registration submitted from this page. Only attached while this
+     * activity is alive, see `PendingRegistration`.
+     */
+    private final class RegistrationListener implements PendingRegistration.Listener {
+        private final Button submitButton;
+
+        RegistrationListener(Button submitButton) {
+            this.submitButton = submitButton;
+        }
+
+        @Override
+        public void onRegistered(long rowId, UserRecord record) {
+            registration = null;
+
+            // The draft has been submitted, there's no reason to keep pointing at the image any
+            // longer.
+            draft.setImageUri(null);
+            if (isFinishing() || isDestroyed())
+                return;
+
+            submitButton.setEnabled(true);
+
+            // The user has been committed, thus launching the next activity right away. The
+            // details are handed over along with it, so it doesn't have to read them back.
+            startActivity(DisplayData.newIntent(SignUp02.this, rowId, record));
+        }
+
+        @Override
+        public void onImageFailed(Exception e) {
+            // The input was unexpected. Forgetting the image, thus the user has to pick another one
+            // before they can proceed.
+            Log.e("SignUp02", "Unable to load the selected image", e);
+            registration = null;
+            draft.setImageUri(null);
+            if (isFinishing() || isDestroyed())
+                return;
+
+            submitButton.setEnabled(true);
+            Snackbar.make(findViewById(R.id.activity_main_layout),
+                    "Unable to read that image, please pick another one", Snackbar.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            registration = null;
+            if (isFinishing() || isDestroyed())
+                return;
+
+            submitButton.setEnabled(true);
+            Snackbar.make(findViewById(R.id.activity_main_layout),
+                    "Something went wrong. Please try again.", Snackbar.LENGTH_LONG).show();
+        }
     }
 
     /**
@@ -476,24 +524,50 @@ public class SignUp02 extends AppCompatActivity {
 
         // Checking if the activity that has returned the result is the one that is required or not.
         if (requestCode == SELECT_IMAGE_REQUEST_CODE && resultCode == RESULT_OK && data != null) {
-            // If any exception is caused in this block, then it means that the input was unexpected.
-            // Thus, catching the exception, and setting the image selected as null to prevent
-            // the user from being able to proceed.
-            try {
-                // Getting the Uri which will then be used to get the selected image.
-                Uri selectedImageUri = data.getData();
-
-                // Getting the selected image as a bitmap.
-                imageSelected = MediaStore.Images.Media.getBitmap(getContentResolver(), selectedImageUri);
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                imageSelected = null;
-            }
-            Log.d("DEBUG", "");
+            // Getting the Uri which will then be used to get the selected image.
+            Uri selectedImageUri = data.getData();
+            if (selectedImageUri == null)
+                return;
+
+            // Only remembering where the image is. It isn't decoded till the user submits the
+            // details, thus nothing is held in memory while they fill in the rest of the page.
+            draft.setImageUri(selectedImageUri);
         }
     }
 
+    /**
+     * Saves the draft, along with the image picked on this page, thus neither is lost if the
+     * activity is recreated (on rotation, for example).
+     *
+     * @param outState The bundle the state is to be saved into.
+     */
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (draft != null)
+            outState.putParcelable(DRAFT_STATE_KEY, draft);
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        // Kept for the activity recreated right after this one, which attaches to it in `onCreate()`.
+        return registration;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (registration == null)
+            return;
+
+        // Letting go of this activity, thus the registration never reaches a dead activity. Unless
+        // the activity is only being recreated, nobody is left to receive the outcome, thus there's
+        // no point in decoding the image (or writing the user, if it's still waiting).
+        registration.detach();
+        if (!isChangingConfigurations())
+            registration.cancel();
+    }
+
     public void countryImageButtonClicked(View view) {
         countrySpinner.performClick();
     }
@@ -0,0 +1,205 @@
+package com.tinyideas.wixby;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Named sections around the parts of the app that the user waits on (creating the screens,
+ * inflating their layouts, building the list of countries, opening the database, decoding images).
+ * <p>
+ * Every section is sent to the system tracer (`android.os.Trace`), thus it shows up in Perfetto or
+ * systrace, and is also kept in an in-memory timeline of the process. The timeline starts when the
+ * process does, which makes the cold start and the time taken to go from one screen to the next
+ * readable straight from it. It can be printed to logcat, written to a file, or read through
+ * `adb shell dumpsys activity top` while `DisplayData` is showing.
+ * <p>
+ * Used like `android.os.Trace`, i.e. `beginSection()` followed by `endSection()` on the same
+ * thread, usually in a `finally`. Sections can be nested. Recording a section doesn't allocate, the
+ * timeline is a fixed number of slots which are reused once they run out.
+ */
+public final class Tracer {
+
+    // The tag that logcat output is written under. The timeline is only printed to logcat if the tag
+    // is loggable, i.e. after `adb shell setprop log.tag.WixbyTrace DEBUG`.
+    static final String TAG = "WixbyTrace";
+
+    // The number of sections kept in the timeline, the oldest ones are overwritten after this.
+    static final int MAX_EVENTS = 512;
+
+    // Sections nested deeper than this are still sent to the system tracer, but not kept.
+    private static final int MAX_DEPTH = 16;
+
+    // Everything in the timeline is relative to the moment the class was loaded, which happens
+    // while the application is created.
+    private static final long originNanos = SystemClock.elapsedRealtimeNanos();
+
+    // The timeline itself, one slot per section. Guarded by the class.
+    private static final String[] names = new String[MAX_EVENTS];
+    private static final String[] threads = new String[MAX_EVENTS];
+    private static final long[] starts = new long[MAX_EVENTS];
+    private static final long[] durations = new long[MAX_EVENTS];
+    private static final int[] depths = new int[MAX_EVENTS];
+    private static long recorded = 0;
+
+    // The sections that are open on every thread.
+    private static final ThreadLocal<OpenSections> openSections = new ThreadLocal<OpenSections>() {
+        @Override
+        protected OpenSections initialValue() {
+            return new OpenSections();
+        }
+    };
+
+    private Tracer() {
+    }
+
+    /**
+     * Starts a section. Has to be followed by `endSection()` on the same thread.
+     *
+     * @param name The name of the section, for example "SignUp02.onCreate". Should be a constant,
+     *             as the system tracer limits the name to 127 characters.
+     */
+    public static void beginSection(String name) {
+        Trace.beginSection(name);
+
+        OpenSections open = openSections.get();
+        if (open.depth < MAX_DEPTH) {
+            open.names[open.depth] = name;
+            open.starts[open.depth] = SystemClock.elapsedRealtimeNanos();
+        }
+
+        open.depth++;
+    }
+
+    /**
+     * Ends the section that was started last on this thread, and adds it to the timeline.
+     */
+    public static void endSection() {
+        Trace.endSection();
+
+        OpenSections open = openSections.get();
+        if (open.depth == 0)
+            return;
+
+        open.depth--;
+        if (open.depth < MAX_DEPTH) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            record(open.names[open.depth], open.starts[open.depth], now - open.starts[open.depth], open.depth);
+            open.names[open.depth] = null;
+        }
+    }
+
+    private static synchronized void record(String name, long start, long duration, int depth) {
+        int slot = (int) (recorded % MAX_EVENTS);
+        names[slot] = name;
+        threads[slot] = Thread.currentThread().getName();
+        starts[slot] = start - originNanos;
+        durations[slot] = duration;
+        depths[slot] = depth;
+        recorded++;
+    }
+
+    /**
+     * Prints the timeline, one section per line in the order they started, with the time they
+     * started at (since the process started) and how long they took. Nested sections are indented.
+     *
+     * @param writer The writer the timeline is to be printed to.
+     */
+    public static void dump(PrintWriter writer) {
+        final long[] eventStarts;
+        String[] eventNames;
+        String[] eventThreads;
+        long[] eventDurations;
+        int[] eventDepths;
+        long total;
+
+        // Copying the timeline out first, thus the sections ending in the meantime don't wait on
+        // the printing.
+        synchronized (Tracer.class) {
+            total = recorded;
+            int count = (int) Math.min(recorded, MAX_EVENTS);
+            eventStarts = Arrays.copyOf(starts, count);
+            eventNames = Arrays.copyOf(names, count);
+            eventThreads = Arrays.copyOf(threads, count);
+            eventDurations = Arrays.copyOf(durations, count);
+            eventDepths = Arrays.copyOf(depths, count);
+        }
+
+        // The sections are recorded as they end, thus the outer ones come after the ones inside them.
+        Integer[] order = new Integer[eventStarts.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int byStart = Long.compare(eventStarts[first], eventStarts[second]);
+                return (byStart != 0) ? byStart : first.compareTo(second);
+            }
+        });
+
+        writer.printf("Timeline of %d sections", order.length);
+        if (total > order.length)
+            writer.printf(" (%d older ones dropped)", total - order.length);
+        writer.println();
+
+        for (int i : order) {
+            StringBuilder indent = new StringBuilder();
+            for (int depth = 0; depth < eventDepths[i]; depth++)
+                indent.append("  ");
+
+            writer.printf("%10.1f ms  %8.1f ms  %-20s %s%s%n", eventStarts[i] / 1e6, eventDurations[i] / 1e6,
+                    eventThreads[i], indent, eventNames[i]);
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Prints the timeline to logcat, if logging has been enabled for `TAG`.
+     */
+    public static void dumpToLog() {
+        if (!Log.isLoggable(TAG, Log.DEBUG))
+            return;
+
+        StringWriter timeline = new StringWriter();
+        dump(new PrintWriter(timeline));
+
+        // A single log line is cut off after about 4 KB, thus logging line by line.
+        for (String line : timeline.toString().split("\n"))
+            Log.d(TAG, line);
+    }
+
+    /**
+     * Writes the timeline into a file, replacing whatever the file held.
+     *
+     * @param file The file the timeline is to be written to.
+     * @throws IOException If the file couldn't be written.
+     */
+    public static void writeTo(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+            if (writer.checkError())
+                throw new IOException("Unable to write " + file);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The sections that are open on a single thread, innermost last.
+     */
+    private static final class OpenSections {
+        final String[] names = new String[MAX_DEPTH];
+        final long[] starts = new long[MAX_DEPTH];
+        int depth = 0;
+    }
+}
@@ -0,0 +1,226 @@
+package com.tinyideas.wixby;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A screen listing every user that has registered, newest first. The users are read from the
+ * database a page at a time as the list is scrolled, thus the screen opens just as quickly with a
+ * hundred thousand users as it does with ten.
+ */
+public class UserDirectory extends AppCompatActivity {
+
+    private UserDirectoryAdapter adapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_user_directory);
+
+        // Attaching the adapter to the list. The adapter takes care of fetching the pages as and
+        // when they're scrolled into view.
+        adapter = new UserDirectoryAdapter(DatabaseHelper.getInstance(this));
+
+        RecyclerView recyclerView = findViewById(R.id.userDirectoryList);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setAdapter(adapter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Stopping the background thread, any page still being loaded is simply dropped.
+        adapter.shutdown();
+    }
+}
+
+/**
+ * Adapter for the user directory. Users are loaded from the database in pages using
+ * `DatabaseHelper.getUsersPage()`. Only a handful of pages are kept in memory at any moment, the
+ * least recently used page is dropped once the limit is crossed and is read again if the user
+ * scrolls back to it. Thus the memory used by the list stays the same no matter how far it's scrolled.
+ */
+class UserDirectoryAdapter extends RecyclerView.Adapter<UserDirectoryAdapter.ViewHolder> {
+
+    static final int PAGE_SIZE = 50;
+    static final int MAX_PAGES_IN_MEMORY = 5;
+
+    private final DatabaseHelper databaseHelper;
+
+    // Pages are read on a single background thread, and the results are handed back to the main
+    // thread. All the fields below are only ever touched from the main thread.
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The pages currently held in memory, in the order they were last used. The eldest entry is
+    // dropped once there are more than `MAX_PAGES_IN_MEMORY` pages.
+    private final Map<Integer, List<UserSummary>> pages =
+            new LinkedHashMap<Integer, List<UserSummary>>(MAX_PAGES_IN_MEMORY + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<UserSummary>> eldest) {
+                    return size() > MAX_PAGES_IN_MEMORY;
+                }
+            };
+
+    private final Set<Integer> pagesLoading = new HashSet<>();
+
+    // `pageKeys[n]` holds the key with which page `n` starts, i.e. the `AutoIndex` of the last user
+    // on page `n - 1`. A single long per page is cheap enough to keep for the entire list, and
+    // it allows any page that was dropped from memory to be read again with a keyset query.
+    private long[] pageKeys = new long[16];
+    private int knownPages = 1;
+
+    private int itemCount = 0;
+    private boolean reachedEnd = false;
+    private boolean shutdown = false;
+
+    UserDirectoryAdapter(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+
+        // The first page starts before every possible key.
+        pageKeys[0] = Long.MAX_VALUE;
+        loadPage(0);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.user_directory_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        int pageNumber = position / PAGE_SIZE;
+        List<UserSummary> page = pages.get(pageNumber);
+
+        if (page == null) {
+            // The page was dropped from memory earlier. Showing an empty row till it's read again.
+            holder.bindPlaceholder();
+            loadPage(pageNumber);
+        } else {
+            holder.bind(page.get(position % PAGE_SIZE));
+        }
+
+        // Reading the next page in advance once the list is halfway through the last known page.
+        if (!reachedEnd && position >= itemCount - PAGE_SIZE / 2)
+            loadPage(knownPages - 1);
+    }
+
+    @Override
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Stops the background thread. Pages that finish loading after this are ignored.
+     */
+    void shutdown() {
+        shutdown = true;
+        loader.shutdownNow();
+    }
+
+    /**
+     * Reads a page from the database in the background, unless it's already in memory or being read.
+     *
+     * @param pageNumber The number of the page that is to be read.
+     */
+    private void loadPage(final int pageNumber) {
+        if (shutdown || pages.containsKey(pageNumber) || !pagesLoading.add(pageNumber))
+            return;
+
+        final long startKey = pageKeys[pageNumber];
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<UserSummary> users = databaseHelper.getUsersPage(startKey, PAGE_SIZE);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(pageNumber, users);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Executed on the main thread once a page has been read from the database.
+     */
+    private void onPageLoaded(int pageNumber, List<UserSummary> users) {
+        pagesLoading.remove(pageNumber);
+        if (shutdown)
+            return;
+
+        pages.put(pageNumber, users);
+
+        // A page that was read again after being dropped only needs its rows to be redrawn.
+        if (pageNumber < knownPages - 1 || (pageNumber == knownPages - 1 && itemCount > pageNumber * PAGE_SIZE)) {
+            notifyItemRangeChanged(pageNumber * PAGE_SIZE, users.size());
+            return;
+        }
+
+        // Otherwise, this is a page that was never seen before. Growing the list by its size, and
+        // noting down the key for the next page if there is one.
+        int previousCount = itemCount;
+        itemCount = pageNumber * PAGE_SIZE + users.size();
+
+        if (users.size() < PAGE_SIZE) {
+            reachedEnd = true;
+        } else {
+            if (knownPages == pageKeys.length)
+                pageKeys = Arrays.copyOf(pageKeys, pageKeys.length * 2);
+
+            pageKeys[knownPages++] = users.get(users.size() - 1).getUserIndex();
+        }
+
+        notifyItemRangeInserted(previousCount, itemCount - previousCount);
+    }
+
+    /**
+     * Holds the views for a single row of the list.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView name;
+        private final TextView details;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            name = itemView.findViewById(R.id.userDirectoryName);
+            details = itemView.findViewById(R.id.userDirectoryDetails);
+        }
+
+        void bind(UserSummary user) {
+            name.setText(String.format("#%s  %s %s", user.getUserIndex(), user.getFirstName(), user.getLastName()));
+            details.setText(String.format("%s, %s, %s", user.getLocation(), user.getState(), user.getCountry()));
+        }
+
+        void bindPlaceholder() {
+            name.setText("");
+            details.setText("");
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.tinyideas.wixby;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the images of the users around once they have been decoded, thus showing the same user
+ * again (or scrolling back to them in a list) needs neither the database nor the decoder.
+ * <p>
+ * The cache has two tiers, both keyed by the `AutoIndex` of the user. The first is an LRU of the
+ * decoded bitmaps, bounded by the number of bytes the bitmaps take up in memory. The second is a
+ * directory of small thumbnails on the disk, bounded by the total size of the files, in which the
+ * least recently used thumbnails are removed first. A thumbnail is much smaller than the original
+ * image and decodes much faster, and it survives the process being killed.
+ * <p>
+ * `DatabaseHelper` owns the cache. Users are never changed once written and keys are never reused,
+ * thus an entry stays valid for as long as the database it was read from exists.
+ */
+public class UserImageCache {
+
+    private static final String TAG = "UserImageCache";
+
+    // The largest width or height of a thumbnail, in pixels.
+    static final int THUMBNAIL_SIZE = 384;
+
+    private static final Bitmap.CompressFormat THUMBNAIL_FORMAT = Bitmap.CompressFormat.WEBP;
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final String THUMBNAIL_SUFFIX = ".webp";
+
+    private final DatabaseHelper databaseHelper;
+    private final File directory;
+    private final int thumbnailSize;
+
+    private final LruCache<Long, Bitmap> memoryCache;
+
+    // The size of the thumbnails on the disk. Only worked out (by listing the directory) the first
+    // time a thumbnail is written, as most launches never write one. Guarded by `diskLock`.
+    private final Object diskLock = new Object();
+    private final long maxDiskBytes;
+    private long diskBytes = -1;
+
+    /**
+     * The class constructor.
+     *
+     * @param databaseHelper The helper that will be used to read the images that aren't cached.
+     * @param directory      The directory in which the thumbnails are to be kept.
+     * @param maxMemoryBytes The largest number of bytes the decoded bitmaps may take up in memory.
+     * @param maxDiskBytes   The largest number of bytes the thumbnails may take up on the disk.
+     * @param thumbnailSize  The largest width or height of an image held by the cache, in pixels.
+     */
+    UserImageCache(DatabaseHelper databaseHelper, File directory, int maxMemoryBytes, long maxDiskBytes,
+                   int thumbnailSize) {
+        this.databaseHelper = databaseHelper;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.thumbnailSize = thumbnailSize;
+
+        memoryCache = new LruCache<Long, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(Long userIndex, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the image of a user if it's held in memory. Never touches the disk, thus it's safe to
+     * call from the main thread.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is wanted.
+     * @return The image of the user, or null if it isn't held in memory.
+     */
+    @Nullable
+    public Bitmap getIfCached(long userIndex) {
+        return memoryCache.get(userIndex);
+    }
+
+    /**
+     * Returns the image of a user, trying the memory first, then the thumbnails on the disk, and
+     * finally reading and decoding the image that was registered. The image is cached in both the
+     * tiers on the way back. May touch the disk, thus it should be called off the main thread.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image is wanted.
+     * @return The image of the user (at most `thumbnailSize` wide or high), or null if the user
+     * has no image.
+     */
+    @Nullable
+    public Bitmap get(long userIndex) {
+        Bitmap bitmap = memoryCache.get(userIndex);
+        if (bitmap != null)
+            return bitmap;
+
+        File thumbnail = thumbnailFile(userIndex);
+        bitmap = decodeThumbnail(thumbnail);
+        if (bitmap != null) {
+            // Marking the thumbnail as recently used, thus it's the last one to be removed.
+            thumbnail.setLastModified(System.currentTimeMillis());
+        } else {
+            bitmap = decodeRegisteredImage(userIndex);
+            if (bitmap == null)
+                return null;
+
+            writeThumbnail(thumbnail, bitmap);
+        }
+
+        memoryCache.put(userIndex, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Drops the image of a user from both the tiers, for when the image of an existing user has
+     * been changed.
+     *
+     * @param userIndex The `AutoIndex` of the user whose image has changed.
+     */
+    public void invalidate(long userIndex) {
+        memoryCache.remove(userIndex);
+
+        File thumbnail = thumbnailFile(userIndex);
+        synchronized (diskLock) {
+            long length = thumbnail.length();
+            if (thumbnail.delete() && diskBytes >= 0)
+                diskBytes -= length;
+        }
+    }
+
+    /**
+     * Drops every image from both the tiers. Executed by `DatabaseHelper` when the database is
+     * created, thus the cache never holds an image from a database that has been removed.
+     */
+    public void clear() {
+        memoryCache.evictAll();
+
+        synchronized (diskLock) {
+            File[] thumbnails = directory.listFiles();
+            if (thumbnails != null) {
+                for (File thumbnail : thumbnails)
+                    thumbnail.delete();
+            }
+
+            diskBytes = -1;
+        }
+    }
+
+    /**
+     * Drops the decoded bitmaps held in memory, leaving the thumbnails on the disk alone. Executed by
+     * `WixbyApplication` when the system is running low on memory.
+     */
+    public void trimMemory() {
+        memoryCache.evictAll();
+    }
+
+    /**
+     * Reads the image of a user from the `ImageStore` and decodes it at (roughly) the size of a
+     * thumbnail. The smallest rendition that is large enough is used, and it's read twice, the first
+     * time just for its size.
+     */
+    @Nullable
+    private Bitmap decodeRegisteredImage(long userIndex) {
+        InputStream imageStream = databaseHelper.openUserImage(userIndex, thumbnailSize, thumbnailSize);
+        if (imageStream == null)
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        ImageHandler.decode(imageStream, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        imageStream = databaseHelper.openUserImage(userIndex, thumbnailSize, thumbnailSize);
+        if (imageStream == null)
+            return null;
+
+        // Decoded into a pooled bitmap, as in most cases it's only needed till it has been scaled.
+        options.inSampleSize = SampledBitmapLoader.calculateInSampleSize(options.outWidth, options.outHeight,
+                thumbnailSize, thumbnailSize);
+        ImageHandler.prepareDecode(options, DecodePolicy.DEFAULT);
+
+        Bitmap bitmap = ImageHandler.decode(imageStream, options);
+        if (bitmap == null) {
+            ImageHandler.releaseReusedBitmap(options);
+            return null;
+        }
+
+        // The sample size only gets the image close to the size of a thumbnail, the rest of the way
+        // is covered by scaling it.
+        float scale = Math.min((float) thumbnailSize / bitmap.getWidth(), (float) thumbnailSize / bitmap.getHeight());
+        if (scale >= 1)
+            return bitmap;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap)
+            BitmapPool.getInstance().put(bitmap);
+
+        return scaled;
+    }
+
+    /**
+     * Decodes a thumbnail from the disk. Thumbnails are only ever drawn, thus they are decoded as
+     * hardware bitmaps where the device supports them.
+     *
+     * @return The thumbnail, or null if there's no thumbnail for the user.
+     */
+    @Nullable
+    private static Bitmap decodeThumbnail(final File thumbnail) {
+        return ImageHandler.getImage(new ImageHandler.ImageSource() {
+            @Override
+            public InputStream open() {
+                try {
+                    return new FileInputStream(thumbnail);
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+            }
+        }, DecodePolicy.DISPLAY);
+    }
+
+    /**
+     * Writes a thumbnail to the disk, and removes the least recently used thumbnails if the cache
+     * has grown beyond its limit. A failure is only logged, the cache simply misses next time.
+     */
+    private void writeThumbnail(File thumbnail, Bitmap bitmap) {
+        synchronized (diskLock) {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                return;
+
+            if (diskBytes < 0)
+                diskBytes = directorySize();
+
+            // Written under a temporary name first, thus a thumbnail is never read half written.
+            File temporary = new File(directory, thumbnail.getName() + ".tmp");
+            try {
+                FileOutputStream outputStream = new FileOutputStream(temporary);
+                try {
+                    bitmap.compress(THUMBNAIL_FORMAT, THUMBNAIL_QUALITY, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+
+                long previousLength = thumbnail.length();
+                if (!temporary.renameTo(thumbnail))
+                    throw new IOException("Unable to move the thumbnail to " + thumbnail);
+
+                diskBytes += thumbnail.length() - previousLength;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to write a thumbnail", e);
+                temporary.delete();
+                return;
+            }
+
+            if (diskBytes > maxDiskBytes)
+                trimDisk();
+        }
+    }
+
+    /**
+     * Removes the least recently used thumbnails till the cache is down to three quarters of its
+     * limit. Going below the limit means the next few writes won't have to list the directory again.
+     */
+    private void trimDisk() {
+        File[] thumbnails = directory.listFiles();
+        if (thumbnails == null)
+            return;
+
+        Arrays.sort(thumbnails, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+
+        for (File thumbnail : thumbnails) {
+            if (diskBytes <= maxDiskBytes * 3 / 4)
+                break;
+
+            long length = thumbnail.length();
+            if (thumbnail.delete())
+                diskBytes -= length;
+        }
+    }
+
+    private long directorySize() {
+        long size = 0;
+        File[] thumbnails = directory.listFiles();
+        if (thumbnails != null) {
+            for (File thumbnail : thumbnails)
+                size += thumbnail.length();
+        }
+
+        return size;
+    }
+
+    private File thumbnailFile(long userIndex) {
+        return new File(directory, userIndex + THUMBNAIL_SUFFIX);
+    }
+}
@@ -0,0 +1,59 @@
+package com.tinyideas.wixby;
+
+/**
+ * A lightweight version of `Data`, containing just enough about a user to show them in a list. Since
+ * a list can contain a lot of users, this class intentionally leaves out the image and the rest of
+ * the details, thus reading a page of these never touches the image table.
+ */
+public class UserSummary {
+    private final long userIndex;
+    private final String firstName;
+    private final String lastName;
+    private final String location;
+    private final String state;
+    private final String country;
+
+    /**
+     * The class constructor. Will be used as the only setter in the entire class.
+     *
+     * @param userIndex The `AutoIndex` of the user.
+     * @param firstName The first name of the user.
+     * @param lastName  The last name of the user.
+     * @param location  The location for the user.
+     * @param state     The state in which the user resides.
+     * @param country   The country of residence for the user.
+     */
+    public UserSummary(long userIndex, String firstName, String lastName, String location, String state,
+                       String country) {
+        this.userIndex = userIndex;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.location = location;
+        this.state = state;
+        this.country = country;
+    }
+
+    public long getUserIndex() {
+        return userIndex;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+}
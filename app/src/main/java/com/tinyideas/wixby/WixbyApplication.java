@@ -0,0 +1,91 @@
+package com.tinyideas.wixby;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import com.tinyideas.wixby.core.CountryIndex;
+
+import java.util.Locale;
+
+/**
+ * Prepares the things the screens would otherwise have to build on the main thread, as soon as the
+ * process starts and while the user is still on the first sign up page.
+ */
+public class WixbyApplication extends Application {
+
+    // The language the index of the countries was last built for.
+    private Locale countryIndexLocale;
+
+    @Override
+    public void onCreate() {
+        Tracer.beginSection("WixbyApplication.onCreate");
+        super.onCreate();
+        warmUpCountryIndex();
+        Tracer.endSection();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+
+        // Most of the configuration changes (rotation, for example) leave the names of the
+        // countries as they are. Only a change in the language makes the index useless.
+        if (!Locale.getDefault().equals(countryIndexLocale)) {
+            CountryIndex.clearCache();
+            warmUpCountryIndex();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // The decoded images can always be decoded again, thus they are the first thing to let go
+        // of once the system starts running low. The thumbnails on the disk are left alone.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            releaseImages();
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        releaseImages();
+    }
+
+    /**
+     * Empties the `BitmapPool` and the images of the users held in memory by `UserImageCache`.
+     */
+    private void releaseImages() {
+        BitmapPool.getInstance().clear();
+        DatabaseHelper.getInstance(this).getImageCache().trimMemory();
+    }
+
+    /**
+     * Builds the index of the countries for the current language on a background thread. If the
+     * second sign up page asks for it before it's ready, it waits for this build to finish instead
+     * of starting another.
+     */
+    private void warmUpCountryIndex() {
+        final Locale locale = Locale.getDefault();
+        countryIndexLocale = locale;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                Tracer.beginSection("CountryIndex.warmUp");
+                try {
+                    CountryIndex.forLocale(locale);
+                } finally {
+                    Tracer.endSection();
+                }
+            }
+        }, "CountryIndexWarmUp");
+        thread.start();
+    }
+}
@@ -0,0 +1,355 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.tinyideas.wixby.core.Histogram;
+import com.tinyideas.wixby.core.PasswordHasher;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives `DatabaseHelper` end to end on the JVM, registering a few hundred synthetic users with
+ * images, and compares the throughput, the size of the database and the image store, the latency of
+ * `getLastRegisteredUser()` and the peak heap against the baselines in
+ * `performance-baselines.properties`. A change to the schema or to the image encoding that makes
+ * any of them worse than the tolerance allows fails the build.
+ * <p>
+ * Runs on Robolectric with the native graphics, thus the images are encoded by the real codecs.
+ * Wall-clock numbers depend on the machine, thus the suite is skipped unless asked for with
+ * -Dwixby.perf=true (or -Dwixby.perf.record=true). The number of users can be changed with
+ * -Dwixby.perf.users, see the baselines file for the rest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class DatabasePerformanceTest {
+
+    private static final String DATABASE_NAME = "performance-test.db";
+    private static final String BASELINES = "/performance-baselines.properties";
+
+    // Written when recording, thus the baselines can be updated from the numbers of the last run.
+    private static final String RESULTS_FILE = "build/performance/results.properties";
+
+    private static final int DEFAULT_USER_COUNT = 200;
+
+    // Smaller than a camera photo to keep the suite quick, but still far larger than the profile
+    // encoding, thus every image goes through the scaling as well.
+    private static final int PHOTO_WIDTH = 1600;
+    private static final int PHOTO_HEIGHT = 1200;
+
+    private static final int LATENCY_RUNS = 200;
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Skipped, run with -Dwixby.perf=true",
+                Boolean.getBoolean("wixby.perf") || Boolean.getBoolean("wixby.perf.record"));
+
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHelper = new DatabaseHelper(context, DATABASE_NAME);
+
+        // Hashing the passwords at the calibrated cost would take up most of the time measured here,
+        // it's measured by `PasswordHasherBenchmark` instead.
+        databaseHelper.setPasswordHasher(new PasswordHasher(1));
+    }
+
+    @After
+    public void tearDown() {
+        if (databaseHelper == null)
+            return;
+
+        databaseHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void registrationStaysWithinBaselines() throws IOException {
+        int userCount = Integer.getInteger("wixby.perf.users", DEFAULT_USER_COUNT);
+        PerformanceBaseline baseline = PerformanceBaseline.load(BASELINES);
+
+        // The photos are drawn up front, thus drawing them isn't counted as part of the inserts.
+        // Every photo is drawn from a seed of its own, otherwise the store would only keep one.
+        Bitmap[] photos = new Bitmap[Math.min(userCount, 16)];
+        for (int i = 0; i < photos.length; i++)
+            photos[i] = syntheticPhoto(PHOTO_WIDTH, PHOTO_HEIGHT, i);
+
+        HeapSampler heapSampler = new HeapSampler();
+        heapSampler.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < userCount; i++) {
+            // Photos are reused once all of them have been used, the store is then expected to
+            // keep a single copy of each.
+            long result = databaseHelper.registerUser("First" + i, "Last" + i, "password" + i, "Place " + i,
+                    "State " + (i % 30), "Country " + (i % 200), String.valueOf(100000 + i),
+                    "1 January, 1990", (i % 2 == 0) ? "Male" : "Female", photos[i % photos.length]);
+            assertTrue("Unable to register user " + i, result > 0);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long peakHeap = heapSampler.stopSampling();
+        for (Bitmap photo : photos)
+            photo.recycle();
+
+        baseline.atLeast("insertUsersPerSecond", userCount * 1e9 / elapsed);
+
+        // The same registrations as seen by `DbMetrics`, which is what's reported from the field.
+        Histogram registerLatency = databaseHelper.getMetrics().getLatencyMicros(DbMetrics.Operation.REGISTER_USER);
+        assertEquals(userCount, registerLatency.getCount());
+        baseline.atMost("registerUserP99Millis", registerLatency.getPercentile(99) / 1e3);
+
+        File databaseFile = context.getDatabasePath(DATABASE_NAME);
+        long databaseBytes = databaseFile.length() + new File(databaseFile.getPath() + "-wal").length();
+        baseline.atMost("databaseBytesPerUser", (double) databaseBytes / userCount);
+
+        // Only the distinct photos (and their renditions) end up in the store.
+        long imageStoreBytes = directorySize(new File(context.getFilesDir(), DATABASE_NAME + "-images"));
+        baseline.atMost("imageStoreBytesPerPhoto", (double) imageStoreBytes / photos.length);
+
+        baseline.atMost("lastUserLatencyMicros", lastUserLatencyMicros(userCount));
+        baseline.atMost("peakHeapBytes", peakHeap);
+
+        databaseHelper.getMetrics().dump(new PrintWriter(System.out));
+        baseline.finish(new File(RESULTS_FILE));
+    }
+
+    /**
+     * Returns the median time taken by `getLastRegisteredUser()`, in microseconds. The median keeps
+     * a stray pause (garbage collection, for example) from failing the suite.
+     */
+    private double lastUserLatencyMicros(int userCount) {
+        // Warming up the statement and the page cache first.
+        for (int i = 0; i < LATENCY_RUNS / 10; i++)
+            databaseHelper.getLastRegisteredUser();
+
+        long[] runs = new long[LATENCY_RUNS];
+        for (int i = 0; i < runs.length; i++) {
+            long start = System.nanoTime();
+            Data user = databaseHelper.getLastRegisteredUser();
+            runs[i] = System.nanoTime() - start;
+
+            assertEquals(userCount, user.getUserIndex());
+        }
+
+        Arrays.sort(runs);
+        return runs[runs.length / 2] / 1e3;
+    }
+
+    private static long directorySize(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files == null)
+            return 0;
+
+        for (File file : files)
+            size += file.isDirectory() ? directorySize(file) : file.length();
+
+        return size;
+    }
+
+    /**
+     * Draws something that compresses roughly the way a photo does: smooth gradients with a bit of
+     * noise on top. See `ImageEncodingBenchmark`.
+     */
+    private static Bitmap syntheticPhoto(int width, int height, long seed) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Random random = new Random(seed);
+        int[] row = new int[width];
+        int shift = random.nextInt(256);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + shift + random.nextInt(24)) & 0xff;
+                int green = (y * 255 / height + random.nextInt(24)) & 0xff;
+                int blue = ((x + y) * 255 / (width + height) + random.nextInt(24)) & 0xff;
+                row[x] = 0xff000000 | (red << 16) | (green << 8) | blue;
+            }
+
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Polls the used heap on a thread of its own while the users are being registered, and keeps
+     * the largest growth seen over the heap in use before the start.
+     */
+    private static final class HeapSampler extends Thread {
+        private static final long INTERVAL_MILLIS = 2;
+
+        private final long initialHeap;
+        private volatile boolean running = true;
+        private volatile long peak = 0;
+
+        HeapSampler() {
+            super("HeapSampler");
+            System.gc();
+            initialHeap = usedHeap();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, usedHeap() - initialHeap);
+                try {
+                    Thread.sleep(INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long stopSampling() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return Math.max(peak, usedHeap() - initialHeap);
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
+
+/**
+ * The baselines the performance suite is compared against, along with the tolerance for each. Every
+ * metric is checked (and reported) before anything fails, thus a single run shows all the metrics
+ * that regressed.
+ */
+class PerformanceBaseline {
+    private final Properties baselines;
+    private final Properties results = new Properties();
+    private final List<String> failures = new ArrayList<>();
+
+    // With -Dwixby.perf.record=true, the results are written out and nothing fails.
+    private final boolean recording = Boolean.getBoolean("wixby.perf.record");
+
+    private PerformanceBaseline(Properties baselines) {
+        this.baselines = baselines;
+    }
+
+    /**
+     * Loads the baselines from a resource on the class path.
+     */
+    static PerformanceBaseline load(String resource) throws IOException {
+        Properties baselines = new Properties();
+        InputStream inputStream = PerformanceBaseline.class.getResourceAsStream(resource);
+        if (inputStream == null)
+            throw new IOException("Missing " + resource);
+
+        try {
+            baselines.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        return new PerformanceBaseline(baselines);
+    }
+
+    /**
+     * Checks a metric for which a larger value is better, for example throughput.
+     */
+    void atLeast(String name, double actual) {
+        double limit = baseline(name) * (1 - tolerance(name));
+        check(name, actual, actual >= limit, ">=", limit);
+    }
+
+    /**
+     * Checks a metric for which a smaller value is better, for example latency or size.
+     */
+    void atMost(String name, double actual) {
+        double limit = baseline(name) * (1 + tolerance(name));
+        check(name, actual, actual <= limit, "<=", limit);
+    }
+
+    /**
+     * Writes the results out, and fails with every metric that regressed.
+     *
+     * @param resultsFile The file the results are written to.
+     */
+    void finish(File resultsFile) throws IOException {
+        File parent = resultsFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Unable to create " + parent);
+
+        OutputStream outputStream = new FileOutputStream(resultsFile);
+        try {
+            results.store(outputStream, "Results of DatabasePerformanceTest");
+        } finally {
+            outputStream.close();
+        }
+
+        if (!recording && !failures.isEmpty())
+            throw new AssertionError("Performance regressed:\n" + join(failures));
+    }
+
+    private void check(String name, double actual, boolean passed, String operator, double limit) {
+        results.setProperty(name, String.format("%.0f", actual));
+
+        String line = String.format("%s = %.1f (expected %s %.1f, baseline %s)", name, actual, operator, limit,
+                baselines.getProperty(name));
+        System.out.println("DatabasePerformanceTest: " + line);
+
+        if (!passed)
+            failures.add(line);
+    }
+
+    private double baseline(String name) {
+        String value = baselines.getProperty(name);
+        if (value == null)
+            throw new IllegalArgumentException("No baseline for " + name);
+
+        return Double.parseDouble(value);
+    }
+
+    private double tolerance(String name) {
+        String override = System.getProperty("wixby.perf.tolerance");
+        if (override != null)
+            return Double.parseDouble(override);
+
+        return Double.parseDouble(baselines.getProperty(name + ".tolerance", baselines.getProperty("tolerance", "0")));
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines)
+            joined.append("  ").append(line).append('\n');
+
+        return joined.toString();
+    }
+}
@@ -0,0 +1,285 @@
+package com.tinyideas.wixby;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.tinyideas.wixby.core.DateCodec;
+import com.tinyideas.wixby.core.PasswordHasher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database written by the first release all the way to the current version, and runs
+ * the background migrations the upgrade schedules: in one go, stopped halfway and resumed by a new
+ * helper (as after the app was killed), and a second time over batches that were already committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class MigrationsTest {
+
+    private static final String DATABASE_NAME = "migrations-test.db";
+
+    private static final int USER_COUNT = 5;
+
+    // Small enough for every migration to take a few batches.
+    private static final int BATCH_SIZE = 2;
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        createFirstReleaseDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (databaseHelper != null)
+            databaseHelper.close();
+
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradesTheFirstRelease() throws IOException {
+        SQLiteDatabase database = open();
+        assertEquals(DatabaseHelper.DATABASE_VERSION, database.getVersion());
+
+        // Version 2 put the text columns back in place, and dropped the image without a user.
+        for (int i = 0; i < USER_COUNT; i++) {
+            Data user = databaseHelper.getUser(i + 1);
+            assertEquals(firstName(i), user.getFirstName());
+            assertEquals(dateOfBirth(i), user.getDateOfBirth());
+            assertEquals(gender(i), user.getGender());
+            assertEquals("Place " + i, user.getLocation());
+            assertEquals("State " + i, user.getState());
+            assertEquals("Country " + i, user.getCountry());
+        }
+        assertEquals(USER_COUNT, DatabaseUtils.queryNumEntries(database, DatabaseHelper.IMAGE_TABLE));
+
+        // Every rewrite of the rows is left to the background migrations.
+        assertEquals(6, pendingJobs(database).size());
+        assertTrue(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, Integer.MAX_VALUE));
+        assertMigrated(database);
+    }
+
+    @Test
+    public void resumesWhereItWasStopped() throws IOException {
+        SQLiteDatabase database = open();
+        String firstJob = pendingJobs(database).get(0);
+
+        // Stopped right after the first batch, whose progress was committed along with it.
+        assertFalse(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, 1));
+        assertEquals(BATCH_SIZE, lastKeyOf(database, firstJob));
+        assertEquals(BATCH_SIZE, databaseHelper.searchUsers("First", USER_COUNT).size());
+
+        // As if the app had been killed and started again, a few more batches at a time.
+        databaseHelper.close();
+        database = open();
+        assertFalse(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, 3));
+        assertTrue(lastKeyOf(database, pendingJobs(database).get(0)) > 0);
+
+        databaseHelper.close();
+        database = open();
+        assertTrue(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, Integer.MAX_VALUE));
+        assertMigrated(database);
+    }
+
+    @Test
+    public void rerunningCommittedBatchesChangesNothing() throws IOException {
+        SQLiteDatabase database = open();
+        List<String> jobs = pendingJobs(database);
+        assertTrue(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, Integer.MAX_VALUE));
+
+        String[] passwords = new String[USER_COUNT];
+        for (int i = 0; i < USER_COUNT; i++)
+            passwords[i] = databaseHelper.getUser(i + 1).getPassword();
+
+        // As if the progress of every job had been lost after all of its batches were committed.
+        for (String job : jobs) {
+            database.execSQL(String.format("INSERT INTO %s (%s, %s, %s) VALUES (?, 0, ?)", Migrations.JOBS_TABLE,
+                    Migrations.COLUMN_JOB_NAME, Migrations.COLUMN_JOB_LAST_KEY, Migrations.COLUMN_JOB_END_KEY),
+                    new Object[]{job, USER_COUNT});
+        }
+        assertTrue(Migrations.runBackgroundMigrations(databaseHelper, database, BATCH_SIZE, Integer.MAX_VALUE));
+        assertMigrated(database);
+
+        // A hash is never mistaken for a password and hashed again.
+        for (int i = 0; i < USER_COUNT; i++)
+            assertEquals(passwords[i], databaseHelper.getUser(i + 1).getPassword());
+    }
+
+    /**
+     * Checks that every background migration is done, and has done its job for every user.
+     */
+    private void assertMigrated(SQLiteDatabase database) throws IOException {
+        assertTrue(pendingJobs(database).isEmpty());
+        assertEquals(USER_COUNT, databaseHelper.searchUsers("First", USER_COUNT + 1).size());
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            long userIndex = i + 1;
+            Data user = databaseHelper.getUser(userIndex);
+            assertTrue(PasswordHasher.verify(password(i), user.getPassword()));
+            assertEquals(DateCodec.parse(dateOfBirth(i)), longFor(database, String.format("SELECT %s FROM %s " +
+                    "WHERE %s = %d", DatabaseHelper.COLUMN_DOB_EPOCH_DAY, DatabaseHelper.TABLE_NAME,
+                    DatabaseHelper.COLUMN_INDEX, userIndex)));
+
+            // The image was moved into the store, and both its renditions and its perceptual hash
+            // were made from there.
+            Cursor cursor = database.rawQuery(String.format("SELECT %s, %s, %s FROM %s WHERE %s = %d",
+                    DatabaseHelper.COLUMN_IMAGE, DatabaseHelper.COLUMN_IMAGE_HASH,
+                    DatabaseHelper.COLUMN_IMAGE_PERCEPTUAL_HASH, DatabaseHelper.IMAGE_TABLE,
+                    DatabaseHelper.COLUMN_INDEX, userIndex), null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertTrue(cursor.isNull(0));
+                assertTrue(databaseHelper.getImageStore().fileFor(cursor.getString(1)).isFile());
+                assertFalse(cursor.isNull(2));
+            } finally {
+                cursor.close();
+            }
+
+            assertTrue(longFor(database, String.format("SELECT COUNT(*) FROM %s WHERE %s = %d",
+                    DatabaseHelper.RENDITION_TABLE, DatabaseHelper.COLUMN_INDEX, userIndex)) > 0);
+            InputStream image = databaseHelper.openUserImage(userIndex);
+            assertNotNull(image);
+            image.close();
+        }
+    }
+
+    /**
+     * Opens the database with a helper of its own, which leaves the background migrations to the
+     * test.
+     */
+    private SQLiteDatabase open() {
+        databaseHelper = new DatabaseHelper(context, DATABASE_NAME);
+        databaseHelper.setStartsBackgroundMigrations(false);
+        databaseHelper.setPasswordHasher(new PasswordHasher(PasswordHasher.MIN_ITERATIONS));
+        return databaseHelper.getWritableDatabase();
+    }
+
+    /**
+     * Writes a database the way the first release did: a user table with its text columns shuffled,
+     * and an image table with a key of its own.
+     */
+    private void createFirstReleaseDatabase() {
+        SQLiteOpenHelper firstRelease = new SQLiteOpenHelper(context, DATABASE_NAME, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase database) {
+                database.execSQL("CREATE TABLE IndexTable (AutoIndex integer PRIMARY KEY AUTOINCREMENT, " +
+                        "FirstName TEXT, LastName TEXT, Password TEXT, DateOfBirth TEXT, Gender TEXT, " +
+                        "Location TEXT, PinCode TEXT, State TEXT, Country TEXT);");
+                database.execSQL("CREATE TABLE ImageTable (AutoIndex INTEGER PRIMARY KEY AUTOINCREMENT, Image BLOB);");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+            }
+        };
+
+        SQLiteDatabase database = firstRelease.getWritableDatabase();
+        for (int i = 0; i <= USER_COUNT; i++) {
+            // One image more than there are users, which version 2 is expected to drop.
+            ContentValues image = new ContentValues();
+            image.put("Image", ImageHandler.getBytes(photo(i)));
+            database.insert("ImageTable", null, image);
+
+            if (i == USER_COUNT)
+                break;
+
+            // Each of these columns held the value of another one.
+            ContentValues user = new ContentValues();
+            user.put("FirstName", firstName(i));
+            user.put("LastName", "Last " + i);
+            user.put("Password", password(i));
+            user.put("Location", dateOfBirth(i));
+            user.put("State", gender(i));
+            user.put("Country", "Place " + i);
+            user.put("DateOfBirth", "State " + i);
+            user.put("Gender", "Country " + i);
+            user.put("PinCode", String.valueOf(110000 + i));
+            database.insert("IndexTable", null, user);
+        }
+
+        firstRelease.close();
+    }
+
+    private static List<String> pendingJobs(SQLiteDatabase database) {
+        List<String> jobs = new ArrayList<>();
+        Cursor cursor = database.rawQuery(String.format("SELECT %s FROM %s ORDER BY rowid",
+                Migrations.COLUMN_JOB_NAME, Migrations.JOBS_TABLE), null);
+        try {
+            while (cursor.moveToNext())
+                jobs.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+
+        return jobs;
+    }
+
+    private static long lastKeyOf(SQLiteDatabase database, String job) {
+        return DatabaseUtils.longForQuery(database, String.format("SELECT %s FROM %s WHERE %s = ?",
+                Migrations.COLUMN_JOB_LAST_KEY, Migrations.JOBS_TABLE, Migrations.COLUMN_JOB_NAME), new String[]{job});
+    }
+
+    private static long longFor(SQLiteDatabase database, String query) {
+        return DatabaseUtils.longForQuery(database, query, null);
+    }
+
+    private static String firstName(int i) {
+        return "First" + i;
+    }
+
+    private static String password(int i) {
+        return "password " + i;
+    }
+
+    private static String dateOfBirth(int i) {
+        return (i + 1) + " January, 1990";
+    }
+
+    private static String gender(int i) {
+        return (i % 2 == 0) ? "Female" : "Male";
+    }
+
+    // An image different for every user, and large enough to need both renditions.
+    private static Bitmap photo(int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(1200, 900, Bitmap.Config.ARGB_8888);
+        int[] row = new int[bitmap.getWidth()];
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < row.length; x++)
+                row[x] = 0xff000000 | (((x + seed * 40) & 0xff) << 16) | (((y * (seed + 1)) & 0xff) << 8);
+
+            bitmap.setPixels(row, 0, row.length, 0, y, row.length, 1);
+        }
+
+        return bitmap;
+    }
+}
@@ -0,0 +1,98 @@
+package com.tinyideas.wixby;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerceptualHashIndexTest {
+
+    @Test
+    public void findsWhatAScanFinds() {
+        Random random = new Random(42);
+        PerceptualHashIndex index = new PerceptualHashIndex();
+
+        // Clusters of near duplicates among unrelated images, far more than the initial capacity.
+        long[] hashes = new long[5000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = (i % 10 == 0) ? random.nextLong() : flipBits(hashes[i - 1], random.nextInt(6), random);
+            index.add(i + 1, hashes[i]);
+        }
+        assertEquals(hashes.length, index.size());
+
+        for (int query = 0; query < 50; query++) {
+            long hash = flipBits(hashes[random.nextInt(hashes.length)], random.nextInt(4), random);
+            for (int maxDistance : new int[]{0, 3, PerceptualHash.NEAR_DUPLICATE_DISTANCE, 16}) {
+                List<HashMatch> matches = index.find(hash, maxDistance);
+                List<HashMatch> expected = scan(hashes, hash, maxDistance);
+
+                assertEquals(expected.size(), matches.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getUserIndex(), matches.get(i).getUserIndex());
+                    assertEquals(expected.get(i).getDistance(), matches.get(i).getDistance());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ordersClosestFirstThenNewest() {
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        index.add(1, 0b1111L);
+        index.add(2, 0b0000L);
+        index.add(3, 0b0001L);
+        index.add(4, 0b0000L);
+
+        List<HashMatch> matches = index.find(0, 4);
+        assertEquals(4, matches.size());
+        assertEquals(4, matches.get(0).getUserIndex());
+        assertEquals(2, matches.get(1).getUserIndex());
+        assertEquals(3, matches.get(2).getUserIndex());
+        assertEquals(1, matches.get(3).getUserIndex());
+        assertEquals(4, matches.get(3).getDistance());
+    }
+
+    @Test
+    public void keepsASingleEntryPerUser() {
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        index.add(1, 0x0123456789abcdefL);
+        index.add(1, 0x0123456789abcdefL);
+
+        // The same image registered by another user is an entry of its own.
+        index.add(2, 0x0123456789abcdefL);
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.find(0x0123456789abcdefL, 0).size());
+    }
+
+    @Test
+    public void findsNothingInAnEmptyIndex() {
+        assertTrue(new PerceptualHashIndex().find(0, 64).isEmpty());
+    }
+
+    /**
+     * Finds the matches by comparing the hash against every image, in the order `find()` promises.
+     */
+    private static List<HashMatch> scan(long[] hashes, long hash, int maxDistance) {
+        List<HashMatch> matches = new ArrayList<>();
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            for (int i = hashes.length - 1; i >= 0; i--) {
+                if (PerceptualHash.distance(hash, hashes[i]) == distance)
+                    matches.add(new HashMatch(i + 1, distance));
+            }
+        }
+
+        return matches;
+    }
+
+    private static long flipBits(long hash, int count, Random random) {
+        for (int i = 0; i < count; i++)
+            hash ^= 1L << random.nextInt(64);
+
+        return hash;
+    }
+}
@@ -0,0 +1,232 @@
+package com.tinyideas.wixby;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.tinyideas.wixby.core.PasswordHasher;
+import com.tinyideas.wixby.core.UserRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs `RegistrationQueue` against a real database, with the writer driven by hand, thus every test
+ * decides exactly which registrations end up in the same batch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RegistrationQueueTest {
+
+    private static final String DATABASE_NAME = "registration-queue-test.db";
+
+    private Context context;
+    private DatabaseHelper databaseHelper;
+    private ManualExecutor writer;
+    private RegistrationQueue queue;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        databaseHelper = new DatabaseHelper(context, DATABASE_NAME);
+        databaseHelper.setPasswordHasher(new PasswordHasher(1));
+
+        writer = new ManualExecutor();
+        queue = new RegistrationQueue(databaseHelper, writer);
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void writesABurstInASingleTransaction() throws Exception {
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        Future<Long> firstFuture = queue.enqueue(record("Ada"), photo(1), first);
+        Future<Long> secondFuture = queue.enqueue(record("Grace"), photo(2), second);
+
+        // Both the registrations were picked up by a single drain.
+        assertEquals(1, writer.runAll());
+        assertTrue(firstFuture.isDone());
+        assertTrue(secondFuture.isDone());
+
+        long firstIndex = firstFuture.get(0, TimeUnit.SECONDS);
+        long secondIndex = secondFuture.get(0, TimeUnit.SECONDS);
+        assertEquals("Ada", databaseHelper.getUser(firstIndex).getFirstName());
+        assertEquals("Grace", databaseHelper.getUser(secondIndex).getFirstName());
+        assertEquals(1, databaseHelper.getMetrics().getTransactionSizes().getCount());
+
+        // The password never reaches the database as typed.
+        assertTrue(PasswordHasher.verify("password", databaseHelper.getUser(firstIndex).getPassword()));
+
+        // The callbacks are delivered on the main thread.
+        assertNull(first.rowId);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Long.valueOf(firstIndex), first.rowId);
+        assertEquals(Long.valueOf(secondIndex), second.rowId);
+    }
+
+    @Test
+    public void skipsCancelledRegistrations() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        Future<Long> cancelled = queue.enqueue(record("Ada"), photo(1), callback);
+        Future<Long> written = queue.enqueue(record("Grace"), photo(2), null);
+
+        assertTrue(cancelled.cancel(false));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(cancelled.isDone());
+        writer.runAll();
+
+        try {
+            cancelled.get();
+            fail("A cancelled registration has no row ID");
+        } catch (CancellationException expected) {
+            // As expected.
+        }
+
+        // Only the other registration made it into the database, and nothing is reported for the
+        // cancelled one.
+        assertEquals("Grace", databaseHelper.getLastRegisteredUser().getFirstName());
+        assertEquals(written.get(), Long.valueOf(databaseHelper.getLastRegisteredUser().getUserIndex()));
+        assertEquals(1, databaseHelper.getUsersPage(Long.MAX_VALUE, 10).size());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertNull(callback.rowId);
+        assertNull(callback.error);
+
+        // Once written, the registration can no longer be cancelled.
+        assertFalse(written.cancel(true));
+    }
+
+    @Test
+    public void failsOnlyTheRegistrationThatCouldNotBePrepared() throws Exception {
+        // A recycled image can't be encoded, which throws out of `ImageRenditions.create()`.
+        Bitmap recycled = photo(1);
+        recycled.recycle();
+
+        RecordingCallback failing = new RecordingCallback();
+        Future<Long> failed = queue.enqueue(record("Ada"), recycled, failing);
+        Future<Long> written = queue.enqueue(record("Grace"), photo(2), null);
+        writer.runAll();
+
+        try {
+            failed.get(0, TimeUnit.SECONDS);
+            fail("The registration should have failed");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RuntimeException);
+        }
+
+        assertEquals("Grace", databaseHelper.getUser(written.get()).getFirstName());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertNotNull(failing.error);
+        assertNull(failing.rowId);
+    }
+
+    @Test
+    public void discardsOnlyTheImagesNobodyRefersTo() throws IOException {
+        ImageStore imageStore = databaseHelper.getImageStore();
+
+        // A user holding on to the first image.
+        Bitmap shared = photo(1);
+        assertTrue(databaseHelper.registerUser("Ada", "Lovelace", "password", "London", "England",
+                "United Kingdom", "123456", "10 December, 1815", "Female", shared) > 0);
+
+        // The store keeps a single copy of identical images, thus discarding the same image for a
+        // user that was never written must not remove the file of the one that was.
+        ImageRenditions sharedImages = ImageRenditions.create(shared, imageStore);
+        ImageRenditions unusedImages = ImageRenditions.create(photo(2), imageStore);
+        databaseHelper.discardImages(sharedImages);
+        databaseHelper.discardImages(unusedImages);
+
+        assertTrue(imageStore.fileFor(sharedImages.getOriginal().getHash()).isFile());
+        for (Rendition rendition : sharedImages.getRenditions())
+            assertTrue(imageStore.fileFor(rendition.getImage().getHash()).isFile());
+
+        assertFalse(imageStore.fileFor(unusedImages.getOriginal().getHash()).exists());
+        for (Rendition rendition : unusedImages.getRenditions())
+            assertFalse(imageStore.fileFor(rendition.getImage().getHash()).exists());
+    }
+
+    private static UserRecord record(String firstName) {
+        return new UserRecord(firstName, "Tester", "password", "1 January, 1990", "Female", "Place",
+                "123456", "State", "Country");
+    }
+
+    // A small image, different for every seed, thus the store keeps each one separately.
+    private static Bitmap photo(int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(96, 64, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++)
+                bitmap.setPixel(x, y, 0xff000000 | ((x * seed * 37) & 0xff) << 16 | ((y * seed * 53) & 0xff) << 8);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Holds on to the tasks handed to the writer until the test runs them.
+     */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        int runAll() {
+            int count = 0;
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+    private static final class RecordingCallback implements RegistrationQueue.Callback {
+        Long rowId;
+        Exception error;
+
+        @Override
+        public void onRegistered(long rowId) {
+            this.rowId = rowId;
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            error = e;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.CountryIndex;
+import com.tinyideas.wixby.core.CountryList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the list of countries shown on the second sign up page, in a couple of
+ * languages (the names, and thus the sorting, differ between them). `cached()` is what the page
+ * pays once the index for the language has been built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CountryListBenchmark {
+
+    @Param({"en", "hi", "de"})
+    private String language;
+
+    private Locale locale;
+
+    @Setup
+    public void setUp() {
+        locale = new Locale(language);
+    }
+
+    @Benchmark
+    public List<String> build() {
+        return CountryList.build(locale);
+    }
+
+    @Benchmark
+    public List<String> cached() {
+        return CountryIndex.forLocale(locale).getNames();
+    }
+}
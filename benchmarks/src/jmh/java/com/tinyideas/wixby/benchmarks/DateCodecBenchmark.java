@@ -0,0 +1,57 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.DateCodec;
+import com.tinyideas.wixby.core.DateFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning the stored dates of birth into epoch days and back, which the migration to
+ * version 8 does for every user. With the GC profiler, `parse()` and `formatInto()` should report
+ * no allocations at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DateCodecBenchmark {
+
+    private String[] dates;
+    private int[] epochDays;
+    private final StringBuilder builder = new StringBuilder(32);
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        // Every month, with days of one and two digits, thus no single branch is favoured.
+        dates = new String[12];
+        epochDays = new int[dates.length];
+        for (int month = 0; month < dates.length; month++) {
+            dates[month] = DateFormatter.format(month * 2 + 1, month, 1970 + month * 3);
+            epochDays[month] = DateCodec.parse(dates[month]);
+        }
+    }
+
+    @Benchmark
+    public int parse() {
+        String date = dates[next];
+        next = (next + 1) % dates.length;
+        return DateCodec.parse(date);
+    }
+
+    @Benchmark
+    public int formatInto() {
+        int epochDay = epochDays[next];
+        next = (next + 1) % epochDays.length;
+
+        builder.setLength(0);
+        return DateCodec.format(epochDay, builder).length();
+    }
+}
@@ -0,0 +1,41 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.Date;
+import com.tinyideas.wixby.core.DateFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting a date of birth, which happens every time the user picks a date.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DateFormatterBenchmark {
+
+    private Date[] dates;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        // Every month, with days of one and two digits, thus no single branch is favoured.
+        dates = new Date[12];
+        for (int month = 0; month < dates.length; month++)
+            dates[month] = new Date(month * 2 + 1, month, 1970 + month * 3);
+    }
+
+    @Benchmark
+    public String format() {
+        Date date = dates[next];
+        next = (next + 1) % dates.length;
+        return DateFormatter.format(date);
+    }
+}
@@ -0,0 +1,48 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.PasswordHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken by a single password hash at every cost, i.e. what a registration waits
+ * on for each number of iterations `PasswordHasher.calibrate()` could settle for. The time grows
+ * linearly with the iterations, and its inverse is the number of guesses per second (per core) an
+ * attacker gets against a stolen hash on the same hardware.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PasswordHasherBenchmark {
+
+    @Param({"10000", "50000", "100000", "200000", "500000"})
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        hasher = new PasswordHasher(iterations);
+        hash = hasher.hash("correct horse battery");
+    }
+
+    @Benchmark
+    public String hash() {
+        return hasher.hash("correct horse battery");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return PasswordHasher.verify("correct horse battery", hash);
+    }
+}
@@ -0,0 +1,47 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.RegistrationValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures validating both the sign up pages, for the most common paths through the validation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RegistrationValidatorBenchmark {
+
+    // Fields instead of constants, thus the JIT can't fold the validation away.
+    private String firstName = "John";
+    private String lastName = "Doe";
+    private String password = "correct horse battery staple";
+    private String dateOfBirth = "14 September, 1990";
+    private String gender = "Male";
+    private String location = "Connaught Place";
+    private String pin = "110001";
+    private String indianState = "Delhi";
+    private String typedState = "Bavaria";
+
+    @Benchmark
+    public RegistrationValidator.Result personalDetails() {
+        return RegistrationValidator.validatePersonalDetails(firstName, lastName, password, dateOfBirth, gender);
+    }
+
+    @Benchmark
+    public RegistrationValidator.Result addressWithStateList() {
+        return RegistrationValidator.validateAddress(location, pin, indianState, "India");
+    }
+
+    @Benchmark
+    public RegistrationValidator.Result addressWithTypedState() {
+        return RegistrationValidator.validateAddress(location, pin, typedState, "Germany");
+    }
+}
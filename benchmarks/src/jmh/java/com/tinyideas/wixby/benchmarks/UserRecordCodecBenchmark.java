@@ -0,0 +1,44 @@
+package com.tinyideas.wixby.benchmarks;
+
+import com.tinyideas.wixby.core.UserRecord;
+import com.tinyideas.wixby.core.UserRecordCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a user record into bytes and reading it back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserRecordCodecBenchmark {
+
+    private UserRecord record;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        record = new UserRecord("John", "Doe", "correct horse battery staple", "14 September, 1990", "Male",
+                "Connaught Place", "110001", "Delhi", "India");
+        encoded = UserRecordCodec.toBytes(record);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return UserRecordCodec.toBytes(record);
+    }
+
+    @Benchmark
+    public UserRecord decode() throws IOException {
+        return UserRecordCodec.fromBytes(encoded);
+    }
+}
@@ -0,0 +1,124 @@
+package com.tinyideas.wixby.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The name of every ISO 3166 country in a given language, mapped to and from its code, along with the
+ * names in alphabetical order.
+ * <p>
+ * Building an index walks through every country code and creates a `Locale` for each, which is far
+ * too slow to repeat every time the second sign up page is opened. Thus, the indexes are kept for
+ * the whole process, one per language, and are meant to be built ahead of time on a background
+ * thread. See `forLocale()`.
+ */
+public final class CountryIndex {
+
+    private static final Map<Locale, CountryIndex> cache = new HashMap<>();
+
+    private final Locale displayLocale;
+    private final List<String> names;
+    private final Map<String, String> namesByCode;
+    private final Map<String, String> codesByName;
+
+    private CountryIndex(Locale displayLocale, List<String> names, Map<String, String> namesByCode,
+                         Map<String, String> codesByName) {
+        this.displayLocale = displayLocale;
+        this.names = Collections.unmodifiableList(names);
+        this.namesByCode = namesByCode;
+        this.codesByName = codesByName;
+    }
+
+    /**
+     * Returns the index for the given language, building it if it hasn't been built yet. If another
+     * thread is building the same index at the moment, waits for it instead of building it twice.
+     *
+     * @param displayLocale The language the names are to be written in.
+     * @return The index, shared by everyone asking for the same language.
+     */
+    public static CountryIndex forLocale(Locale displayLocale) {
+        synchronized (cache) {
+            CountryIndex index = cache.get(displayLocale);
+            if (index == null) {
+                index = build(displayLocale);
+                cache.put(displayLocale, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Forgets every index built so far. Meant for when the language of the device changes, after
+     * which the indexes for the earlier language are unlikely to be needed again.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Builds an index without looking at (or adding to) the ones kept for the process. A few codes
+     * share the same name in some languages, such names are only listed once, for the first of the
+     * codes.
+     *
+     * @param displayLocale The language the names are to be written in.
+     * @return The index.
+     */
+    public static CountryIndex build(Locale displayLocale) {
+        String[] isoCountryCodes = Locale.getISOCountries();
+        List<String> names = new ArrayList<>(isoCountryCodes.length);
+        Map<String, String> namesByCode = new HashMap<>(isoCountryCodes.length * 2);
+        Map<String, String> codesByName = new HashMap<>(isoCountryCodes.length * 2);
+
+        for (String countryCode : isoCountryCodes) {
+            String countryName = new Locale("", countryCode).getDisplayCountry(displayLocale).trim();
+            namesByCode.put(countryCode, countryName);
+
+            // The map of names doubles as the check for duplicates.
+            if (!codesByName.containsKey(countryName)) {
+                codesByName.put(countryName, countryCode);
+                names.add(countryName);
+            }
+        }
+
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+        return new CountryIndex(displayLocale, names, namesByCode, codesByName);
+    }
+
+    /**
+     * @return The language the names are written in.
+     */
+    public Locale getDisplayLocale() {
+        return displayLocale;
+    }
+
+    /**
+     * @return The names of the countries, sorted alphabetically without regard to case. The list
+     * can't be modified.
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @param countryCode An ISO 3166 country code, for example "IN".
+     * @return The name of the country, or null if the code is unknown.
+     */
+    public String getName(String countryCode) {
+        return namesByCode.get(countryCode);
+    }
+
+    /**
+     * @param countryName The name of a country, as listed by `getNames()`.
+     * @return The ISO 3166 code of the country, or null if the name is unknown.
+     */
+    public String getCode(String countryName) {
+        return codesByName.get(countryName);
+    }
+}
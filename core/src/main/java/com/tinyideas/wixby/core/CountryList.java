@@ -0,0 +1,28 @@
+package com.tinyideas.wixby.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds the list of countries the user picks their country from, i.e. the name of every ISO 3166
+ * country in the language of the user, in alphabetical order.
+ * <p>
+ * Builds a fresh list on every call, the screens should use the one kept by `CountryIndex` instead.
+ */
+public final class CountryList {
+
+    private CountryList() {
+    }
+
+    /**
+     * Builds the list of countries, with the names in the given language. A few codes share the same
+     * name in some languages, such names are only listed once.
+     *
+     * @param displayLocale The language the names are to be written in.
+     * @return The names of the countries, sorted alphabetically without regard to case.
+     */
+    public static List<String> build(Locale displayLocale) {
+        return new ArrayList<>(CountryIndex.build(displayLocale).getNames());
+    }
+}
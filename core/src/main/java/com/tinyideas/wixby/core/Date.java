@@ -1,4 +1,4 @@
-package com.tinyideas.wixby;
+package com.tinyideas.wixby.core;
 
 public class Date {
     private int date;
@@ -0,0 +1,264 @@
+package com.tinyideas.wixby.core;
+
+/**
+ * Converts dates to and from their epoch day, i.e. the number of days since 1 January 1970, which is
+ * how the dates of birth are stored for sorting and range queries. Also formats and parses the text
+ * written by `DateFormatter` ("14 September, 2019").
+ * <p>
+ * None of the methods allocate (apart from `format(int)`, which returns a string), thus the parser
+ * can be run over every row of a large table without putting any pressure on the garbage collector.
+ * The calendar is the proleptic Gregorian calendar, without time zones.
+ */
+public final class DateCodec {
+
+    /**
+     * Returned by `parse()` for text that isn't a date.
+     */
+    public static final int NOT_A_DATE = Integer.MIN_VALUE;
+
+    // The number of days in a 400 year cycle, and the offset of 1 March 0000 from the epoch. The
+    // years are counted from March, thus the leap day falls on the last day of the year.
+    private static final int DAYS_PER_ERA = 146097;
+    private static final int EPOCH_OFFSET = 719468;
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private DateCodec() {
+    }
+
+    /**
+     * Converts a date into its epoch day.
+     *
+     * @param dayOfMonth  The day of the month, starting from 1.
+     * @param monthOfYear The month of the year. 0 indexed, i.e. between [0, 11].
+     * @param year        The year.
+     * @return The number of days between 1 January 1970 and the date, negative for earlier dates.
+     * @throws IllegalArgumentException If there's no such day in the month.
+     */
+    public static int toEpochDay(int dayOfMonth, int monthOfYear, int year) {
+        if (!isValid(dayOfMonth, monthOfYear, year))
+            throw new IllegalArgumentException("No such date: " + dayOfMonth + "/" + (monthOfYear + 1) + "/" + year);
+
+        return daysFromCivil(dayOfMonth, monthOfYear + 1, year);
+    }
+
+    /**
+     * Converts a date selected by the user into its epoch day. See `toEpochDay(int, int, int)`.
+     */
+    public static int toEpochDay(Date date) {
+        return toEpochDay(date.getDate(), date.getMonthOfYear(), date.getYear());
+    }
+
+    /**
+     * @return The year the given epoch day falls in.
+     */
+    public static int yearOf(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay);
+        int yearOfEra = yearOfEra(dayOfEra);
+        int year = yearOfEra + era(epochDay) * 400;
+
+        // The years are counted from March, thus January and February belong to the year after.
+        return (marchMonthOf(dayOfEra, yearOfEra) >= 10) ? year + 1 : year;
+    }
+
+    /**
+     * @return The month of the year the given epoch day falls in, 0 indexed, i.e. between [0, 11].
+     */
+    public static int monthOf(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay);
+        int marchMonth = marchMonthOf(dayOfEra, yearOfEra(dayOfEra));
+        return (marchMonth < 10) ? marchMonth + 2 : marchMonth - 10;
+    }
+
+    /**
+     * @return The day of the month the given epoch day falls on, starting from 1.
+     */
+    public static int dayOf(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay);
+        int dayOfYear = dayOfYear(dayOfEra, yearOfEra(dayOfEra));
+        int marchMonth = (5 * dayOfYear + 2) / 153;
+        return dayOfYear - (153 * marchMonth + 2) / 5 + 1;
+    }
+
+    /**
+     * Converts an epoch day back into a date.
+     *
+     * @param epochDay The number of days since 1 January 1970.
+     * @return The date.
+     */
+    public static Date toDate(int epochDay) {
+        return new Date(dayOf(epochDay), monthOf(epochDay), yearOf(epochDay));
+    }
+
+    /**
+     * Moves a date back by a number of years, keeping the day and the month. The 29th of February
+     * becomes the 28th in years that aren't leap years.
+     *
+     * @param epochDay The date to start from.
+     * @param years    The number of years to move back by, negative to move forwards.
+     * @return The epoch day of the resulting date.
+     */
+    public static int minusYears(int epochDay, int years) {
+        int year = yearOf(epochDay) - years;
+        int month = monthOf(epochDay);
+        int day = Math.min(dayOf(epochDay), lengthOfMonth(month, year));
+        return daysFromCivil(day, month + 1, year);
+    }
+
+    /**
+     * Formats an epoch day in the form of "14 September, 2019", the same as `DateFormatter`.
+     *
+     * @param epochDay The number of days since 1 January 1970.
+     * @param out      The builder the date is to be appended to.
+     * @return `out`, for chaining.
+     */
+    public static StringBuilder format(int epochDay, StringBuilder out) {
+        return out.append(dayOf(epochDay)).append(' ')
+                .append(DateFormatter.MONTHS[monthOf(epochDay)]).append(", ")
+                .append(yearOf(epochDay));
+    }
+
+    /**
+     * Formats an epoch day in the form of "14 September, 2019". See `format(int, StringBuilder)`.
+     */
+    public static String format(int epochDay) {
+        return format(epochDay, new StringBuilder(DateFormatter.MAX_LENGTH)).toString();
+    }
+
+    /**
+     * Parses a date written by `DateFormatter`, for example "14 September, 2019". The month names are
+     * matched without case, and spaces around the text are ignored.
+     *
+     * @param text The text that is to be parsed, can be null.
+     * @return The epoch day of the date, or `NOT_A_DATE` if the text isn't a valid date.
+     */
+    public static int parse(CharSequence text) {
+        if (text == null)
+            return NOT_A_DATE;
+
+        int length = text.length();
+        int position = skipSpaces(text, 0);
+
+        // The day, followed by a single space.
+        int dayStart = position;
+        int day = 0;
+        while (position < length && position - dayStart < 2 && isDigit(text.charAt(position)))
+            day = day * 10 + (text.charAt(position++) - '0');
+        if (position == dayStart || position >= length || text.charAt(position++) != ' ')
+            return NOT_A_DATE;
+
+        // The name of the month, followed by a comma and a space.
+        int month = matchMonth(text, position);
+        if (month < 0)
+            return NOT_A_DATE;
+        position += DateFormatter.MONTHS[month].length();
+        if (position >= length || text.charAt(position++) != ',')
+            return NOT_A_DATE;
+        position = skipSpaces(text, position);
+
+        // The year, with up to 6 digits to keep it from overflowing.
+        int yearStart = position;
+        int year = 0;
+        while (position < length && position - yearStart < 6 && isDigit(text.charAt(position)))
+            year = year * 10 + (text.charAt(position++) - '0');
+        if (position == yearStart || skipSpaces(text, position) != length)
+            return NOT_A_DATE;
+
+        if (!isValid(day, month, year))
+            return NOT_A_DATE;
+
+        return daysFromCivil(day, month + 1, year);
+    }
+
+    /**
+     * @return Whether the day exists in the given month, the month being 0 indexed.
+     */
+    public static boolean isValid(int dayOfMonth, int monthOfYear, int year) {
+        return monthOfYear >= 0 && monthOfYear < 12 && dayOfMonth >= 1
+                && dayOfMonth <= lengthOfMonth(monthOfYear, year);
+    }
+
+    private static int lengthOfMonth(int monthOfYear, int year) {
+        if (monthOfYear == 1 && isLeapYear(year))
+            return 29;
+
+        return DAYS_IN_MONTH[monthOfYear];
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /**
+     * The conversion itself, with the month starting from 1. Counts the years from March, which
+     * puts the leap day at the end of the year and makes the length of the months before any day
+     * a simple formula.
+     */
+    private static int daysFromCivil(int day, int month, int year) {
+        if (month <= 2)
+            year--;
+
+        int era = floorDiv(year, 400);
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * DAYS_PER_ERA + dayOfEra - EPOCH_OFFSET;
+    }
+
+    // `Math.floorDiv()` isn't available before Java 8 (or Android N).
+    private static int floorDiv(int x, int y) {
+        int quotient = x / y;
+        return ((x % y != 0) && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static int era(int epochDay) {
+        return floorDiv(epochDay + EPOCH_OFFSET, DAYS_PER_ERA);
+    }
+
+    private static int dayOfEra(int epochDay) {
+        return epochDay + EPOCH_OFFSET - era(epochDay) * DAYS_PER_ERA;
+    }
+
+    private static int yearOfEra(int dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    private static int dayOfYear(int dayOfEra, int yearOfEra) {
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+    // The month counted from March, i.e. 0 for March and 11 for February.
+    private static int marchMonthOf(int dayOfEra, int yearOfEra) {
+        return (5 * dayOfYear(dayOfEra, yearOfEra) + 2) / 153;
+    }
+
+    private static int matchMonth(CharSequence text, int position) {
+        for (int month = 0; month < DateFormatter.MONTHS.length; month++) {
+            String name = DateFormatter.MONTHS[month];
+            if (position + name.length() > text.length())
+                continue;
+
+            int i = 0;
+            while (i < name.length() && Character.toLowerCase(text.charAt(position + i))
+                    == Character.toLowerCase(name.charAt(i)))
+                i++;
+
+            if (i == name.length())
+                return month;
+        }
+
+        return -1;
+    }
+
+    private static int skipSpaces(CharSequence text, int position) {
+        while (position < text.length() && text.charAt(position) == ' ')
+            position++;
+
+        return position;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
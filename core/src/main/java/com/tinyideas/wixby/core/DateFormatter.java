@@ -0,0 +1,50 @@
+package com.tinyideas.wixby.core;
+
+/**
+ * Formats the dates shown to (and stored for) the user, for example "14 September, 2019". The month
+ * names are spelled out in English regardless of the locale of the device, which is how the dates of
+ * birth have always been written into the database.
+ */
+public final class DateFormatter {
+
+    static final String[] MONTHS = {"January", "February", "March", "April", "May", "June", "July",
+            "August", "September", "October", "November", "December"};
+
+    // "dd September, yyyy" is the longest a date can get.
+    static final int MAX_LENGTH = 18;
+
+    private DateFormatter() {
+    }
+
+    /**
+     * Formats a date selected by the user. See `format(int, int, int)`.
+     *
+     * @param date The date that is to be formatted.
+     * @return The date, for example "14 September, 2019".
+     */
+    public static String format(Date date) {
+        return format(date.getDate(), date.getMonthOfYear(), date.getYear());
+    }
+
+    /**
+     * Formats a date in the form of "14 September, 2019". The date is built in a single buffer
+     * sized for the longest possible date, thus the only allocation left is the resulting string.
+     *
+     * @param dayOfMonth  The day of the month, starting from 1.
+     * @param monthOfYear The month of the year. 0 indexed, i.e. between [0, 11], as handed out by
+     *                    the `DatePicker`.
+     * @param year        The year.
+     * @return The formatted date.
+     * @throws IllegalArgumentException If the month is outside of [0, 11].
+     */
+    public static String format(int dayOfMonth, int monthOfYear, int year) {
+        if (monthOfYear < 0 || monthOfYear >= MONTHS.length)
+            throw new IllegalArgumentException("Expected a month between 0 and 11, received " + monthOfYear);
+
+        return new StringBuilder(MAX_LENGTH)
+                .append(dayOfMonth).append(' ')
+                .append(MONTHS[monthOfYear]).append(", ")
+                .append(year)
+                .toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.tinyideas.wixby.core;
+
+/**
+ * Counts how often every value (a latency, a number of rows, ...) has been seen, for reporting its
+ * percentiles. Every power of two is split into 8 buckets, thus a percentile is reported to within
+ * 1/8th of the actual value, whatever its magnitude, while the histogram is a fixed array of 488
+ * counts that covers every non-negative `long`.
+ * <p>
+ * Recording a value doesn't allocate, thus it can be done on every database operation. All the
+ * methods are thread safe.
+ */
+public final class Histogram {
+
+    // Each power of two is split into 2^3 buckets, values below 8 get a bucket of their own.
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    // All guarded by `this`.
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * Records a single value.
+     *
+     * @param value The value that was seen. Negative values are recorded as 0.
+     */
+    public synchronized void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The sum of every value recorded.
+     */
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The largest value recorded (exactly, not rounded to its bucket), 0 if none were.
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall. The value is
+     * the upper end of the bucket the percentile falls in, thus it's never below the actual
+     * percentile and at most 1/8th above it.
+     *
+     * @param percentile The percentile, between 0 and 100. For example 50 for the median.
+     * @return The value at the percentile, 0 if nothing has been recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile should be between 0 and 100, received " + percentile);
+        if (count == 0)
+            return 0;
+
+        // The rank of the value, counted from 1. The 0th percentile is the smallest value.
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank)
+                return Math.min(highestValueOf(bucket), max);
+        }
+
+        return max;
+    }
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    public synchronized void clear() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            counts[bucket] = 0;
+
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        // The position of the highest bit picks the power of two, the 3 bits below it the bucket.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    static long highestValueOf(int bucket) {
+        return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : lowestValueOf(bucket + 1) - 1;
+    }
+}
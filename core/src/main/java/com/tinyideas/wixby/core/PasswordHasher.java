@@ -0,0 +1,244 @@
+package com.tinyideas.wixby.core;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes passwords with PBKDF2 (HMAC-SHA1) and a random salt for every password, which is what
+ * ends up in the `Password` column instead of the password itself.
+ * <p>
+ * The cost of a hash is its number of iterations. Since the same number of iterations takes a very
+ * different amount of time on a cheap phone and on a flagship, the number is meant to be found with
+ * `calibrate()` on the device itself, for the time a single hash is allowed to take. A hash is stored
+ * as "pbkdf2-sha1$iterations$salt$hash" (the salt and the hash in hex), thus it carries its own cost
+ * and `verify()` keeps working for hashes written before the cost was raised.
+ * <p>
+ * Hashing is slow on purpose, thus none of the methods should be called on the main thread.
+ */
+public final class PasswordHasher {
+
+    /**
+     * The algorithm the keys are derived with. Available on every version of Android and Java.
+     */
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    /**
+     * The fewest iterations `calibrate()` settles for, however slow the device is.
+     */
+    public static final int MIN_ITERATIONS = 10000;
+
+    /**
+     * The most iterations `calibrate()` settles for, and that `verify()` is willing to run.
+     */
+    public static final int MAX_ITERATIONS = 2000000;
+
+    static final String PREFIX = "pbkdf2-sha1$";
+    static final int SALT_BYTES = 16;
+
+    // A single block of SHA-1. Asking for a longer key makes every hash cost twice as much here,
+    // while an attacker only ever has to compute the first block to check a guess.
+    static final int HASH_BYTES = 20;
+
+    // The calibration times this many iterations a few times over and keeps the fastest run, which
+    // leaves out the runs slowed down by the JIT, the garbage collector or another thread.
+    private static final int CALIBRATION_ITERATIONS = 5000;
+    private static final int CALIBRATION_RUNS = 3;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final int iterations;
+
+    /**
+     * @param iterations The number of iterations every hash is computed with, usually found with
+     *                   `calibrate()`.
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations <= 0 || iterations > MAX_ITERATIONS)
+            throw new IllegalArgumentException("iterations should be between 1 and " + MAX_ITERATIONS
+                    + ", received " + iterations);
+
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return The number of iterations every hash is computed with.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Hashes a password with a new random salt. Hashing the same password twice gives two different
+     * hashes, both of which are accepted by `verify()`.
+     *
+     * @param password The password that is to be hashed.
+     * @return The hash, in the form of "pbkdf2-sha1$iterations$salt$hash".
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+
+        byte[] hash = derive(password, salt, iterations, HASH_BYTES);
+
+        StringBuilder encoded = new StringBuilder(PREFIX.length() + 8 + 2 * (SALT_BYTES + HASH_BYTES) + 2);
+        encoded.append(PREFIX).append(iterations).append('$');
+        appendHex(encoded, salt).append('$');
+        return appendHex(encoded, hash).toString();
+    }
+
+    /**
+     * Checks a password against a hash written by `hash()`. The hashes are compared in constant
+     * time, thus how long the check takes says nothing about how close the guess was.
+     *
+     * @param password The password that is to be checked.
+     * @param encoded  The hash, as returned by `hash()`. Can be null.
+     * @return Whether the password is the one the hash was made from. False if `encoded` isn't a hash.
+     */
+    public static boolean verify(String password, String encoded) {
+        if (password == null || !isHash(encoded, 1))
+            return false;
+
+        int iterationsEnd = encoded.indexOf('$', PREFIX.length());
+        int saltEnd = encoded.indexOf('$', iterationsEnd + 1);
+
+        int iterations = Integer.parseInt(encoded.substring(PREFIX.length(), iterationsEnd));
+        byte[] salt = fromHex(encoded, iterationsEnd + 1, saltEnd);
+        byte[] expected = fromHex(encoded, saltEnd + 1, encoded.length());
+
+        return constantTimeEquals(expected, derive(password, salt, iterations, expected.length));
+    }
+
+    /**
+     * Tells a hash this app could have written apart from anything else, for example a password
+     * that was stored before passwords were hashed. Hashes with fewer than `MIN_ITERATIONS` are
+     * never written outside of tests, thus text that looks like one is treated as a password.
+     *
+     * @param value The text that is to be checked, can be null.
+     * @return Whether the text is a hash of at least `MIN_ITERATIONS`.
+     */
+    public static boolean isHash(String value) {
+        return isHash(value, MIN_ITERATIONS);
+    }
+
+    /**
+     * Checks that a text has the form of a hash written by `hash()`, with at least the given cost.
+     *
+     * @param value         The text that is to be checked, can be null.
+     * @param minIterations The fewest iterations the hash may have been computed with.
+     * @return Whether the text is a hash that `verify()` can check passwords against, computed with
+     * at least `minIterations`.
+     */
+    public static boolean isHash(String value, int minIterations) {
+        if (value == null || !value.startsWith(PREFIX))
+            return false;
+
+        int iterationsEnd = value.indexOf('$', PREFIX.length());
+        if (iterationsEnd < 0)
+            return false;
+        int saltEnd = value.indexOf('$', iterationsEnd + 1);
+        if (saltEnd < 0)
+            return false;
+
+        // Up to 7 digits, which covers `MAX_ITERATIONS` without overflowing.
+        int iterations = 0;
+        if (iterationsEnd == PREFIX.length() || iterationsEnd - PREFIX.length() > 7)
+            return false;
+        for (int i = PREFIX.length(); i < iterationsEnd; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+
+            iterations = iterations * 10 + (c - '0');
+        }
+        if (iterations <= 0 || iterations < minIterations || iterations > MAX_ITERATIONS)
+            return false;
+
+        return isHex(value, iterationsEnd + 1, saltEnd) && isHex(value, saltEnd + 1, value.length());
+    }
+
+    /**
+     * Finds the number of iterations that takes about `targetMillis` to hash a password on this
+     * device, by timing a smaller number of iterations and scaling it up. Takes a few times
+     * `CALIBRATION_ITERATIONS` worth of hashing, thus should be done once and the result kept.
+     *
+     * @param targetMillis The time a single hash should take, in milliseconds.
+     * @return The number of iterations, rounded down to a thousand and kept between
+     * `MIN_ITERATIONS` and `MAX_ITERATIONS`.
+     */
+    public static int calibrate(long targetMillis) {
+        if (targetMillis <= 0)
+            throw new IllegalArgumentException("targetMillis should be positive, received " + targetMillis);
+
+        byte[] salt = new byte[SALT_BYTES];
+        long fastest = Long.MAX_VALUE;
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            derive("calibration", salt, CALIBRATION_ITERATIONS, HASH_BYTES);
+            fastest = Math.min(fastest, Math.max(1, System.nanoTime() - start));
+        }
+
+        // The time taken grows linearly with the number of iterations.
+        long iterations = CALIBRATION_ITERATIONS * Math.min(targetMillis, 60000) * 1000000L / fastest;
+        iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+
+        return (int) (iterations - iterations % 1000);
+    }
+
+    /**
+     * Runs PBKDF2 itself.
+     */
+    static byte[] derive(String password, byte[] salt, int iterations, int length) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Every platform the app runs on is required to provide the algorithm.
+            throw new IllegalStateException("Unable to derive a key with " + ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static boolean constantTimeEquals(byte[] first, byte[] second) {
+        int difference = first.length ^ second.length;
+        for (int i = 0; i < Math.min(first.length, second.length); i++)
+            difference |= first[i] ^ second[i];
+
+        return difference == 0;
+    }
+
+    private static StringBuilder appendHex(StringBuilder out, byte[] bytes) {
+        for (byte b : bytes)
+            out.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+
+        return out;
+    }
+
+    // Only lowercase digits, as that's all `appendHex()` writes.
+    private static boolean isHex(String text, int start, int end) {
+        if (end <= start || (end - start) % 2 != 0)
+            return false;
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static byte[] fromHex(String text, int start, int end) {
+        byte[] bytes = new byte[(end - start) / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) ((Character.digit(text.charAt(start + 2 * i), 16) << 4)
+                    | Character.digit(text.charAt(start + 2 * i + 1), 16));
+
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+package com.tinyideas.wixby.core;
+
+import java.util.Locale;
+
+/**
+ * Checks the details entered on the two sign up pages before they're allowed through. Only tells
+ * what's wrong (if anything), showing the problem to the user is left to the screens themselves.
+ * All the values are expected to be trimmed already.
+ */
+public final class RegistrationValidator {
+
+    /**
+     * The country for which the state is picked from a fixed list instead of being typed in.
+     */
+    public static final String STATE_LIST_COUNTRY = "India";
+
+    private RegistrationValidator() {
+    }
+
+    /**
+     * The outcome of a validation.
+     */
+    public enum Result {
+        VALID(true),
+        MISSING_GENDER(false),
+        MISSING_DETAILS(false),
+        MISSING_STATE(false),
+
+        // The user typed a state of matter as their state.
+        STATE_OF_MATTER(false),
+
+        // The same, but with one of the less commonly known states of matter, which earns a pass.
+        OBSCURE_STATE_OF_MATTER(true);
+
+        private final boolean valid;
+
+        Result(boolean valid) {
+            this.valid = valid;
+        }
+
+        /**
+         * @return Whether the details may be submitted.
+         */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    /**
+     * Validates the details entered on the first sign up page.
+     *
+     * @param firstName   The first name of the user.
+     * @param lastName    The last name of the user.
+     * @param password    The password that the user selects.
+     * @param dateOfBirth The date of birth for the user.
+     * @param gender      The gender of the user, empty (or null) if none was selected.
+     * @return The first problem found with the details, or `Result.VALID`.
+     */
+    public static Result validatePersonalDetails(String firstName, String lastName, String password,
+                                                 String dateOfBirth, String gender) {
+        if (isEmpty(gender))
+            return Result.MISSING_GENDER;
+
+        if (isEmpty(firstName) || isEmpty(lastName) || isEmpty(password) || isEmpty(dateOfBirth))
+            return Result.MISSING_DETAILS;
+
+        return Result.VALID;
+    }
+
+    /**
+     * Validates the details entered on the second sign up page.
+     *
+     * @param location The location for the user.
+     * @param pin      The PIN code that the user entered.
+     * @param state    The state in which the user resides.
+     * @param country  The country of residence for the user.
+     * @return The first problem found with the details, or `Result.VALID`.
+     */
+    public static Result validateAddress(String location, String pin, String state, String country) {
+        if (isEmpty(location) || isEmpty(pin))
+            return Result.MISSING_DETAILS;
+
+        // A state picked from the list is always valid.
+        if (usesStateList(country))
+            return Result.VALID;
+
+        if (isEmpty(state))
+            return Result.MISSING_STATE;
+
+        String lowerCaseState = state.toLowerCase(Locale.ROOT);
+        if (lowerCaseState.equals("solid") || lowerCaseState.equals("liquid") || lowerCaseState.equals("gas"))
+            return Result.STATE_OF_MATTER;
+        if (lowerCaseState.equals("plasma") || lowerCaseState.equals("bec"))
+            return Result.OBSCURE_STATE_OF_MATTER;
+
+        return Result.VALID;
+    }
+
+    /**
+     * @return Whether the state of the given country is picked from a list instead of being typed.
+     */
+    public static boolean usesStateList(String country) {
+        return STATE_LIST_COUNTRY.equalsIgnoreCase(country);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+}
@@ -0,0 +1,82 @@
+package com.tinyideas.wixby.core;
+
+/**
+ * A simple POJO class that holds the textual details entered by a user during the registration
+ * process. Unlike `Data`, this class is used on the way *into* the database, i.e. an instance of
+ * this class is created once the user has filled both the sign up pages and is then handed over to
+ * `DatabaseHelper` (directly or through the `RegistrationQueue`) to be written into a row. See
+ * `UserRecordCodec` for writing a record into bytes.
+ */
+public class UserRecord {
+    private final String firstName;
+    private final String lastName;
+    private final String password;
+    private final String dateOfBirth;
+    private final String gender;
+    private final String location;
+    private final String pin;
+    private final String state;
+    private final String country;
+
+    /**
+     * The class constructor. Will be used as the only setter in the entire class.
+     *
+     * @param firstName   The first name of the user.
+     * @param lastName    The last name of the user.
+     * @param password    The password that the user selects.
+     * @param dateOfBirth The date of birth for the user.
+     * @param gender      The gender of the user.
+     * @param location    The location for the user.
+     * @param pin         The PIN code that the user entered.
+     * @param state       The state in which the user resides.
+     * @param country     The country of residence for the user.
+     */
+    public UserRecord(String firstName, String lastName, String password, String dateOfBirth,
+                      String gender, String location, String pin, String state, String country) {
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.password = password;
+        this.dateOfBirth = dateOfBirth;
+        this.gender = gender;
+        this.location = location;
+        this.pin = pin;
+        this.state = state;
+        this.country = country;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getPin() {
+        return pin;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+}
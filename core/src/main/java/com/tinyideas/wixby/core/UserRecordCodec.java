@@ -0,0 +1,98 @@
+package com.tinyideas.wixby.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a `UserRecord` into a compact binary form and reads it back, for handing a record between
+ * processes or keeping it on the disk. Every field is written as a presence flag followed by the
+ * value in modified UTF-8, thus null values survive the round trip.
+ */
+public final class UserRecordCodec {
+
+    // Written ahead of every record, thus the format can be changed later without misreading the
+    // records written by an older version.
+    private static final int FORMAT_VERSION = 1;
+
+    // A record is a few short strings, this fits most of them without the buffer having to grow.
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private UserRecordCodec() {
+    }
+
+    /**
+     * Writes a record to the given output.
+     *
+     * @param record The record that is to be written.
+     * @param output The output the record is to be written to.
+     * @throws IOException If the output could not be written to.
+     */
+    public static void write(UserRecord record, DataOutput output) throws IOException {
+        output.writeByte(FORMAT_VERSION);
+        writeText(output, record.getFirstName());
+        writeText(output, record.getLastName());
+        writeText(output, record.getPassword());
+        writeText(output, record.getDateOfBirth());
+        writeText(output, record.getGender());
+        writeText(output, record.getLocation());
+        writeText(output, record.getPin());
+        writeText(output, record.getState());
+        writeText(output, record.getCountry());
+    }
+
+    /**
+     * Reads a record written by `write()`.
+     *
+     * @param input The input the record is to be read from.
+     * @return The record that was read.
+     * @throws IOException If the input could not be read, or doesn't hold a record.
+     */
+    public static UserRecord read(DataInput input) throws IOException {
+        int version = input.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unknown record format " + version);
+
+        // The arguments are evaluated from left to right, thus the fields are read in order.
+        return new UserRecord(readText(input), readText(input), readText(input), readText(input),
+                readText(input), readText(input), readText(input), readText(input), readText(input));
+    }
+
+    /**
+     * Writes a record into an array of bytes. See `write()`.
+     */
+    public static byte[] toBytes(UserRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        try {
+            write(record, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // Writing into memory never fails.
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a record from an array of bytes written by `toBytes()`.
+     *
+     * @throws IOException If the bytes don't hold a record.
+     */
+    public static UserRecord fromBytes(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static void writeText(DataOutput output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null)
+            output.writeUTF(value);
+    }
+
+    private static String readText(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CountryIndexTest {
+
+    @Test
+    public void mapsCodesToNamesAndBack() {
+        CountryIndex index = CountryIndex.build(Locale.ENGLISH);
+
+        assertEquals("India", index.getName("IN"));
+        assertEquals("IN", index.getCode("India"));
+        assertNull(index.getName("XX"));
+    }
+
+    @Test
+    public void listsNamesInAlphabeticalOrder() {
+        List<String> names = CountryIndex.build(Locale.ENGLISH).getNames();
+
+        for (int i = 1; i < names.size(); i++)
+            assertTrue(String.CASE_INSENSITIVE_ORDER.compare(names.get(i - 1), names.get(i)) <= 0);
+    }
+
+    @Test
+    public void keepsOneIndexPerLocale() {
+        CountryIndex.clearCache();
+        CountryIndex english = CountryIndex.forLocale(Locale.ENGLISH);
+
+        assertSame(english, CountryIndex.forLocale(Locale.ENGLISH));
+        assertNotSame(english, CountryIndex.forLocale(Locale.GERMAN));
+
+        CountryIndex.clearCache();
+        assertNotSame(english, CountryIndex.forLocale(Locale.ENGLISH));
+    }
+}
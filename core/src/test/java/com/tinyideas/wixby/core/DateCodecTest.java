@@ -0,0 +1,71 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class DateCodecTest {
+
+    @Test
+    public void convertsKnownDates() {
+        assertEquals(0, DateCodec.toEpochDay(1, 0, 1970));
+        assertEquals(-1, DateCodec.toEpochDay(31, 11, 1969));
+        assertEquals(11016, DateCodec.toEpochDay(29, 1, 2000));
+        assertEquals(18153, DateCodec.toEpochDay(14, 8, 2019));
+    }
+
+    @Test
+    public void matchesTheCalendar() {
+        // Every day from 1900 to 2100, checked against the calendar of the JDK.
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(1900, Calendar.JANUARY, 1);
+
+        int epochDay = DateCodec.toEpochDay(1, 0, 1900);
+        while (calendar.get(Calendar.YEAR) < 2100) {
+            int day = calendar.get(Calendar.DAY_OF_MONTH);
+            int month = calendar.get(Calendar.MONTH);
+            int year = calendar.get(Calendar.YEAR);
+
+            assertEquals(epochDay, DateCodec.toEpochDay(day, month, year));
+            assertEquals(day, DateCodec.dayOf(epochDay));
+            assertEquals(month, DateCodec.monthOf(epochDay));
+            assertEquals(year, DateCodec.yearOf(epochDay));
+
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            epochDay++;
+        }
+    }
+
+    @Test
+    public void parsesWhatItFormats() {
+        for (int epochDay = -30000; epochDay < 30000; epochDay += 37) {
+            String text = DateCodec.format(epochDay);
+            assertEquals(text, DateFormatter.format(DateCodec.toDate(epochDay)));
+            assertEquals(epochDay, DateCodec.parse(text));
+        }
+
+        assertEquals(DateCodec.toEpochDay(3, 2, 1999), DateCodec.parse("  3 march,1999 "));
+    }
+
+    @Test
+    public void rejectsTextThatIsNotADate() {
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse(null));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse(""));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse("12/03/1999"));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse("31 April, 1999"));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse("29 February, 1900"));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse("12 Marchy, 1999"));
+        assertEquals(DateCodec.NOT_A_DATE, DateCodec.parse("12 March, 1999 AD"));
+    }
+
+    @Test
+    public void movesBackByYears() {
+        assertEquals(DateCodec.toEpochDay(14, 8, 2001), DateCodec.minusYears(DateCodec.toEpochDay(14, 8, 2019), 18));
+        assertEquals(DateCodec.toEpochDay(28, 1, 2019), DateCodec.minusYears(DateCodec.toEpochDay(29, 1, 2020), 1));
+    }
+}
@@ -0,0 +1,20 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DateFormatterTest {
+
+    @Test
+    public void formatsDayMonthAndYear() {
+        assertEquals("14 September, 2019", DateFormatter.format(14, 8, 2019));
+        assertEquals("1 January, 1970", DateFormatter.format(new Date(1, 0, 1970)));
+        assertEquals("31 December, 1999", DateFormatter.format(31, 11, 1999));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMonthOutOfRange() {
+        DateFormatter.format(1, 12, 2019);
+    }
+}
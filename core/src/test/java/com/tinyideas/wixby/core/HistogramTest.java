@@ -0,0 +1,67 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        assertEquals(0, Histogram.bucketOf(0));
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+
+        // The buckets follow on from each other without gaps or overlaps.
+        for (int bucket = 0; bucket < Histogram.BUCKETS - 1; bucket++) {
+            assertEquals(Histogram.highestValueOf(bucket) + 1, Histogram.lowestValueOf(bucket + 1));
+            assertEquals(bucket, Histogram.bucketOf(Histogram.lowestValueOf(bucket)));
+            assertEquals(bucket, Histogram.bucketOf(Histogram.highestValueOf(bucket)));
+        }
+    }
+
+    @Test
+    public void reportsPercentilesWithinAnEighth() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10000; value++)
+            histogram.record(value);
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000L * 10001 / 2, histogram.getSum());
+        assertEquals(10000, histogram.getMax());
+
+        assertWithinAnEighth(5000, histogram.getPercentile(50));
+        assertWithinAnEighth(9900, histogram.getPercentile(99));
+        assertEquals(10000, histogram.getPercentile(100));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(-5);
+
+        assertEquals(0, histogram.getPercentile(25));
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void startsOverOnceCleared() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue("Expected " + expected + ", received " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
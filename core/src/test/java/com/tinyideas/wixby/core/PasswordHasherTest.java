@@ -0,0 +1,97 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordHasherTest {
+
+    // Far below what a device would be calibrated to, thus the tests stay quick.
+    private final PasswordHasher hasher = new PasswordHasher(1000);
+
+    @Test
+    public void verifiesThePasswordItHashed() {
+        String hash = hasher.hash("correct horse");
+
+        assertTrue(hash.startsWith(PasswordHasher.PREFIX + "1000$"));
+        assertTrue(PasswordHasher.isHash(hash, 1000));
+        assertTrue(PasswordHasher.verify("correct horse", hash));
+    }
+
+    @Test
+    public void rejectsOtherPasswords() {
+        String hash = hasher.hash("correct horse");
+
+        assertFalse(PasswordHasher.verify("correct horse ", hash));
+        assertFalse(PasswordHasher.verify("Correct horse", hash));
+        assertFalse(PasswordHasher.verify("", hash));
+        assertFalse(PasswordHasher.verify(null, hash));
+    }
+
+    @Test
+    public void saltsEveryHash() {
+        String first = hasher.hash("password");
+        String second = hasher.hash("password");
+
+        assertNotEquals(first, second);
+        assertTrue(PasswordHasher.verify("password", first));
+        assertTrue(PasswordHasher.verify("password", second));
+    }
+
+    @Test
+    public void verifiesHashesOfAnotherCost() {
+        String hash = new PasswordHasher(2000).hash("password");
+        assertTrue(PasswordHasher.verify("password", hash));
+    }
+
+    @Test
+    public void onlyTakesHashesOfTheMinimumCostAsHashes() {
+        String hash = new PasswordHasher(PasswordHasher.MIN_ITERATIONS).hash("password");
+        assertTrue(PasswordHasher.isHash(hash));
+
+        // A cheaper hash is never written outside of tests, thus it's taken for a password. It can
+        // still be checked against, though.
+        String cheapHash = hasher.hash("password");
+        assertFalse(PasswordHasher.isHash(cheapHash));
+        assertTrue(PasswordHasher.isHash(cheapHash, 1));
+        assertFalse(PasswordHasher.isHash(cheapHash, 1001));
+        assertTrue(PasswordHasher.verify("password", cheapHash));
+    }
+
+    @Test
+    public void tellsHashesFromPlainText() {
+        String hash = hasher.hash("password");
+        assertTrue(PasswordHasher.isHash(hash, 1));
+
+        assertFalse(PasswordHasher.isHash(null, 1));
+        assertFalse(PasswordHasher.isHash("password", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX, 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "1000$00ff", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "$00ff$00ff", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "0$00ff$00ff", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "99999999$00ff$00ff", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "1000$00fg$00ff", 1));
+        assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "1000$00ff$0ff", 1));
+        assertFalse(PasswordHasher.isHash(hash.toUpperCase(), 1));
+        assertFalse(PasswordHasher.verify("password", "password"));
+    }
+
+    @Test
+    public void calibratesWithinBounds() {
+        // No device hashes `MIN_ITERATIONS` within a millisecond.
+        assertEquals(PasswordHasher.MIN_ITERATIONS, PasswordHasher.calibrate(1));
+
+        int iterations = PasswordHasher.calibrate(20);
+        assertTrue(iterations >= PasswordHasher.MIN_ITERATIONS);
+        assertTrue(iterations <= PasswordHasher.MAX_ITERATIONS);
+        assertEquals(0, iterations % 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCost() {
+        new PasswordHasher(0);
+    }
+}
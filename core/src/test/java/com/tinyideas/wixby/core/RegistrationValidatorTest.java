@@ -0,0 +1,42 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegistrationValidatorTest {
+
+    @Test
+    public void personalDetailsNeedGenderFirst() {
+        assertEquals(RegistrationValidator.Result.MISSING_GENDER,
+                RegistrationValidator.validatePersonalDetails("", "", "", "", ""));
+        assertEquals(RegistrationValidator.Result.MISSING_DETAILS,
+                RegistrationValidator.validatePersonalDetails("John", "", "secret", "1 January, 1970", "Male"));
+        assertEquals(RegistrationValidator.Result.VALID,
+                RegistrationValidator.validatePersonalDetails("John", "Doe", "secret", "1 January, 1970", "Male"));
+    }
+
+    @Test
+    public void stateFromListIsAlwaysValid() {
+        assertEquals(RegistrationValidator.Result.VALID,
+                RegistrationValidator.validateAddress("Connaught Place", "110001", "", "india"));
+        assertEquals(RegistrationValidator.Result.MISSING_DETAILS,
+                RegistrationValidator.validateAddress("", "110001", "Delhi", "India"));
+    }
+
+    @Test
+    public void typedStateIsChecked() {
+        assertEquals(RegistrationValidator.Result.MISSING_STATE,
+                RegistrationValidator.validateAddress("Munich", "80331", "", "Germany"));
+        assertEquals(RegistrationValidator.Result.STATE_OF_MATTER,
+                RegistrationValidator.validateAddress("Munich", "80331", "Liquid", "Germany"));
+        assertFalse(RegistrationValidator.Result.STATE_OF_MATTER.isValid());
+
+        RegistrationValidator.Result plasma = RegistrationValidator.validateAddress("Munich", "80331", "PLASMA",
+                "Germany");
+        assertEquals(RegistrationValidator.Result.OBSCURE_STATE_OF_MATTER, plasma);
+        assertTrue(plasma.isValid());
+    }
+}
@@ -0,0 +1,44 @@
+package com.tinyideas.wixby.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UserRecordCodecTest {
+
+    @Test
+    public void roundTripsEveryField() throws IOException {
+        UserRecord record = new UserRecord("J\u00f6hn", "Doe", "secret", "1 January, 1970", "Male", "Connaught Place",
+                "110001", "Delhi", "India");
+        UserRecord decoded = UserRecordCodec.fromBytes(UserRecordCodec.toBytes(record));
+
+        assertEquals(record.getFirstName(), decoded.getFirstName());
+        assertEquals(record.getLastName(), decoded.getLastName());
+        assertEquals(record.getPassword(), decoded.getPassword());
+        assertEquals(record.getDateOfBirth(), decoded.getDateOfBirth());
+        assertEquals(record.getGender(), decoded.getGender());
+        assertEquals(record.getLocation(), decoded.getLocation());
+        assertEquals(record.getPin(), decoded.getPin());
+        assertEquals(record.getState(), decoded.getState());
+        assertEquals(record.getCountry(), decoded.getCountry());
+    }
+
+    @Test
+    public void keepsNulls() throws IOException {
+        UserRecord record = new UserRecord("John", null, null, null, null, null, null, null, "India");
+        UserRecord decoded = UserRecordCodec.fromBytes(UserRecordCodec.toBytes(record));
+
+        assertEquals("John", decoded.getFirstName());
+        assertNull(decoded.getLastName());
+        assertNull(decoded.getState());
+        assertEquals("India", decoded.getCountry());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownFormat() throws IOException {
+        UserRecordCodec.fromBytes(new byte[]{42});
+    }
+}